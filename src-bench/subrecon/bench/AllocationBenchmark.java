@@ -0,0 +1,134 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.bench;
+
+import java.io.FileReader;
+import java.lang.management.ManagementFactory;
+import pal.alignment.AlignmentReaders;
+import pal.alignment.SimpleAlignment;
+import pal.datatype.AminoAcids;
+import pal.substmodel.AminoAcidModel;
+import pal.substmodel.GammaRates;
+import pal.substmodel.RateDistribution;
+import pal.tree.ReadTree;
+import subrecon.Constants;
+import subrecon.SubRecon;
+import subrecon.molevo.AdvancedAlignmentAminoAcid;
+import subrecon.molevo.SitePatterns;
+import subrecon.molevo.SubstitutionEngine;
+import subrecon.recon.FlatTree;
+import subrecon.recon.JointBranchReconstruction;
+import subrecon.recon.KernelOps;
+import subrecon.recon.PruningKernel;
+import subrecon.recon.SubstitutionSelector;
+import subrecon.recon.TipStates;
+import subrecon.recon.TransitionMatrixCache;
+import subrecon.recon.Workspace;
+
+/**
+ * Measures the bytes allocated per site by the reconstruction, on one thread,
+ * after warm up. Uses the HotSpot per-thread allocation counter, so is exact
+ * rather than sampled.
+ *
+ * Two passes are reported: the pruning kernel alone, which should allocate
+ * nothing, and the full reconstruction, which should only allocate its
+ * SiteResults.
+ *
+ * Usage: java -cp SubRecon-benchmarks.jar subrecon.bench.AllocationBenchmark alignment.fasta tree.tre model [shape] [nCat] [iterations]
+ */
+public class AllocationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: AllocationBenchmark alignment.fasta tree.tre model [shape] [nCat] [iterations]");
+            System.exit(1);
+        }
+        double shape = args.length > 3 ? Double.parseDouble(args[3]) : 0.5;
+        int nCat = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+        int iterations = args.length > 5 ? Integer.parseInt(args[5]) : 20;
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            System.out.println("ERROR: JVM does not support per-thread allocation counting");
+            System.exit(1);
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        AdvancedAlignmentAminoAcid alignment = new AdvancedAlignmentAminoAcid(
+                new SimpleAlignment(AlignmentReaders.readFastaSequences(new FileReader(args[0]), new AminoAcids())));
+        FlatTree tree = new FlatTree(new ReadTree(args[1]), alignment);
+        TipStates tipStates = new TipStates(alignment, tree);
+        SitePatterns patterns = new SitePatterns(alignment);
+        AminoAcidModel model = SubRecon.getModelInstance(args[2], null);
+        RateDistribution rateDist = new GammaRates(nCat, shape);
+        TransitionMatrixCache matrices = new TransitionMatrixCache(tree, new SubstitutionEngine(model), rateDist);
+        Workspace.Pool workspaces = new Workspace.Pool(tipStates, tree, matrices, KernelOps.getInstance(false), Constants.BLOCK_SIZE);
+        double[] pi = model.getEquilibriumFrequencies();
+        SubstitutionSelector selector = new SubstitutionSelector(Constants.DEFAULT_PRINT_THRESHOLD, 0, true);
+
+        // blocks of pattern sites, as in SubRecon.run()
+        int nBlocks = (patterns.getPatternCount() + Constants.BLOCK_SIZE - 1) / Constants.BLOCK_SIZE;
+        int[][] blocks = new int[nBlocks][];
+        for (int iBlock = 0; iBlock < nBlocks; iBlock++) {
+            int firstPattern = iBlock * Constants.BLOCK_SIZE;
+            blocks[iBlock] = new int[Math.min(Constants.BLOCK_SIZE, patterns.getPatternCount() - firstPattern)];
+            for (int s = 0; s < blocks[iBlock].length; s++) {
+                blocks[iBlock][s] = patterns.getPatternSite(firstPattern + s);
+            }
+        }
+        JointBranchReconstruction[] tasks = new JointBranchReconstruction[nBlocks];
+        for (int iBlock = 0; iBlock < nBlocks; iBlock++) {
+            tasks[iBlock] = new JointBranchReconstruction(tree, matrices, workspaces, pi, rateDist, selector, 3, false, blocks[iBlock]);
+        }
+        PruningKernel kernel = workspaces.get().getKernel();
+        long sitesPerPass = (long)patterns.getPatternCount();
+
+        System.out.printf("%d taxa, %d patterns, %d rate classes, %d iterations%n", tree.getLeafCount(), patterns.getPatternCount(), nCat, iterations);
+
+        for (int pass = 0; pass < 2; pass++) { // first pass is warm up
+            long threadId = Thread.currentThread().getId();
+
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int iter = 0; iter < iterations; iter++) {
+                for (int[] block : blocks) {
+                    for (int iRate = 0; iRate < nCat; iRate++) {
+                        kernel.prune(block, block.length, iRate, tree.getRoot()-1);
+                    }
+                }
+            }
+            long kernelNanos = System.nanoTime() - start;
+            long kernelBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+            before = threadBean.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            for (int iter = 0; iter < iterations; iter++) {
+                for (JointBranchReconstruction task : tasks) {
+                    task.call();
+                }
+            }
+            long reconNanos = System.nanoTime() - start;
+            long reconBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+            if (pass > 0) {
+                long nSites = sitesPerPass * iterations;
+                System.out.printf("kernel only:          %10.1f bytes/site  %10.1f us/site%n", (double)kernelBytes / nSites, kernelNanos / 1e3 / nSites);
+                System.out.printf("full reconstruction:  %10.1f bytes/site  %10.1f us/site%n", (double)reconBytes / nSites, reconNanos / 1e3 / nSites);
+            }
+        }
+    }
+
+}
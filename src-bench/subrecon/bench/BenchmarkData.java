@@ -0,0 +1,232 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import pal.substmodel.AminoAcidModel;
+import pal.substmodel.GammaRates;
+import pal.substmodel.RateDistribution;
+import subrecon.Constants;
+import subrecon.DataCache;
+import subrecon.SubRecon;
+import subrecon.molevo.AdvancedAlignmentAminoAcid;
+import subrecon.molevo.SitePatterns;
+import subrecon.molevo.SubstitutionEngine;
+import subrecon.recon.FlatTree;
+import subrecon.recon.KernelOps;
+import subrecon.recon.TipStates;
+import subrecon.recon.TransitionMatrixCache;
+import subrecon.recon.Workspace;
+
+/**
+ * Synthetic data for the JMH benchmarks: a tree of a given number of taxa and
+ * shape, and an alignment evolved along it, written to temporary files and
+ * loaded as SubRecon would load them. Generated from a fixed seed, so every
+ * run measures the same data.
+ *
+ * Balanced trees are as shallow as possible; caterpillar trees, where each
+ * internal node has a leaf child, are as deep as possible, which is the worst
+ * case for the length of the pruning recursion and for rescaling.
+ */
+public class BenchmarkData {
+
+    public static final String BALANCED = "balanced";
+    public static final String CATERPILLAR = "caterpillar";
+
+    private static final String AMINO_ACIDS = "ARNDCQEGHILKMFPSTWYV";
+    private static final long SEED = 20180101L;
+    private static final double GAP_FRACTION = 0.05;
+
+    public final File alignmentFile;
+    public final File treeFile;
+    public final AdvancedAlignmentAminoAcid alignment;
+    public final FlatTree tree;
+    public final TipStates tipStates;
+    public final SitePatterns patterns;
+    public final RateDistribution rateDist;
+    public final double[] pi;
+    public final TransitionMatrixCache matrices;
+
+    private BenchmarkData(File alignmentFile, File treeFile, int nCat) throws Exception {
+        this.alignmentFile = alignmentFile;
+        this.treeFile = treeFile;
+        this.alignment = DataCache.readAlignment(alignmentFile.getPath(), false);
+        this.tree = new FlatTree(DataCache.readTree(treeFile.getPath()), alignment);
+        this.tipStates = new TipStates(alignment, tree);
+        this.patterns = new SitePatterns(alignment);
+        this.rateDist = new GammaRates(nCat, 0.5);
+        AminoAcidModel model = SubRecon.getModelInstance(Constants.WAG_ID, null);
+        this.pi = model.getEquilibriumFrequencies();
+        this.matrices = new TransitionMatrixCache(tree, new SubstitutionEngine(model), rateDist);
+    }
+
+    /*
+        shape is BALANCED or CATERPILLAR. The files are deleted when the JVM exits
+    */
+    public static BenchmarkData create(int nTaxa, int nSites, int nCat, String shape) throws Exception {
+        Random random = new Random(SEED);
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < nTaxa; i++) {
+            names.add("t"+i);
+        }
+        StringBuilder newick = new StringBuilder();
+        if (shape.equals(BALANCED)) {
+            appendBalanced(newick, names, 0, nTaxa, random);
+        }else if (shape.equals(CATERPILLAR)) {
+            appendCaterpillar(newick, names, nTaxa, random);
+        }else{
+            throw new IllegalArgumentException("Unknown tree shape: "+shape);
+        }
+        newick.append(";");
+
+        // evolve the alignment down the tree: a leaf's sequence is a mutated copy of its parent's
+        String[] sequences = new String[nTaxa];
+        char[] root = new char[nSites];
+        for (int s = 0; s < nSites; s++) {
+            root[s] = AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length()));
+        }
+        evolve(newick.toString(), 0, root, sequences, random);
+
+        File treeFile = File.createTempFile("subrecon-bench", ".tre");
+        File alignmentFile = File.createTempFile("subrecon-bench", ".fasta");
+        treeFile.deleteOnExit();
+        alignmentFile.deleteOnExit();
+        write(treeFile, newick.toString());
+        StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < nTaxa; i++) {
+            fasta.append(">").append(names.get(i)).append("\n").append(sequences[i]).append("\n");
+        }
+        write(alignmentFile, fasta.toString());
+        return new BenchmarkData(alignmentFile, treeFile, nCat);
+    }
+
+    /*
+        Loads the same files again, e.g. to measure loading
+    */
+    public BenchmarkData reload(int nCat) throws Exception {
+        return new BenchmarkData(alignmentFile, treeFile, nCat);
+    }
+
+    public Workspace.Pool createWorkspaces(int blockSize){
+        return new Workspace.Pool(tipStates, tree, matrices, KernelOps.getInstance(false), blockSize);
+    }
+
+    /*
+        Blocks of exactly blockSize sites, one per site pattern in turn (wrapping around), so that each
+        benchmark operation is the same number of sites
+    */
+    public int[][] createBlocks(int blockSize){
+        int nBlocks = Math.max(1, patterns.getPatternCount() / blockSize);
+        int[][] blocks = new int[nBlocks][blockSize];
+        int pattern = 0;
+        for (int iBlock = 0; iBlock < nBlocks; iBlock++) {
+            for (int s = 0; s < blockSize; s++) {
+                blocks[iBlock][s] = patterns.getPatternSite(pattern);
+                pattern = (pattern + 1) % patterns.getPatternCount();
+            }
+        }
+        return blocks;
+    }
+
+    private static double branchLength(Random random){
+        return 0.01 + 0.1 * random.nextDouble();
+    }
+
+    private static void appendBalanced(StringBuilder newick, List<String> names, int from, int to, Random random){
+        if (to - from == 1) {
+            newick.append(names.get(from));
+        }else{
+            int mid = (from + to) / 2;
+            newick.append("(");
+            appendBalanced(newick, names, from, mid, random);
+            newick.append(":").append(branchLength(random)).append(",");
+            appendBalanced(newick, names, mid, to, random);
+            newick.append(":").append(branchLength(random)).append(")");
+        }
+    }
+
+    private static void appendCaterpillar(StringBuilder newick, List<String> names, int nTaxa, Random random){
+        StringBuilder subtree = new StringBuilder(names.get(0));
+        for (int i = 1; i < nTaxa; i++) {
+            subtree.insert(0, "(");
+            subtree.append(":").append(branchLength(random)).append(",").append(names.get(i)).append(":").append(branchLength(random)).append(")");
+        }
+        newick.append(subtree);
+    }
+
+    /*
+        Parses the subtree of the Newick string starting at position, whose node has the given sequence,
+        and fills in the sequences of its leaves. Returns the position after the subtree
+    */
+    private static int evolve(String newick, int position, char[] sequence, String[] sequences, Random random){
+        if (newick.charAt(position) == '(') {
+            position++;
+            while (true) {
+                int end = position;
+                int depth = 0;
+                while (depth > 0 || (newick.charAt(end) != ':')) { // find the child's branch length
+                    char c = newick.charAt(end);
+                    if (c == '(') depth++;
+                    if (c == ')') depth--;
+                    end++;
+                }
+                int lengthEnd = end + 1;
+                while (newick.charAt(lengthEnd) != ',' && newick.charAt(lengthEnd) != ')') {
+                    lengthEnd++;
+                }
+                double length = Double.parseDouble(newick.substring(end + 1, lengthEnd));
+                evolve(newick, position, mutate(sequence, length, random), sequences, random);
+                position = lengthEnd + 1;
+                if (newick.charAt(lengthEnd) == ')') return position;
+            }
+        }
+        int end = position;
+        while (end < newick.length() && newick.charAt(end) != ':' && newick.charAt(end) != ';') {
+            end++;
+        }
+        int leaf = Integer.parseInt(newick.substring(position + 1, end)); // names are t<i>
+        char[] tip = sequence.clone();
+        for (int s = 0; s < tip.length; s++) {
+            if (random.nextDouble() < GAP_FRACTION) tip[s] = '-';
+        }
+        sequences[leaf] = new String(tip);
+        return end;
+    }
+
+    private static char[] mutate(char[] sequence, double length, Random random){
+        char[] child = sequence.clone();
+        double pChange = 1.0 - Math.exp(-length);
+        for (int s = 0; s < child.length; s++) {
+            if (random.nextDouble() < pChange) child[s] = AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length()));
+        }
+        return child;
+    }
+
+    private static void write(File file, String text) throws IOException {
+        PrintWriter writer = new PrintWriter(file);
+        try{
+            writer.print(text);
+        }finally{
+            writer.close();
+        }
+    }
+
+}
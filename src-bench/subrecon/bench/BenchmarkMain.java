@@ -0,0 +1,38 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of the benchmarks jar. Takes JMH's own options (e.g. a regular
+ * expression for the benchmarks to run, -p taxa=128, -f 3) and adds the GC
+ * profiler, for allocation per operation, unless a profiler is given.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<String>(Arrays.asList(args));
+        if (!jmhArgs.contains("-prof") && !jmhArgs.contains("-h") && !jmhArgs.contains("-l") && !jmhArgs.contains("-lprof")) {
+            jmhArgs.add("-prof");
+            jmhArgs.add("gc");
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[jmhArgs.size()]));
+    }
+
+}
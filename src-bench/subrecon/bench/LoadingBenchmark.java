@@ -0,0 +1,84 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pal.tree.Tree;
+import subrecon.DataCache;
+import subrecon.molevo.AdvancedAlignmentAminoAcid;
+import subrecon.molevo.SitePatterns;
+import subrecon.recon.FlatTree;
+import subrecon.recon.TipStates;
+
+/**
+ * Reading the alignment and tree files, and compiling them into the FlatTree,
+ * TipStates and SitePatterns used by the reconstructions: the work that a
+ * SubRecon server (-serve) keeps between jobs. An operation is one load.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadingBenchmark {
+
+    @Param({ "16", "128", "512" })
+    public int taxa;
+
+    @Param({ "2000" })
+    public int sites;
+
+    @Param({ BenchmarkData.BALANCED, BenchmarkData.CATERPILLAR })
+    public String shape;
+
+    private BenchmarkData data;
+    private Tree palTree;
+
+    @Setup
+    public void setup() throws Exception {
+        data = BenchmarkData.create(taxa, sites, 1, shape);
+        palTree = DataCache.readTree(data.treeFile.getPath());
+    }
+
+    @Benchmark
+    public AdvancedAlignmentAminoAcid readAlignment() throws Exception {
+        return DataCache.readAlignment(data.alignmentFile.getPath(), false);
+    }
+
+    @Benchmark
+    public Tree readTree() throws Exception {
+        return DataCache.readTree(data.treeFile.getPath());
+    }
+
+    @Benchmark
+    public Object compile(){
+        FlatTree tree = new FlatTree(palTree, data.alignment);
+        return new Object[]{ tree, new TipStates(data.alignment, tree), new SitePatterns(data.alignment) };
+    }
+
+}
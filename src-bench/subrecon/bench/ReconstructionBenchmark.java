@@ -0,0 +1,133 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import subrecon.Constants;
+import subrecon.recon.BranchSet;
+import subrecon.recon.InsideOutsideReconstruction;
+import subrecon.recon.JointBranchReconstruction;
+import subrecon.recon.PruningKernel;
+import subrecon.recon.SiteResult;
+import subrecon.recon.SubstitutionSelector;
+import subrecon.recon.Workspace;
+
+/**
+ * The reconstruction kernels, on one thread. An operation is one site, so
+ * throughput is in sites per microsecond and average time is the latency per
+ * site; with -prof gc, gc.alloc.rate.norm is the bytes allocated per site.
+ *
+ *   jointBranch      JointBranchReconstruction.recon(): the branch between A and B (the default mode)
+ *   pruningKernel    the pruning passes of jointBranch alone, which should not allocate
+ *   allBranches      InsideOutsideReconstruction.recon(): every branch (-allbranches), with the
+ *                    outside pass down the tree that replaced re-rooting for each branch
+ *
+ * Each invocation analyses one block of sites, cycling through the site
+ * patterns. allBranches uses smaller blocks, as -allbranches does for large
+ * trees (see Constants.BRANCH_WORKSPACE_BYTES).
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReconstructionBenchmark {
+
+    private static final int ALL_BRANCHES_BLOCK_SIZE = 4;
+
+    @Param({ "16", "128", "512" })
+    public int taxa;
+
+    @Param({ "2000" })
+    public int sites;
+
+    @Param({ "1", "4" })
+    public int rateClasses;
+
+    @Param({ BenchmarkData.BALANCED, BenchmarkData.CATERPILLAR })
+    public String shape;
+
+    private BenchmarkData data;
+    private JointBranchReconstruction[] jointTasks;
+    private InsideOutsideReconstruction[] allBranchesTasks;
+    private int[][] blocks;
+    private PruningKernel kernel;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        data = BenchmarkData.create(taxa, sites, rateClasses, shape);
+        SubstitutionSelector selector = new SubstitutionSelector(Constants.DEFAULT_PRINT_THRESHOLD, 0, true);
+
+        Workspace.Pool workspaces = data.createWorkspaces(Constants.BLOCK_SIZE);
+        blocks = data.createBlocks(Constants.BLOCK_SIZE);
+        jointTasks = new JointBranchReconstruction[blocks.length];
+        for (int iBlock = 0; iBlock < blocks.length; iBlock++) {
+            jointTasks[iBlock] = new JointBranchReconstruction(data.tree, data.matrices, workspaces, data.pi, data.rateDist, selector, 
+                                                                Constants.DEFAULT_SIG_DIGITS, false, blocks[iBlock]);
+        }
+        kernel = workspaces.get().getKernel();
+
+        Workspace.Pool branchWorkspaces = data.createWorkspaces(ALL_BRANCHES_BLOCK_SIZE);
+        BranchSet branches = BranchSet.all(data.tree);
+        int[][] branchBlocks = data.createBlocks(ALL_BRANCHES_BLOCK_SIZE);
+        allBranchesTasks = new InsideOutsideReconstruction[branchBlocks.length];
+        for (int iBlock = 0; iBlock < branchBlocks.length; iBlock++) {
+            allBranchesTasks[iBlock] = new InsideOutsideReconstruction(data.tree, data.matrices, branchWorkspaces, branches, data.pi, data.rateDist, 
+                                                                        selector, Constants.DEFAULT_SIG_DIGITS, false, branchBlocks[iBlock]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Constants.BLOCK_SIZE)
+    public SiteResult[] jointBranch(){
+        next = (next + 1) % jointTasks.length;
+        return jointTasks[next].recon();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Constants.BLOCK_SIZE)
+    public void pruningKernel(Blackhole blackhole){
+        next = (next + 1) % blocks.length;
+        int[] block = blocks[next];
+        for (int iRate = 0; iRate < rateClasses; iRate++) {
+            kernel.prune(block, block.length, iRate, data.tree.getRoot() - 1);
+        }
+        blackhole.consume(kernel);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ALL_BRANCHES_BLOCK_SIZE)
+    public SiteResult[] allBranches(){
+        next = (next + 1) % allBranchesTasks.length;
+        return allBranchesTasks[next].recon();
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import subrecon.ModelCache;
+import subrecon.SubRecon;
+import subrecon.SubReconException;
+import subrecon.utils.Utils;
+
+/**
+ * Runs SubRecon with the given arguments, as the command line would, then
+ * writes one line of measurements to stderr for ScalingBenchmark:
+ *
+ *   SUBRECON_BENCH {"run_seconds":...,"gc_seconds":...,"gc_count":...,"peak_rss_mb":...,...}
+ *
+ * run_seconds covers SubRecon.run (reading the inputs, building the model and
+ * the reconstruction), but not starting the JVM. peak_rss_mb is the process's
+ * high water mark of resident memory (VmHWM), so includes everything the JVM
+ * has touched; it is null where /proc is not available.
+ *
+ * Usage: java -cp SubRecon-benchmarks.jar subrecon.bench.RunProbe [SubRecon arguments]
+ */
+public class RunProbe {
+
+    public static final String PREFIX = "SUBRECON_BENCH ";
+
+    public static void main(String[] args) {
+        SubRecon subRecon = new SubRecon(System.out, new ModelCache(), null);
+        long start = System.nanoTime();
+        try{
+            subRecon.run(args);
+        }catch(SubReconException e){
+            System.err.println(e.isHelpRequest() ? "ERROR: -help is not a run" : e.getMessage());
+            System.exit(1);
+        }
+        double runSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.flush();
+
+        long gcMillis = 0;
+        long gcCount = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcMillis += Math.max(0, gc.getCollectionTime());
+            gcCount += Math.max(0, gc.getCollectionCount());
+        }
+        StringBuilder sb = new StringBuilder(PREFIX);
+        sb.append("{\"run_seconds\":").append(runSeconds);
+        sb.append(",\"gc_seconds\":").append(gcMillis / 1000.0);
+        sb.append(",\"gc_count\":").append(gcCount);
+        sb.append(",\"peak_rss_mb\":").append(Utils.jsonNumber(getPeakRssKb() / 1024.0));
+        sb.append(",\"sites\":").append(subRecon.getSiteCount());
+        sb.append(",\"patterns\":").append(subRecon.getPatternCount());
+        sb.append(",\"taxa\":").append(subRecon.getTaxonCount());
+        sb.append(",\"total_lnL\":").append(Utils.jsonNumber(subRecon.getTotalLnL()));
+        sb.append("}");
+        System.err.println(sb);
+        System.exit(0);
+    }
+
+    /*
+        VmHWM from /proc/self/status, or NaN if it cannot be read
+    */
+    static double getPeakRssKb(){
+        try{
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+            try{
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("VmHWM:")) {
+                        return Double.parseDouble(line.substring(6).trim().split("\\s+")[0]);
+                    }
+                }
+            }finally{
+                reader.close();
+            }
+        }catch(IOException e){
+            // not Linux
+        }catch(NumberFormatException e){
+            // unexpected format
+        }
+        return Double.NaN;
+    }
+
+}
@@ -0,0 +1,492 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import pal.substmodel.AminoAcidModel;
+import pal.substmodel.GammaRates;
+import subrecon.SubRecon;
+import subrecon.molevo.SubstitutionEngine;
+import subrecon.sim.AlignmentSimulator;
+import subrecon.sim.SimulatedTree;
+import subrecon.utils.Utils;
+
+/**
+ * Runs the whole SubRecon pipeline over a matrix of dataset sizes and thread
+ * counts, each run in its own JVM (through RunProbe), and reports for each
+ * combination the median wall time (including JVM start up), run time, sites
+ * per second, peak resident memory, GC time and parallel efficiency. The
+ * datasets are simulated (see subrecon.sim) and kept in the work directory
+ * for later runs.
+ *
+ * Parallel efficiency is relative to the fewest threads measured for the same
+ * dataset: T(t0) * t0 / (T(t) * t), from the run times, so 1.0 is perfect
+ * scaling. The total lnL of every run is checked against the others for the
+ * same dataset, as a guard against races.
+ *
+ * The report is JSON, with one result per line. Given a previous report as a
+ * -baseline, results for the same dataset and threads are compared, and the
+ * exit status is 2 if sites per second fell, or peak memory rose, by more
+ * than -tolerance.
+ *
+ * Usage: java -cp SubRecon-benchmarks.jar subrecon.bench.ScalingBenchmark [options] [-- SubRecon options]
+ *
+ *   -sizes 100x10000,1000x10000   datasets, as taxa x sites
+ *   -threads 1,2,4                thread counts (default: 1 and powers of two up to the number of processors)
+ *   -repeats 3                    runs of each combination; the median is reported
+ *   -treeshape balanced           balanced, caterpillar or birthdeath
+ *   -m wag -a 0.5 -k 4            model, used to simulate and to reconstruct
+ *   -jvmargs "-Xmx8g"             options for the JVMs that run SubRecon
+ *   -workdir scaling-bench        for the datasets, run output and report
+ *   -report file                  (default: workdir/report.json)
+ *   -baseline file                an earlier report to compare with
+ *   -tolerance 0.1                relative change counted as a regression
+ *
+ * Options after -- are passed to SubRecon, e.g. -- -allbranches.
+ */
+public class ScalingBenchmark {
+
+    private static final Pattern NUMBER_FIELD = Pattern.compile("\"([a-z_A-Z]+)\":(-?[0-9][0-9.eE+-]*|null)");
+    private static final long SEED = 1L;
+
+    private String[] sizes = { "100x10000", "1000x10000" };
+    private int[] threadCounts;
+    private int repeats = 3;
+    private String treeShape = SimulatedTree.BALANCED;
+    private String modelID = "wag";
+    private double shape = 0.5;
+    private int nCat = 4;
+    private List<String> jvmArgs = new ArrayList<String>();
+    private File workDir = new File("scaling-bench");
+    private File reportFile = null;
+    private File baselineFile = null;
+    private double tolerance = 0.1;
+    private List<String> subReconArgs = new ArrayList<String>();
+
+    /*
+        Measurements of one dataset and thread count, over all repeats
+    */
+    private static class Result {
+
+        int nTaxa;
+        int nSites;
+        int nThreads;
+        List<Double> wallSeconds = new ArrayList<Double>();
+        List<Double> runSeconds = new ArrayList<Double>();
+        List<Double> gcSeconds = new ArrayList<Double>();
+        double peakRssMb = Double.NaN;
+        double totalLnL = Double.NaN;
+        double efficiency = Double.NaN;
+        boolean lnLMismatch = false;
+
+        String getKey(){
+            return nTaxa + "x" + nSites + "/" + nThreads;
+        }
+
+        double getSitesPerSecond(){
+            return nSites / median(runSeconds);
+        }
+
+        String toJson(){
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"taxa\":").append(nTaxa);
+            sb.append(",\"sites\":").append(nSites);
+            sb.append(",\"threads\":").append(nThreads);
+            sb.append(",\"repeats\":").append(runSeconds.size());
+            sb.append(",\"wall_seconds\":").append(Utils.jsonNumber(median(wallSeconds)));
+            sb.append(",\"run_seconds\":").append(Utils.jsonNumber(median(runSeconds)));
+            sb.append(",\"sites_per_second\":").append(Utils.jsonNumber(getSitesPerSecond()));
+            sb.append(",\"parallel_efficiency\":").append(Utils.jsonNumber(efficiency));
+            sb.append(",\"peak_rss_mb\":").append(Utils.jsonNumber(peakRssMb));
+            sb.append(",\"gc_seconds\":").append(Utils.jsonNumber(median(gcSeconds)));
+            sb.append(",\"total_lnL\":").append(Utils.jsonNumber(totalLnL));
+            sb.append(",\"lnL_mismatch\":").append(lnLMismatch);
+            sb.append("}");
+            return sb.toString();
+        }
+
+    }
+
+    public static void main(String[] args) {
+        ScalingBenchmark benchmark = new ScalingBenchmark();
+        try{
+            benchmark.parse(args);
+        }catch(NumberFormatException e){
+            System.out.println("ERROR: Expected a number: "+e.getMessage());
+            System.exit(1);
+        }catch(IllegalArgumentException e){
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+        try{
+            System.exit(benchmark.run());
+        }catch(IOException e){
+            System.out.println("ERROR: "+e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private void parse(String[] args){
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--")) {
+                subReconArgs.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                break;
+            }
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("ERROR: Expected a value after "+arg);
+            String value = args[++i];
+            if (arg.equals("-sizes")) {
+                sizes = value.split(",");
+                for (String size : sizes) {
+                    parseSize(size);
+                }
+            }else if (arg.equals("-threads") || arg.equals("-T")) {
+                String[] values = value.split(",");
+                threadCounts = new int[values.length];
+                for (int t = 0; t < values.length; t++) {
+                    threadCounts[t] = Integer.parseInt(values[t].trim());
+                    if (threadCounts[t] < 1)
+                        throw new IllegalArgumentException("ERROR: Thread counts must be 1 or higher");
+                }
+            }else if (arg.equals("-repeats")) {
+                repeats = Integer.parseInt(value);
+                if (repeats < 1)
+                    throw new IllegalArgumentException("ERROR: -repeats must be 1 or higher");
+            }else if (arg.equals("-treeshape")) {
+                treeShape = value;
+            }else if (arg.equals("-m") || arg.equals("-model")) {
+                modelID = value;
+            }else if (arg.equals("-a") || arg.equals("-shape")) {
+                shape = Double.parseDouble(value);
+            }else if (arg.equals("-k") || arg.equals("-rateclasses")) {
+                nCat = Integer.parseInt(value);
+            }else if (arg.equals("-jvmargs")) {
+                jvmArgs = Arrays.asList(value.trim().split("\\s+"));
+            }else if (arg.equals("-workdir")) {
+                workDir = new File(value);
+            }else if (arg.equals("-report")) {
+                reportFile = new File(value);
+            }else if (arg.equals("-baseline")) {
+                baselineFile = new File(value);
+            }else if (arg.equals("-tolerance")) {
+                tolerance = Double.parseDouble(value);
+            }else{
+                throw new IllegalArgumentException("ERROR: Unknown option "+arg+" (SubRecon options go after --)");
+            }
+        }
+        if (threadCounts == null) {
+            List<Integer> counts = new ArrayList<Integer>();
+            int nProcessors = Runtime.getRuntime().availableProcessors();
+            for (int t = 1; t < nProcessors; t *= 2) {
+                counts.add(t);
+            }
+            counts.add(nProcessors);
+            threadCounts = new int[counts.size()];
+            for (int t = 0; t < threadCounts.length; t++) {
+                threadCounts[t] = counts.get(t);
+            }
+        }
+        if (reportFile == null) {
+            reportFile = new File(workDir, "report.json");
+        }
+    }
+
+    /*
+        { taxa, sites }
+    */
+    private static int[] parseSize(String size){
+        String[] parts = size.trim().split("x");
+        if (parts.length != 2)
+            throw new IllegalArgumentException("ERROR: Sizes must be given as taxa x sites, e.g. 1000x10000");
+        return new int[]{ Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) };
+    }
+
+    private int run() throws IOException {
+        if (!workDir.isDirectory() && !workDir.mkdirs())
+            throw new IOException("Unable to create work directory "+workDir);
+
+        List<Result> results = new ArrayList<Result>();
+        for (String size : sizes) {
+            int[] dims = parseSize(size);
+            File[] data = simulate(dims[0], dims[1]);
+            List<Result> sizeResults = new ArrayList<Result>();
+            for (int nThreads : threadCounts) {
+                Result result = new Result();
+                result.nTaxa = dims[0];
+                result.nSites = dims[1];
+                result.nThreads = nThreads;
+                for (int repeat = 0; repeat < repeats; repeat++) {
+                    System.out.printf("Running %d taxa x %d sites on %d thread(s), %d of %d%n", dims[0], dims[1], nThreads, repeat + 1, repeats);
+                    measure(result, data, nThreads);
+                }
+                sizeResults.add(result);
+            }
+            summarise(sizeResults);
+            results.addAll(sizeResults);
+        }
+
+        writeReport(results);
+        printTable(results);
+        System.out.println("Report: "+reportFile);
+        if (baselineFile != null) {
+            List<String> baselineSettings = new ArrayList<String>();
+            Map<String, Map<String, Double>> baseline = readBaseline(baselineFile, baselineSettings);
+            for (String setting : getSettings()) {
+                if (!baselineSettings.contains(setting))
+                    System.out.println("WARNING: The baseline was not run with "+setting.substring(0, setting.length() - 1));
+            }
+            return compare(results, baseline) ? 0 : 2;
+        }
+        return 0;
+    }
+
+    /*
+        Alignment and tree for the dataset, simulated unless already in the work directory
+    */
+    private File[] simulate(int nTaxa, int nSites) throws IOException {
+        String name = String.format("sim_%s_%dx%d_%s_%s_%d_seed%d", treeShape, nTaxa, nSites, modelID, shape, nCat, SEED);
+        File alignment = new File(workDir, name + ".fasta");
+        File tree = new File(workDir, name + ".tre");
+        if (alignment.isFile() && tree.isFile()) return new File[]{ alignment, tree };
+
+        System.out.printf("Simulating %d taxa x %d sites%n", nTaxa, nSites);
+        AminoAcidModel model = SubRecon.getModelInstance(modelID, null);
+        GammaRates rateDist = new GammaRates(nCat, shape);
+        SplittableRandom random = new SplittableRandom(SEED);
+        SimulatedTree simulatedTree = SimulatedTree.create(treeShape, nTaxa, 0.1, 0.5, random.split());
+        AlignmentSimulator simulator = new AlignmentSimulator(simulatedTree, new SubstitutionEngine(model), rateDist.getRates(),
+                                                                rateDist.getCategoryProbabilities(), 0.0);
+        // written under temporary names, so an interrupted simulation is not mistaken for a finished one
+        File partialTree = new File(workDir, name + ".tre.part");
+        File partialAlignment = new File(workDir, name + ".fasta.part");
+        simulatedTree.writeNewick(partialTree);
+        simulator.simulate(nSites, random.nextLong(), Runtime.getRuntime().availableProcessors(), partialAlignment, false, null);
+        if (!partialTree.renameTo(tree) || !partialAlignment.renameTo(alignment))
+            throw new IOException("Unable to rename simulated data in "+workDir);
+        return new File[]{ alignment, tree };
+    }
+
+    /*
+        One run of SubRecon in a new JVM
+    */
+    private void measure(Result result, File[] data, int nThreads) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(RunProbe.class.getName());
+        command.addAll(Arrays.asList("-s", data[0].getPath(), "-t", data[1].getPath(), "-m", modelID, "-a", Double.toString(shape),
+                                        "-k", Integer.toString(nCat), "-T", Integer.toString(nThreads)));
+        command.addAll(subReconArgs);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectOutput(new File(workDir, "last-run.out")); // the results themselves are not needed
+        long start = System.nanoTime();
+        Process process = builder.start();
+        Map<String, Double> measurements = null;
+        StringBuilder errors = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8));
+        try{
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RunProbe.PREFIX)) {
+                    measurements = parseNumbers(line);
+                }else{
+                    errors.append(line).append('\n');
+                }
+            }
+        }finally{
+            reader.close();
+        }
+        int status;
+        try{
+            status = process.waitFor();
+        }catch(InterruptedException e){
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        double wallSeconds = (System.nanoTime() - start) / 1e9;
+        if (status != 0 || measurements == null)
+            throw new IOException("SubRecon run failed ("+String.join(" ", command)+"):\n"+errors);
+
+        result.wallSeconds.add(wallSeconds);
+        result.runSeconds.add(measurements.get("run_seconds"));
+        result.gcSeconds.add(measurements.get("gc_seconds"));
+        double peakRssMb = measurements.get("peak_rss_mb");
+        if (!Double.isNaN(peakRssMb)) {
+            result.peakRssMb = Double.isNaN(result.peakRssMb) ? peakRssMb : Math.max(result.peakRssMb, peakRssMb);
+        }
+        double totalLnL = measurements.get("total_lnL");
+        if (Double.isNaN(result.totalLnL)) {
+            result.totalLnL = totalLnL;
+        }else if (!sameLnL(result.totalLnL, totalLnL)) {
+            result.lnLMismatch = true;
+        }
+    }
+
+    /*
+        Parallel efficiencies, and lnL checks across thread counts
+    */
+    private static void summarise(List<Result> sizeResults){
+        Result reference = null;
+        for (Result result : sizeResults) {
+            if (reference == null || result.nThreads < reference.nThreads) reference = result;
+        }
+        for (Result result : sizeResults) {
+            result.efficiency = median(reference.runSeconds) * reference.nThreads / (median(result.runSeconds) * result.nThreads);
+            if (!sameLnL(reference.totalLnL, result.totalLnL)) result.lnLMismatch = true;
+        }
+    }
+
+    /*
+        Summation order does not depend on the number of threads, but allow for the last digit
+    */
+    private static boolean sameLnL(double a, double b){
+        return Math.abs(a - b) <= 1e-9 * Math.max(1.0, Math.abs(a));
+    }
+
+    private void writeReport(List<Result> results) throws IOException {
+        PrintWriter writer = new PrintWriter(reportFile, "UTF-8");
+        try{
+            writer.println("{");
+            writer.println("\"date\":"+Utils.jsonString(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()))+",");
+            for (String setting : getSettings()) {
+                writer.println(setting);
+            }
+            writer.println("\"results\":[");
+            for (int i = 0; i < results.size(); i++) {
+                writer.println(results.get(i).toJson() + (i + 1 < results.size() ? "," : ""));
+            }
+            writer.println("]");
+            writer.println("}");
+        }finally{
+            writer.close();
+        }
+    }
+
+    /*
+        Report lines describing the machine and settings, which should match for results to be compared
+    */
+    private List<String> getSettings(){
+        List<String> settings = new ArrayList<String>();
+        settings.add("\"processors\":"+Runtime.getRuntime().availableProcessors()+",");
+        settings.add("\"os\":"+Utils.jsonString(System.getProperty("os.name")+" "+System.getProperty("os.version")+" "+System.getProperty("os.arch"))+",");
+        settings.add("\"java\":"+Utils.jsonString(System.getProperty("java.vm.name")+" "+System.getProperty("java.version"))+",");
+        settings.add("\"jvm_args\":"+Utils.jsonString(String.join(" ", jvmArgs))+",");
+        settings.add("\"subrecon_args\":"+Utils.jsonString(String.join(" ", subReconArgs))+",");
+        settings.add("\"model\":"+Utils.jsonString(modelID+" a="+shape+" k="+nCat)+",");
+        settings.add("\"tree_shape\":"+Utils.jsonString(treeShape)+",");
+        return settings;
+    }
+
+    private static void printTable(List<Result> results){
+        System.out.println();
+        System.out.printf("%8s %8s %7s %9s %9s %12s %10s %9s %8s%n", "taxa", "sites", "threads", "wall_s", "run_s", "sites/s", "efficiency", "peak_MB", "gc_s");
+        for (Result result : results) {
+            System.out.printf("%8d %8d %7d %9.2f %9.2f %12.1f %10.2f %9.0f %8.2f%s%n", result.nTaxa, result.nSites, result.nThreads,
+                                median(result.wallSeconds), median(result.runSeconds), result.getSitesPerSecond(), result.efficiency,
+                                result.peakRssMb, median(result.gcSeconds), result.lnLMismatch ? "  lnL MISMATCH" : "");
+        }
+        System.out.println();
+    }
+
+    /*
+        Results of an earlier report, by dataset and thread count. Other lines are added to otherLines
+    */
+    private static Map<String, Map<String, Double>> readBaseline(File file, List<String> otherLines) throws IOException {
+        Map<String, Map<String, Double>> baseline = new HashMap<String, Map<String, Double>>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try{
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("{\"taxa\":")) { // one result per line
+                    otherLines.add(line);
+                    continue;
+                }
+                Map<String, Double> values = parseNumbers(line);
+                String key = values.get("taxa").intValue() + "x" + values.get("sites").intValue() + "/" + values.get("threads").intValue();
+                baseline.put(key, values);
+            }
+        }finally{
+            reader.close();
+        }
+        return baseline;
+    }
+
+    /*
+        Prints the change from the baseline of each result. Returns false if any is a regression
+    */
+    private boolean compare(List<Result> results, Map<String, Map<String, Double>> baseline){
+        System.out.println("Compared with "+baselineFile+" (tolerance "+(int)Math.round(tolerance * 100)+"%):");
+        System.out.printf("%18s %14s %14s %9s %10s %10s %9s%n", "taxa x sites/T", "sites/s", "baseline", "change", "peak_MB", "baseline", "change");
+        boolean ok = true;
+        for (Result result : results) {
+            Map<String, Double> old = baseline.get(result.getKey());
+            if (old == null) {
+                System.out.printf("%18s (not in baseline)%n", result.getKey());
+                continue;
+            }
+            double speedChange = result.getSitesPerSecond() / old.get("sites_per_second") - 1.0;
+            double memoryChange = result.peakRssMb / old.get("peak_rss_mb") - 1.0;
+            boolean regression = speedChange < -tolerance || memoryChange > tolerance;
+            ok &= !regression;
+            System.out.printf("%18s %14.1f %14.1f %+8.1f%% %10.0f %10.0f %+8.1f%%%s%n", result.getKey(), result.getSitesPerSecond(), old.get("sites_per_second"),
+                                100 * speedChange, result.peakRssMb, old.get("peak_rss_mb"), 100 * memoryChange, regression ? "  REGRESSION" : "");
+        }
+        return ok;
+    }
+
+    /*
+        Numeric (and null, as NaN) fields of a flat JSON object on one line
+    */
+    private static Map<String, Double> parseNumbers(String line){
+        Map<String, Double> values = new HashMap<String, Double>();
+        Matcher matcher = NUMBER_FIELD.matcher(line);
+        while (matcher.find()) {
+            values.put(matcher.group(1), matcher.group(2).equals("null") ? Double.NaN : Double.parseDouble(matcher.group(2)));
+        }
+        return values;
+    }
+
+    private static double median(List<Double> values){
+        if (values.isEmpty()) return Double.NaN;
+        List<Double> sorted = new ArrayList<Double>(values);
+        Collections.sort(sorted);
+        int n = sorted.size();
+        return n % 2 == 1 ? sorted.get(n / 2) : 0.5 * (sorted.get(n / 2 - 1) + sorted.get(n / 2));
+    }
+
+}
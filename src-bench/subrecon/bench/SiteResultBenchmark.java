@@ -0,0 +1,96 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import subrecon.Constants;
+import subrecon.recon.SiteResult;
+import subrecon.recon.SubstitutionSelector;
+
+/**
+ * Building a SiteResult from the 400 joint probabilities of a site (selecting
+ * and rounding the substitutions to report), and formatting it as a result
+ * line. An operation is one site. threshold 0.0 reports all 400 substitutions,
+ * as with -threshold 0.0 -verbose.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SiteResultBenchmark {
+
+    private static final int N_STATES = 20;
+
+    @Param({ "0.5", "0.0" })
+    public double threshold;
+
+    @Param({ "2", "8" })
+    public int sigDigits;
+
+    private double[] jointProbs;
+    private int[] scratch;
+    private SubstitutionSelector selector;
+    private SiteResult result;
+
+    @Setup
+    public void setup(){
+        Random random = new Random(1L);
+        jointProbs = new double[N_STATES * N_STATES];
+        double sum = 0.0;
+        for (int p = 0; p < jointProbs.length; p++) {
+            jointProbs[p] = Math.pow(random.nextDouble(), 8); // a few large values, as for a real site
+            sum += jointProbs[p];
+        }
+        jointProbs[0] += sum; // I->I most probable
+        sum *= 2;
+        for (int p = 0; p < jointProbs.length; p++) {
+            jointProbs[p] /= sum;
+        }
+        scratch = new int[2 * N_STATES * N_STATES];
+        selector = new SubstitutionSelector(threshold, 0, true);
+        result = construct();
+    }
+
+    @Benchmark
+    public SiteResult construct(){
+        return new SiteResult(0, -10.0, jointProbs, N_STATES, selector, sigDigits, scratch);
+    }
+
+    @Benchmark
+    public String format(){
+        return result.toString();
+    }
+
+    @Benchmark
+    public String constructAndFormat(){
+        return construct().toString();
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Implementation of TraceEvents with JDK Flight Recorder events, which are
+ * enabled by default whenever a recording is running, e.g.
+ *
+ *   java -XX:StartFlightRecording=filename=subrecon.jfr -jar SubRecon.jar ...
+ *   jfr print --events subrecon.Block subrecon.jfr
+ */
+public class JfrTraceEvents extends TraceEvents {
+
+    @Name("subrecon.Phase")
+    @Label("Phase")
+    @Category("SubRecon")
+    @Description("A phase of a SubRecon run")
+    static class PhaseEvent extends Event {
+
+        @Label("Phase")
+        String phase;
+
+    }
+
+    @Name("subrecon.Chunk")
+    @Label("Chunk")
+    @Category("SubRecon")
+    @Description("Consecutive blocks of site patterns run as one task")
+    static class ChunkEvent extends Event {
+
+        @Label("Blocks")
+        int blocks;
+
+        @Label("Site patterns")
+        int patterns;
+
+        @Label("Estimated cost")
+        @Description("Internal nodes with data below them, summed over the site patterns")
+        long estimatedCost;
+
+    }
+
+    @Name("subrecon.Block")
+    @Label("Block")
+    @Category("SubRecon")
+    @Description("A block of site patterns analysed together")
+    static class BlockEvent extends Event {
+
+        @Label("Site patterns")
+        int patterns;
+
+        @Label("Estimated cost")
+        @Description("Internal nodes with data below them, summed over the site patterns")
+        long estimatedCost;
+
+    }
+
+    public JfrTraceEvents(){
+        new PhaseEvent().isEnabled(); // fail now, rather than in a worker thread, if jdk.jfr is missing
+    }
+
+    @Override
+    public Object beginPhase(){
+        PhaseEvent event = new PhaseEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endPhase(Object event, String phase){
+        if (event == null) return;
+        PhaseEvent phaseEvent = (PhaseEvent)event;
+        phaseEvent.end();
+        if (phaseEvent.shouldCommit()) {
+            phaseEvent.phase = phase;
+            phaseEvent.commit();
+        }
+    }
+
+    @Override
+    public Object beginChunk(){
+        ChunkEvent event = new ChunkEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endChunk(Object event, int nBlocks, int nPatterns, long estimatedCost){
+        if (event == null) return;
+        ChunkEvent chunkEvent = (ChunkEvent)event;
+        chunkEvent.end();
+        if (chunkEvent.shouldCommit()) {
+            chunkEvent.blocks = nBlocks;
+            chunkEvent.patterns = nPatterns;
+            chunkEvent.estimatedCost = estimatedCost;
+            chunkEvent.commit();
+        }
+    }
+
+    @Override
+    public Object beginBlock(){
+        BlockEvent event = new BlockEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endBlock(Object event, int nPatterns, long estimatedCost){
+        if (event == null) return;
+        BlockEvent blockEvent = (BlockEvent)event;
+        blockEvent.end();
+        if (blockEvent.shouldCommit()) {
+            blockEvent.patterns = nPatterns;
+            blockEvent.estimatedCost = estimatedCost;
+            blockEvent.commit();
+        }
+    }
+
+}
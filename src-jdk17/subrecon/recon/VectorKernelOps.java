@@ -0,0 +1,86 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of KernelOps using explicit SIMD via the JDK Vector API.
+ * Vectors run across the sites of a block (which are contiguous), using the
+ * widest vectors supported by the CPU, with scalar loops for any remainder.
+ *
+ * Requires --add-modules jdk.incubator.vector at compile and run time.
+ */
+public class VectorKernelOps extends KernelOps {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    public VectorKernelOps(){
+        DoubleVector.zero(SPECIES); // fail now, rather than in a worker thread, if the module is missing
+    }
+
+    @Override
+    public void propagate(double[] P, int pOffset, double[] partials, int childOffset, int parentOffset,
+                            int nStates, int blockSize, int nSites, double[] childSums){
+
+        int vectorBound = SPECIES.loopBound(nSites);
+
+        for (int iParentState = 0; iParentState < nStates; iParentState++){
+            int rowOffset = pOffset + iParentState * nStates;
+            int parentStateOffset = parentOffset + iParentState * blockSize;
+
+            int s = 0;
+            for (; s < vectorBound; s += SPECIES.length()) { // sum over child states held in a register
+                DoubleVector sums = DoubleVector.zero(SPECIES);
+                for (int jChildState = 0; jChildState < nStates; jChildState++){
+                    DoubleVector child = DoubleVector.fromArray(SPECIES, partials, childOffset + jChildState * blockSize + s);
+                    sums = child.fma(DoubleVector.broadcast(SPECIES, P[rowOffset + jChildState]), sums);
+                }
+                DoubleVector.fromArray(SPECIES, partials, parentStateOffset + s).mul(sums).intoArray(partials, parentStateOffset + s);
+            }
+
+            for (; s < nSites; s++) { // remainder
+                double sum = 0.0;
+                for (int jChildState = 0; jChildState < nStates; jChildState++){
+                    sum += P[rowOffset + jChildState] * partials[childOffset + jChildState * blockSize + s];
+                }
+                partials[parentStateOffset + s] *= sum;
+            }
+        } // for iParentState
+    }
+
+    @Override
+    public void accumulateProducts(double[] out, int outOffset, double constant, double[] a, int aOffset, double[] b, int bOffset, int n){
+        int vectorBound = SPECIES.loopBound(n);
+        int k = 0;
+        for (; k < vectorBound; k += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, aOffset + k)
+                    .mul(constant)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bOffset + k), DoubleVector.fromArray(SPECIES, out, outOffset + k))
+                    .intoArray(out, outOffset + k);
+        }
+        for (; k < n; k++) {
+            out[outOffset + k] += constant * a[aOffset + k] * b[bOffset + k];
+        }
+    }
+
+    @Override
+    public String getDescription(){
+        return "SIMD (jdk.incubator.vector, "+SPECIES.vectorBitSize()+"-bit vectors)";
+    }
+
+}
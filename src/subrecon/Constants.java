@@ -29,8 +29,8 @@ public class Constants {
     public static final String BLOSUM62_ID = "blosum62";
     public static final String WAG_DOT_DAT = "wag.dat";
     
-    public static final double TINY_QUANTITY = 1e-10;
-    public static final double EPSILON = 1e-6; // tolerance for sanity checks. Must be larger than TINY_QUANTITY
+    public static final double SCALING_THRESHOLD = 0x1.0p-128; // conditional likelihoods are rescaled (by a power of two) when the largest at a node falls below this
+    public static final double EPSILON = 1e-6; // tolerance for sanity checks
     
     public static final String DELIM = "\t";
     public static final String SUB_PROB_DELIM = ":"; // delimiter between sub codes and prob. e.g., if SUB_PROB_DELIM==":" then output is "VA:0.99"
@@ -38,4 +38,14 @@ public class Constants {
     public static final double DEFAULT_PRINT_THRESHOLD = 0.5;
     public static final int DEFAULT_SIG_DIGITS = 2;
     
+    public static final int BLOCK_SIZE = 32; // number of site patterns analysed together by the pruning kernel
+    public static final int MIN_WINDOW_SITES = 4096; // minimum number of sites in flight at once
+    public static final int WINDOW_BLOCKS_PER_THREAD = 16; // sites in flight are at least this many blocks per thread
+    public static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    public static final int BRANCH_WORKSPACE_BYTES = 16 << 20; // per thread budget for joint probabilities of all branches, which sets the block size in all-branches mode
+    public static final int SERVER_CACHE_MB = 256; // default estimated size of the alignments and trees, and sets of transition matrices, kept by a server
+    public static final int SERVER_FINISHED_JOBS = 1000; // finished jobs a server keeps, with their output files, before forgetting the oldest
+    public static final int SERVER_HANDLER_THREADS = 4; // for HTTP requests to a server, which do not run the jobs
+    public static final double DEFAULT_METRICS_INTERVAL = 10.0; // seconds between updates of a -metrics file, unless -progress is given
+    
 }
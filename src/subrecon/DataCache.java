@@ -0,0 +1,264 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon;
+
+import com.beust.jcommander.ParameterException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import pal.alignment.AlignmentParseException;
+import pal.alignment.AlignmentReaders;
+import pal.alignment.SimpleAlignment;
+import pal.datatype.AminoAcids;
+import pal.substmodel.RateDistribution;
+import pal.tree.ReadTree;
+import pal.tree.Tree;
+import pal.tree.TreeParseException;
+import subrecon.molevo.AdvancedAlignmentAminoAcid;
+import subrecon.molevo.SitePatterns;
+import subrecon.recon.FlatTree;
+import subrecon.recon.TipStates;
+import subrecon.recon.TransitionMatrixCache;
+
+/**
+ * Parsed alignments and trees, with their site patterns and compiled FlatTree
+ * and TipStates, and the transition matrices for each model and set of rates.
+ * A run of SubRecon normally builds these once and discards them; a server
+ * (see subrecon.server) keeps them between runs, so that a repeated query of
+ * the same data only has to do the reconstruction.
+ *
+ * Files are identified by their canonical path, size and modification time, so
+ * a file that is changed is read again. Each entry is weighed by the estimated
+ * size of its arrays, and the least recently used entries are dropped once the
+ * total is more than the budget. The entry just built is always kept.
+ *
+ * Thread safe. Entries are not modified once built. Two runs that need the
+ * same missing entry at once may both build it.
+ */
+public class DataCache {
+
+    /*
+        An alignment and tree, checked against each other
+    */
+    public static class Inputs {
+
+        private final String key;
+        private final AdvancedAlignmentAminoAcid alignment;
+        private final Tree tree;
+        private final SitePatterns patterns;
+        private final FlatTree flatTree;
+        private final TipStates tipStates;
+
+        /*
+            Throws IllegalArgumentException if the tree and alignment do not match
+        */
+        Inputs(String key, AdvancedAlignmentAminoAcid alignment, Tree tree){
+            this.key = key;
+            this.alignment = alignment;
+            this.tree = tree;
+            this.patterns = new SitePatterns(alignment);
+            this.flatTree = new FlatTree(tree, alignment);
+            this.tipStates = new TipStates(alignment, flatTree);
+        }
+
+        public AdvancedAlignmentAminoAcid getAlignment(){
+            return alignment;
+        }
+
+        public Tree getTree(){
+            return tree;
+        }
+
+        public SitePatterns getPatterns(){
+            return patterns;
+        }
+
+        public FlatTree getFlatTree(){
+            return flatTree;
+        }
+
+        public TipStates getTipStates(){
+            return tipStates;
+        }
+
+        /*
+            Rough size of the alignment (as chars), the tip codes and the site patterns
+        */
+        long getEstimatedBytes(){
+            long nSites = alignment.getSiteCount();
+            return nSites * alignment.getSequenceCount() * 2 + nSites * flatTree.getLeafCount()
+                    + nSites * 4 + patterns.getPatternCount() * 8L;
+        }
+
+    }
+
+    /*
+        A cached value, with its estimated size
+    */
+    private static class Entry {
+
+        private final Object value;
+        private final long bytes;
+
+        Entry(Object value, long bytes){
+            this.value = value;
+            this.bytes = bytes;
+        }
+
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true); // access order, for LRU
+    private long nBytes = 0;
+    private int nRequests = 0;
+    private int nHits = 0;
+
+    /*
+        Keeps entries up to an estimated total of maxBytes. With 0, only the entry last built is kept
+    */
+    public DataCache(final long maxBytes){
+        this.maxBytes = maxBytes;
+    }
+
+    /*
+        Throws ParameterException if the files cannot be read, and IllegalArgumentException if they do not match
+    */
+    public Inputs getInputs(String alignmentPath, String treePath, boolean readPhylip) throws ParameterException {
+        String key = "inputs|" + getFileKey(alignmentPath) + "|" + getFileKey(treePath) + "|" + readPhylip;
+        Inputs entry = (Inputs)get(key);
+        if (entry == null) {
+            entry = new Inputs(key, readAlignment(alignmentPath, readPhylip), readTree(treePath)); // not holding the lock, so other runs can continue
+            put(key, entry, entry.getEstimatedBytes());
+        }
+        return entry;
+    }
+
+    /*
+        Transition matrices for the tree's branch lengths, with the given model and rates
+    */
+    public TransitionMatrixCache getMatrices(Inputs data, ModelCache.Entry model, RateDistribution rateDist){
+        String key = "matrices|" + data.key + "|" + model.getKey() + "|" + Arrays.toString(rateDist.getRates()) + Arrays.toString(rateDist.getCategoryProbabilities());
+        TransitionMatrixCache entry = (TransitionMatrixCache)get(key);
+        if (entry == null) {
+            entry = new TransitionMatrixCache(data.flatTree, model.getEngine(), rateDist);
+            put(key, entry, entry.getEstimatedBytes());
+        }
+        return entry;
+    }
+
+    private synchronized Object get(String key){
+        nRequests++;
+        Entry entry = entries.get(key);
+        if (entry == null) 
+            return null;
+        nHits++;
+        return entry.value;
+    }
+
+    /*
+        Adds the entry, then drops the least recently used others until the total is within the budget
+    */
+    private synchronized void put(String key, Object value, long bytes){
+        Entry previous = entries.put(key, new Entry(value, bytes));
+        if (previous != null) 
+            nBytes -= previous.bytes;
+        nBytes += bytes;
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (nBytes > maxBytes && entries.size() > 1) {
+            Map.Entry<String, Entry> eldest = iterator.next(); // the entry just added is last, so is never reached
+            nBytes -= eldest.getValue().bytes;
+            iterator.remove();
+        }
+    }
+
+    public synchronized int getSize(){
+        return entries.size();
+    }
+
+    public synchronized long getEstimatedBytes(){
+        return nBytes;
+    }
+
+    public long getMaxBytes(){
+        return maxBytes;
+    }
+
+    public synchronized int getRequestCount(){
+        return nRequests;
+    }
+
+    public synchronized int getHitCount(){
+        return nHits;
+    }
+
+    private static String getFileKey(String path){
+        File file = new File(path);
+        try{
+            file = file.getCanonicalFile();
+        }catch(IOException e){
+            // reported when the file is read
+        }
+        return file.getPath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    public static AdvancedAlignmentAminoAcid readAlignment(String alignmentPath, boolean readPhylip) throws ParameterException {
+        try (FileReader reader = new FileReader(alignmentPath)) { // closed at once, since a server reads many files
+            SimpleAlignment simple;
+            if (readPhylip)
+                simple = new SimpleAlignment(AlignmentReaders.readPhylipClustalAlignment(reader, new AminoAcids()));
+            else
+                simple = new SimpleAlignment(AlignmentReaders.readFastaSequences(reader, new AminoAcids()));
+            return new AdvancedAlignmentAminoAcid(simple);
+        }
+        catch(AlignmentParseException e){
+            throw new ParameterException("ERROR: Unable to parse alignment file: "+e.getMessage());
+        }
+        catch(FileNotFoundException e){
+            throw new ParameterException("ERROR: Unable to find alignment or tree file(s): "+e.getMessage());
+        }
+        catch(IOException e){
+            throw new ParameterException("ERROR: Unable read tree or alignment file(s): "+e.getMessage());
+        }
+        catch(Exception e){ // reported in the run's output, which for a server is not its own stdout
+            throw new ParameterException("ERROR: Problem reading alignment or tree: "+e);
+        }
+    }
+
+    public static Tree readTree(String treePath) throws ParameterException {
+        try{
+            return new ReadTree(treePath);
+        }
+        catch(TreeParseException e){
+            throw new ParameterException("ERROR: Unable to parse tree file: "+e.getMessage());
+        }
+        catch(FileNotFoundException e){
+            throw new ParameterException("ERROR: Unable to find alignment or tree file(s): "+e.getMessage());
+        }
+        catch(IOException e){
+            throw new ParameterException("ERROR: Unable read tree or alignment file(s): "+e.getMessage());
+        }
+        catch(Exception e){
+            throw new ParameterException("ERROR: Problem reading alignment or tree: "+e);
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon;
+
+import com.beust.jcommander.ParameterException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import pal.substmodel.AminoAcidModel;
+import subrecon.molevo.SubstitutionEngine;
+
+/**
+ * Substitution models and their eigensystems, built once for each model and
+ * set of frequencies and shared by every run that uses them. Building a model
+ * involves PAL's model classes and an eigen decomposition, which for a batch of
+ * small alignments can cost as much as the reconstructions.
+ *
+ * Thread safe. Entries are immutable.
+ */
+public class ModelCache {
+
+    public static class Entry {
+
+        private final String key;
+        private final double[] pi;
+        private final SubstitutionEngine engine;
+        private final String report;
+
+        Entry(String key, AminoAcidModel model){
+            this.key = key;
+            this.pi = model.getEquilibriumFrequencies().clone();
+            this.engine = new SubstitutionEngine(model);
+            StringWriter s = new StringWriter();
+            PrintWriter writer = new PrintWriter(s);
+            model.report(writer); // PAL models are not thread safe, so keep the text rather than the model
+            writer.flush();
+            this.report = s.toString();
+        }
+
+        /*
+            Identifies the model and frequencies
+        */
+        public String getKey(){
+            return key;
+        }
+
+        /*
+            Must not be modified
+        */
+        public double[] getFrequencies(){
+            return pi;
+        }
+
+        public SubstitutionEngine getEngine(){
+            return engine;
+        }
+
+        /*
+            PAL's description of the model, as printed at the start of a run
+        */
+        public String getReport(){
+            return report;
+        }
+
+    }
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private int nRequests = 0;
+
+    /*
+        frequencies == null for the model's own frequencies. Throws ParameterException for unknown models
+    */
+    public synchronized Entry get(String modelID, double[] frequencies) throws ParameterException {
+        nRequests++;
+        String key = modelID + (frequencies == null ? "" : Arrays.toString(frequencies));
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key, SubRecon.getModelInstance(modelID, frequencies));
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    public synchronized int getSize(){
+        return entries.size();
+    }
+
+    public synchronized int getRequestCount(){
+        return nRequests;
+    }
+
+}
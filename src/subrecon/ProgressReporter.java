@@ -0,0 +1,249 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import subrecon.recon.RunStats;
+
+/**
+ * Reports the progress of a run every few seconds, from a background thread:
+ * as a line on stderr (-progress), and/or by rewriting a metrics file in the
+ * Prometheus text format (-metrics), e.g. for the textfile collector of a
+ * node exporter. Figures are read from the run's RunStats and, once the inputs
+ * have been read, its ReconstructionSession:
+ *
+ *   the current phase and the time since the run started
+ *   sites written and site patterns analysed, out of the totals
+ *   sites per second over the last interval, and the time remaining at the
+ *     average rate of the current phase
+ *   blocks of sites being analysed, busy and total worker threads, and tasks
+ *     waiting for a thread, which show stalls and idle threads
+ *   heap used and maximum
+ *
+ * The metrics file is written to a temporary file and renamed, so a reader
+ * never sees it half written. Metrics are labelled with the alignment file, so
+ * the files of several runs can be collected together.
+ */
+public class ProgressReporter {
+
+    private final RunStats stats;
+    private final String name; // of the alignment, to tell runs apart
+    private final PrintStream out; // for progress lines, or null
+    private final File metricsFile; // or null
+    private final long intervalMillis;
+    private final long start = System.nanoTime();
+    private volatile ReconstructionSession session; // null until the inputs are read
+    private ScheduledExecutorService timer;
+
+    // at the last report, for the recent rate. Guarded by this
+    private long lastNanos = start;
+    private long lastSites = 0;
+    private long lastPatterns = 0;
+    private boolean metricsFailed = false;
+
+    /*
+        out: for progress lines, or null for none. metricsFile: or null for none
+    */
+    public ProgressReporter(RunStats stats, String name, PrintStream out, File metricsFile, double intervalSeconds){
+        this.stats = stats;
+        this.name = name;
+        this.out = out;
+        this.metricsFile = metricsFile;
+        this.intervalMillis = Math.max(1L, Math.round(intervalSeconds * 1000));
+    }
+
+    public void start(){
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SubRecon progress");
+                thread.setDaemon(true); // never keeps the JVM running
+                return thread;
+            }
+        });
+        timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    report(null);
+                }catch(RuntimeException e){
+                    // a failed report must not stop the later ones
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        if (metricsFile != null) {
+            report(null); // so the file exists from the start
+        }
+    }
+
+    /*
+        Once the inputs are read, for the sizes of the alignment and the worker threads
+    */
+    public void setSession(ReconstructionSession session){
+        this.session = session;
+    }
+
+    /*
+        Stops the reports, and makes a last one. finished: the run completed, rather than failed
+    */
+    public void stop(boolean finished){
+        if (timer != null) {
+            timer.shutdownNow();
+            try{
+                timer.awaitTermination(intervalMillis, TimeUnit.MILLISECONDS);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+        report(finished ? "Finished" : "Failed");
+    }
+
+    /*
+        endPhase: for the last report, or null while the run is going
+    */
+    private synchronized void report(String endPhase){
+        long now = System.nanoTime();
+        ReconstructionSession current = session;
+        boolean finished = "Finished".equals(endPhase);
+        String phase = endPhase != null ? endPhase : stats.getCurrentPhase() == null ? "Starting" : stats.getCurrentPhase();
+        boolean indexing = RunStats.INDEX.equals(stats.getCurrentPhase()); // also once finished
+        long sitesWritten = stats.getSitesWritten();
+        long patternsDone = stats.getPatternsFinished();
+        long nSites = current == null ? 0 : current.getSiteCount();
+        long nPatterns = current == null ? 0 : current.getPatternCount();
+
+        double seconds = (now - lastNanos) / 1e9;
+        double sitesPerSecond = seconds > 0 ? (sitesWritten - lastSites) / seconds : Double.NaN;
+        double patternsPerSecond = seconds > 0 ? (patternsDone - lastPatterns) / seconds : Double.NaN;
+        lastNanos = now;
+        lastSites = sitesWritten;
+        lastPatterns = patternsDone;
+
+        // remaining time, at the average rate since the reconstruction started. Patterns are the work, sites lag behind them
+        double etaSeconds = Double.NaN;
+        if (endPhase == null && (RunStats.RECONSTRUCTION.equals(phase) || indexing) && patternsDone > 0 && nPatterns > 0) {
+            double phaseSeconds = (now - stats.getCurrentPhaseStart()) / 1e9;
+            etaSeconds = phaseSeconds * Math.max(0, nPatterns - patternsDone) / patternsDone;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+        long heapMax = runtime.maxMemory();
+
+        if (out != null) {
+            StringBuilder line = new StringBuilder();
+            line.append('[').append(name).append(' ').append(formatDuration((now - start) / 1e9)).append("] ").append(phase);
+            if (current != null) {
+                if (indexing) {
+                    line.append(String.format(Locale.ROOT, ": %d/%d site patterns (%.1f%%), %.0f patterns/s", patternsDone, nPatterns,
+                                                100.0 * patternsDone / Math.max(1, nPatterns), patternsPerSecond));
+                }else{
+                    line.append(String.format(Locale.ROOT, ": %d/%d sites written (%.1f%%), %.0f sites/s", sitesWritten, nSites,
+                                                100.0 * sitesWritten / Math.max(1, nSites), sitesPerSecond));
+                }
+                if (!Double.isNaN(etaSeconds)) {
+                    line.append(", ETA ").append(formatDuration(etaSeconds));
+                }
+                line.append(String.format(Locale.ROOT, " | %d blocks in flight, %d/%d threads busy, %d tasks queued", stats.getBlocksInFlight(),
+                                            current.getActiveThreadCount(), current.getThreadCount(), current.getQueuedTaskCount()));
+            }
+            line.append(String.format(Locale.ROOT, " | heap %d/%d MB", heapUsed >> 20, heapMax >> 20));
+            out.println(line);
+            out.flush();
+        }
+
+        if (metricsFile != null && !metricsFailed) {
+            String labels = "{alignment=\"" + escapeLabel(name) + "\"}";
+            StringBuilder metrics = new StringBuilder();
+            appendMetric(metrics, "subrecon_elapsed_seconds", "gauge", "Time since the run started", labels, (now - start) / 1e9);
+            appendMetric(metrics, "subrecon_phase", "gauge", "Current phase of the run (1 for the current phase)",
+                            "{alignment=\"" + escapeLabel(name) + "\",phase=\"" + escapeLabel(phase) + "\"}", 1);
+            appendMetric(metrics, "subrecon_finished", "gauge", "1 once the run has completed", labels, finished ? 1 : 0);
+            appendMetric(metrics, "subrecon_sites", "gauge", "Sites in the alignment", labels, nSites);
+            appendMetric(metrics, "subrecon_sites_written_total", "counter", "Sites whose results have been written", labels, sitesWritten);
+            appendMetric(metrics, "subrecon_sites_per_second", "gauge", "Sites written per second, over the last interval", labels, sitesPerSecond);
+            appendMetric(metrics, "subrecon_site_patterns", "gauge", "Unique site patterns in the alignment", labels, nPatterns);
+            appendMetric(metrics, "subrecon_site_patterns_analysed_total", "counter", "Site patterns analysed", labels, patternsDone);
+            appendMetric(metrics, "subrecon_eta_seconds", "gauge", "Estimated time until the reconstruction finishes (NaN if unknown)", labels, etaSeconds);
+            appendMetric(metrics, "subrecon_blocks_in_flight", "gauge", "Blocks of site patterns being analysed", labels, stats.getBlocksInFlight());
+            appendMetric(metrics, "subrecon_blocks_total", "counter", "Blocks of site patterns analysed", labels, stats.getBlocksFinished());
+            appendMetric(metrics, "subrecon_threads", "gauge", "Worker threads", labels, current == null ? 0 : current.getThreadCount());
+            appendMetric(metrics, "subrecon_threads_busy", "gauge", "Worker threads running tasks", labels, current == null ? 0 : current.getActiveThreadCount());
+            appendMetric(metrics, "subrecon_tasks_queued", "gauge", "Tasks waiting for a worker thread", labels, current == null ? 0 : current.getQueuedTaskCount());
+            appendMetric(metrics, "subrecon_heap_used_bytes", "gauge", "Java heap in use", labels, heapUsed);
+            appendMetric(metrics, "subrecon_heap_max_bytes", "gauge", "Maximum Java heap", labels, heapMax);
+            appendMetric(metrics, "subrecon_last_update_timestamp_seconds", "gauge", "Time of this update, in seconds since the epoch", labels,
+                            System.currentTimeMillis() / 1000.0);
+            try{
+                writeMetrics(metrics.toString());
+            }catch(IOException e){
+                metricsFailed = true; // once is enough
+                System.err.println("WARNING: Unable to write metrics file "+metricsFile+": "+e.getMessage());
+            }
+        }
+    }
+
+    private static void appendMetric(StringBuilder sb, String metric, String type, String help, String labels, double value){
+        sb.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+        sb.append(metric).append(labels).append(' ');
+        if (Double.isNaN(value)) {
+            sb.append("NaN");
+        }else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            sb.append((long)value);
+        }else{
+            sb.append(value);
+        }
+        sb.append('\n');
+    }
+
+    private static String escapeLabel(String value){
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /*
+        Replaces the file in one step
+    */
+    private void writeMetrics(String text) throws IOException {
+        File dir = metricsFile.getAbsoluteFile().getParentFile();
+        File temp = new File(dir, "." + metricsFile.getName() + ".tmp"); // hidden, and not *.prom, so not collected
+        Files.write(temp.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        try{
+            Files.move(temp.toPath(), metricsFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }catch(AtomicMoveNotSupportedException e){
+            Files.move(temp.toPath(), metricsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /*
+        h:mm:ss
+    */
+    private static String formatDuration(double seconds){
+        long s = Math.round(seconds);
+        return String.format(Locale.ROOT, "%d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+    }
+
+}
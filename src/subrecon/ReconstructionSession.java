@@ -0,0 +1,639 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon;
+
+import com.beust.jcommander.ParameterException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import pal.alignment.Alignment;
+import pal.substmodel.GammaRates;
+import pal.substmodel.RateDistribution;
+import pal.tree.Tree;
+import subrecon.io.PartialsIndexFormat;
+import subrecon.io.PartialsIndexReader;
+import subrecon.io.PartialsIndexWriter;
+import subrecon.molevo.AdvancedAlignmentAminoAcid;
+import subrecon.molevo.CustomRates;
+import subrecon.molevo.SitePatterns;
+import subrecon.recon.BranchSet;
+import subrecon.recon.FlatTree;
+import subrecon.recon.IndexedBranchReconstruction;
+import subrecon.recon.InsideOutsideReconstruction;
+import subrecon.recon.JointBranchReconstruction;
+import subrecon.recon.KernelOps;
+import subrecon.recon.PartialsIndexBuilder;
+import subrecon.recon.ResultPipeline;
+import subrecon.recon.RunStats;
+import subrecon.recon.SiteResult;
+import subrecon.recon.SiteScheduler;
+import subrecon.recon.SubstitutionSelector;
+import subrecon.recon.TipStates;
+import subrecon.recon.TransitionMatrixCache;
+import subrecon.recon.Workspace;
+
+/**
+ * Reconstructions from one alignment, tree, model and rate distribution, for
+ * use from other Java code. A session is built once (see Builder), which reads
+ * the inputs and computes the transition matrices, and can then answer any
+ * number of queries: single sites, sets of sites, or all sites streamed to a
+ * ResultPipeline.Sink, along the branch between A and B or along any branches
+ * of the tree. The command line (SubRecon) is a wrapper around a session.
+ *
+ * Results are returned rather than printed, and nothing is printed. Problems
+ * with the inputs are thrown as SubReconException.
+ *
+ * Queries may be made from several threads at once. They share the session's
+ * worker threads, and its scratch arrays are kept between queries. close()
+ * stops the worker threads, unless they were given to the builder, and drops
+ * the scratch arrays.
+ *
+ * The time taken by each phase and the work done by each thread are kept in
+ * the session's RunStats, over all queries.
+ */
+public class ReconstructionSession implements Closeable {
+
+    public static class Builder {
+
+        private String alignmentPath;
+        private boolean phylip = false;
+        private Alignment alignment;
+        private String treePath;
+        private Tree tree;
+        private String modelID;
+        private double[] frequencies; // null for the model's own
+        private double shape = 0.0;
+        private int nCat = 1;
+        private double[] rates; // instead of the gamma distribution, if given
+        private int nThreads = Runtime.getRuntime().availableProcessors();
+        private ForkJoinPool pool; // shared, or null for the session's own
+        private boolean simd = false;
+        private boolean sanityCheck = false;
+        private int sigDigits = Constants.DEFAULT_SIG_DIGITS;
+        private ModelCache models;
+        private DataCache data;
+        private RunStats stats;
+
+        /*
+            FASTA, or Phylip if phylip
+        */
+        public Builder alignment(String path, boolean phylip){
+            this.alignmentPath = path;
+            this.phylip = phylip;
+            this.alignment = null;
+            return this;
+        }
+
+        public Builder alignment(Alignment alignment){
+            this.alignment = alignment;
+            this.alignmentPath = null;
+            return this;
+        }
+
+        /*
+            Newick, rooted on the branch between A and B
+        */
+        public Builder tree(String path){
+            this.treePath = path;
+            this.tree = null;
+            return this;
+        }
+
+        public Builder tree(Tree tree){
+            this.tree = tree;
+            this.treePath = null;
+            return this;
+        }
+
+        /*
+            dayhoff, jtt, wag, blosum62 or wag.dat
+        */
+        public Builder model(String modelID){
+            this.modelID = modelID;
+            return this;
+        }
+
+        /*
+            In the order A,R,N,D,C,Q,E,G,H,I,L,K,M,F,P,S,T,W,Y,V. The model's own are used by default
+        */
+        public Builder frequencies(double[] frequencies){
+            this.frequencies = frequencies == null ? null : frequencies.clone();
+            return this;
+        }
+
+        public Builder gamma(double shape, int nCat){
+            this.shape = shape;
+            this.nCat = nCat;
+            this.rates = null;
+            return this;
+        }
+
+        /*
+            Equally probable rate classes, instead of a gamma distribution
+        */
+        public Builder rates(double[] rates){
+            this.rates = rates.clone();
+            return this;
+        }
+
+        public Builder threads(int nThreads){
+            this.nThreads = nThreads;
+            return this;
+        }
+
+        /*
+            Worker threads shared with other sessions, which close() does not stop
+        */
+        public Builder pool(ForkJoinPool pool){
+            this.pool = pool;
+            return this;
+        }
+
+        public Builder simd(boolean simd){
+            this.simd = simd;
+            return this;
+        }
+
+        /*
+            Extra checks of the reconstructions (-debug)
+        */
+        public Builder sanityCheck(boolean sanityCheck){
+            this.sanityCheck = sanityCheck;
+            return this;
+        }
+
+        /*
+            Significant digits the probabilities of results are rounded to
+        */
+        public Builder sigDigits(int sigDigits){
+            this.sigDigits = sigDigits;
+            return this;
+        }
+
+        /*
+            Models shared with other sessions
+        */
+        public Builder modelCache(ModelCache models){
+            this.models = models;
+            return this;
+        }
+
+        /*
+            Inputs and transition matrices shared with other sessions, for inputs read from files
+        */
+        public Builder dataCache(DataCache data){
+            this.data = data;
+            return this;
+        }
+
+        /*
+            Phase times and work are counted here, e.g. to watch the inputs being read (default: a new RunStats)
+        */
+        public Builder stats(RunStats stats){
+            this.stats = stats;
+            return this;
+        }
+
+        /*
+            Reads the inputs and builds the model. Throws SubReconException if they cannot be used
+        */
+        public ReconstructionSession build(){
+            if ((alignment == null && alignmentPath == null) || (tree == null && treePath == null) || modelID == null) 
+                throw new SubReconException("ERROR: An alignment, a tree and a model are required", true);
+            if (sigDigits < 1 || sigDigits > 15) 
+                throw new SubReconException("ERROR: -sd (significant digits) argument must be 0 < sd < 16", true);
+            if (rates == null && shape < 0.0) 
+                throw new SubReconException("ERROR: -shape value must be greater than or equal to 0.0", true);
+            if (rates == null && nCat < 1) 
+                throw new SubReconException("ERROR: -n (number of rate categories) must be 1 or higher", true);
+            if (pool == null && nThreads < 1) 
+                throw new SubReconException("ERROR: -T (number of threads) must be 1 or higher", true);
+            RunStats stats = this.stats != null ? this.stats : new RunStats();
+            try{
+                RunStats.Phase load = stats.startPhase(RunStats.LOAD);
+                DataCache.Inputs inputs;
+                if (alignmentPath != null && treePath != null) {
+                    inputs = (data != null ? data : new DataCache(0)).getInputs(alignmentPath, treePath, phylip);
+                }else{
+                    AdvancedAlignmentAminoAcid advanced = alignment != null ? new AdvancedAlignmentAminoAcid(alignment) : DataCache.readAlignment(alignmentPath, phylip);
+                    inputs = new DataCache.Inputs(null, advanced, tree != null ? tree : DataCache.readTree(treePath)); // not cached
+                }
+                load.end();
+                if (inputs.getTree().getRoot().getChildCount() > 2) 
+                    throw new ParameterException("ERROR: Tree root has more than two descendents. Is the tree rooted correctly?");
+                RunStats.Phase modelSetup = stats.startPhase(RunStats.MODEL);
+                ModelCache.Entry model = (models != null ? models : new ModelCache()).get(modelID, frequencies);
+                modelSetup.end();
+                return new ReconstructionSession(this, inputs, model, stats);
+            }catch(ParameterException e){
+                throw new SubReconException(e.getMessage(), true);
+            }catch(IllegalArgumentException e){ // tree and alignment do not match
+                throw new SubReconException(e.getMessage(), true);
+            }
+        }
+
+    }
+
+    private final String alignmentPath; // null if not read from a file
+    private final String treePath;
+    private final String modelID;
+    private final DataCache.Inputs inputs;
+    private final ModelCache.Entry model;
+    private final RateDistribution rateDist;
+    private final TransitionMatrixCache matrices;
+    private final KernelOps kernelOps;
+    private final boolean sanityCheck;
+    private final int sigDigits;
+    private final ForkJoinPool pool;
+    private final boolean ownPool;
+    private final Map<Integer, Workspace.Pool> workspaces = new HashMap<Integer, Workspace.Pool>(); // by block size, kept between queries
+    private final RunStats stats;
+
+    private PartialsIndexReader index; // to reconstruct branches from, or null
+
+    private ReconstructionSession(Builder builder, DataCache.Inputs inputs, ModelCache.Entry model, RunStats stats){
+        this.stats = stats;
+        this.alignmentPath = builder.alignmentPath;
+        this.treePath = builder.treePath;
+        this.modelID = builder.modelID;
+        this.inputs = inputs;
+        this.model = model;
+        this.rateDist = builder.rates != null ? new CustomRates(builder.rates) : new GammaRates(builder.nCat, builder.shape);
+        // Q is decomposed once, then used for all branches and rate categories (and all sessions sharing the caches)
+        RunStats.Phase matrixSetup = stats.startPhase(RunStats.MATRICES);
+        this.matrices = builder.data != null && alignmentPath != null ? builder.data.getMatrices(inputs, model, rateDist)
+                                                                     : new TransitionMatrixCache(inputs.getFlatTree(), model.getEngine(), rateDist);
+        matrixSetup.end();
+        stats.setMatrixCount((long)(inputs.getFlatTree().getNodeCount() + 1) * rateDist.getNumberOfRates());
+        this.kernelOps = KernelOps.getInstance(builder.simd);
+        this.sanityCheck = builder.sanityCheck;
+        this.sigDigits = builder.sigDigits;
+        this.ownPool = builder.pool == null;
+        this.pool = ownPool ? new ForkJoinPool(builder.nThreads) : builder.pool;
+    }
+
+    public AdvancedAlignmentAminoAcid getAlignment(){
+        return inputs.getAlignment();
+    }
+
+    public Tree getTree(){
+        return inputs.getTree();
+    }
+
+    public FlatTree getFlatTree(){
+        return inputs.getFlatTree();
+    }
+
+    public SitePatterns getPatterns(){
+        return inputs.getPatterns();
+    }
+
+    public int getSiteCount(){
+        return inputs.getPatterns().getSiteCount();
+    }
+
+    public int getPatternCount(){
+        return inputs.getPatterns().getPatternCount();
+    }
+
+    public int getTaxonCount(){
+        return inputs.getFlatTree().getLeafCount();
+    }
+
+    /*
+        Equilibrium frequencies. Must not be modified
+    */
+    public double[] getFrequencies(){
+        return model.getFrequencies();
+    }
+
+    public RateDistribution getRateDistribution(){
+        return rateDist;
+    }
+
+    /*
+        Description of the substitution model
+    */
+    public String getModelReport(){
+        return model.getReport();
+    }
+
+    public int getThreadCount(){
+        return pool.getParallelism();
+    }
+
+    /*
+        Worker threads busy now (an estimate). Includes other sessions' work, if the threads are shared
+    */
+    public int getActiveThreadCount(){
+        return pool.getActiveThreadCount();
+    }
+
+    /*
+        Tasks waiting for a worker thread (an estimate)
+    */
+    public long getQueuedTaskCount(){
+        return pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
+    }
+
+    public KernelOps getKernelOps(){
+        return kernelOps;
+    }
+
+    public int getSigDigits(){
+        return sigDigits;
+    }
+
+    /*
+        Phase times and work done so far. Only complete between queries
+    */
+    public RunStats getStats(){
+        return stats;
+    }
+
+    public BranchSet getAllBranches(){
+        return BranchSet.all(inputs.getFlatTree());
+    }
+
+    /*
+        Comma separated taxa, or taxon1+taxon2 for the branch above their most recent common ancestor (see BranchSet).
+        Throws IllegalArgumentException for unknown taxa
+    */
+    public BranchSet getBranches(String specifications){
+        return BranchSet.parse(inputs.getFlatTree(), specifications);
+    }
+
+    /*
+        Reconstructs one site on the calling thread. branches == null for the branch between A and B only
+    */
+    public SiteResult reconstruct(int site, BranchSet branches, SubstitutionSelector selector){
+        checkSite(site);
+        RunStats.Phase phase = stats.startPhase(RunStats.RECONSTRUCTION);
+        try{
+            return createTask(getWorkspaces(getBlockSize(branches)), branches, selector, new int[]{ site }).call()[0];
+        }catch(RuntimeException e){
+            throw e;
+        }catch(Exception e){ // none of the reconstructions throw checked exceptions
+            throw new RuntimeException(e);
+        }finally{
+            phase.end();
+        }
+    }
+
+    /*
+        Reconstructs the given sites, using the worker threads, and returns them in the same order.
+        Each site pattern is only analysed once
+    */
+    public List<SiteResult> reconstruct(int[] sites, BranchSet branches, SubstitutionSelector selector){
+        checkCancelled();
+        SitePatterns patterns = inputs.getPatterns();
+        final SiteResult[] patternResults = new SiteResult[patterns.getPatternCount()]; // guarded by itself
+        List<Integer> queryPatterns = new ArrayList<Integer>();
+        boolean[] queried = new boolean[patterns.getPatternCount()];
+        for (int site : sites) {
+            checkSite(site);
+            int pattern = patterns.getPattern(site);
+            if (!queried[pattern]) {
+                queried[pattern] = true;
+                queryPatterns.add(pattern);
+            }
+        }
+        int[] patternIndices = new int[queryPatterns.size()];
+        for (int i = 0; i < patternIndices.length; i++) {
+            patternIndices[i] = queryPatterns.get(i);
+        }
+
+        RunStats.Phase phase = stats.startPhase(RunStats.RECONSTRUCTION);
+        if (patternIndices.length > 0) {
+            final int blockSize = getBlockSize(branches);
+            final Workspace.Pool blockWorkspaces = getWorkspaces(blockSize);
+            final BranchSet queryBranches = branches;
+            final SubstitutionSelector querySelector = selector;
+            final CountDownLatch done = new CountDownLatch(patternIndices.length);
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            SiteScheduler scheduler = createScheduler(blockSize);
+            scheduler.submit(patterns, patternIndices, new SiteScheduler.TaskFactory() {
+                @Override
+                public Callable<SiteResult[]> create(int[] blockSites) {
+                    return createTask(blockWorkspaces, queryBranches, querySelector, blockSites);
+                }
+            }, new SiteScheduler.ResultListener() {
+                @Override
+                public void completed(int[] blockPatterns, SiteResult[] results) {
+                    synchronized (patternResults) {
+                        for (int s = 0; s < blockPatterns.length; s++) {
+                            patternResults[blockPatterns[s]] = results[s];
+                        }
+                    }
+                    for (int s = 0; s < blockPatterns.length; s++) {
+                        done.countDown();
+                    }
+                }
+
+                @Override
+                public void failed(Throwable t) {
+                    failure.compareAndSet(null, t);
+                    while (done.getCount() > 0) {
+                        done.countDown();
+                    }
+                }
+            });
+            try{
+                done.await();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            if (failure.get() != null || Thread.currentThread().isInterrupted()) scheduler.cancel(); // the remaining results will not be read
+            scheduler.shutdown();
+            checkCancelled();
+            Throwable t = failure.get();
+            if (t != null) {
+                if (t instanceof RuntimeException) throw (RuntimeException)t;
+                if (t instanceof Error) throw (Error)t;
+                throw new RuntimeException(t);
+            }
+        }
+
+        List<SiteResult> results = new ArrayList<SiteResult>(sites.length);
+        synchronized (patternResults) {
+            for (int site : sites) {
+                results.add(patternResults[patterns.getPattern(site)].forSite(site));
+            }
+        }
+        phase.end();
+        return results;
+    }
+
+    /*
+        Reconstructs all sites, passing them to the sink (from the calling thread) as they complete, in site
+        order if ordered. Only a bounded number of results are held at once. Returns the total lnL
+    */
+    public double reconstructAll(final BranchSet branches, final SubstitutionSelector selector, boolean ordered, ResultPipeline.Sink sink){
+        checkCancelled();
+        RunStats.Phase phase = stats.startPhase(RunStats.RECONSTRUCTION);
+        int blockSize = getBlockSize(branches);
+        final Workspace.Pool blockWorkspaces = getWorkspaces(blockSize);
+        SiteScheduler scheduler = createScheduler(blockSize);
+        int window = Math.max(Constants.MIN_WINDOW_SITES / (branches == null ? 1 : branches.getCount()), Constants.WINDOW_BLOCKS_PER_THREAD * blockSize * getThreadCount()); // sites in flight
+        // identical columns give identical results, so analyse each site pattern only once
+        ResultPipeline pipeline = new ResultPipeline(inputs.getPatterns(), scheduler, new SiteScheduler.TaskFactory() {
+            @Override
+            public Callable<SiteResult[]> create(int[] blockSites) {
+                return createTask(blockWorkspaces, branches, selector, blockSites);
+            }
+        }, window, ordered, sink);
+        try{
+            return pipeline.run(); // across sites, so each pattern is weighted by the number of sites with that pattern
+        }catch(RuntimeException e){
+            scheduler.cancel(); // the remaining results will not be read
+            checkCancelled();
+            throw e;
+        }finally{
+            scheduler.shutdown();
+            phase.end();
+        }
+    }
+
+    /*
+        Writes the conditionals at both ends of every branch, for every site pattern, to a partials index file,
+        for queries with useIndex(). Only for sessions with inputs read from files
+    */
+    public void buildIndex(File file) throws IOException {
+        checkCancelled();
+        RunStats.Phase phase = stats.startPhase(RunStats.INDEX);
+        SiteScheduler scheduler = createScheduler(Constants.BLOCK_SIZE);
+        PartialsIndexBuilder builder = new PartialsIndexBuilder(inputs.getFlatTree(), matrices, getWorkspaces(Constants.BLOCK_SIZE), inputs.getPatterns(), 
+                                                                model.getFrequencies(), rateDist);
+        try{
+            PartialsIndexWriter writer = new PartialsIndexWriter(file, computeIndexKey(), getPatternCount(), 
+                                                                    model.getFrequencies().length, rateDist.getNumberOfRates(), builder.getBranchNodes());
+            try{
+                builder.build(scheduler, writer);
+                writer.finish();
+            }finally{
+                writer.close();
+            }
+        }catch(RuntimeException e){
+            scheduler.cancel();
+            checkCancelled();
+            throw e;
+        }finally{
+            scheduler.shutdown();
+            phase.end();
+        }
+    }
+
+    /*
+        Reconstructs branches from this partials index in later queries, rather than pruning the tree.
+        Throws IOException if it was built from other inputs. The session closes it
+    */
+    public synchronized void useIndex(PartialsIndexReader index) throws IOException {
+        if (!index.hasKey(computeIndexKey()) || index.getPatternCount() != getPatternCount()) 
+            throw new IOException("it was built from a different alignment, tree, model, frequencies or rates. Rebuild it with -buildindex");
+        this.index = index;
+    }
+
+    /*
+        Stops the worker threads, unless they are shared, closes the index and drops the
+        scratch arrays, so that shared threads do not keep them once the session is unused
+    */
+    @Override
+    public void close() throws IOException {
+        if (ownPool) pool.shutdown();
+        PartialsIndexReader toClose;
+        synchronized (this) {
+            toClose = index;
+            index = null;
+            workspaces.clear();
+        }
+        if (toClose != null) toClose.close();
+    }
+
+    /*
+        Identifies the inputs an index was built from
+    */
+    private byte[] computeIndexKey() throws IOException {
+        if (alignmentPath == null || treePath == null) 
+            throw new IllegalStateException("A partials index can only be used with an alignment and tree read from files");
+        return PartialsIndexFormat.computeKey(new File(alignmentPath), new File(treePath), modelID,
+                                                model.getFrequencies(), rateDist.getRates(), rateDist.getCategoryProbabilities());
+    }
+
+    private void checkSite(int site){
+        if (site < 0 || site >= getSiteCount()) 
+            throw new IllegalArgumentException("Site "+site+" is not in the alignment (sites are numbered from 0)");
+    }
+
+    /*
+        A query is cancelled by interrupting the thread making it (e.g. by a server)
+    */
+    private void checkCancelled(){
+        if (Thread.currentThread().isInterrupted()) 
+            throw new SubReconException("ERROR: Run cancelled", false);
+    }
+
+    private synchronized Workspace.Pool getWorkspaces(int blockSize){
+        Workspace.Pool pool = workspaces.get(blockSize);
+        if (pool == null) { // scratch arrays, one set per worker thread
+            pool = new Workspace.Pool(inputs.getTipStates(), inputs.getFlatTree(), matrices, kernelOps, blockSize, stats);
+            workspaces.put(blockSize, pool);
+        }
+        return pool;
+    }
+
+    private SiteScheduler createScheduler(int blockSize){
+        return new SiteScheduler(inputs.getFlatTree(), inputs.getTipStates(), pool, blockSize, stats);
+    }
+
+    /*
+        Sites analysed together. In all-branches mode, smaller blocks keep the joint probabilities of all branches within a fixed budget
+    */
+    private synchronized int getBlockSize(BranchSet branches){
+        if (branches == null || index != null) return Constants.BLOCK_SIZE;
+        int nStates = model.getFrequencies().length;
+        long bytesPerSite = 8L * branches.getCount() * nStates * nStates;
+        return (int)Math.max(1, Math.min(Constants.BLOCK_SIZE, Constants.BRANCH_WORKSPACE_BYTES / bytesPerSite));
+    }
+
+    /*
+        Reconstruction of a block of sites, along the branch between A and B or along all selected branches
+    */
+    private Callable<SiteResult[]> createTask(Workspace.Pool workspaces, BranchSet branches, SubstitutionSelector selector, int[] sites){
+        FlatTree flatTree = inputs.getFlatTree();
+        double[] pi = model.getFrequencies();
+        if (branches == null) {
+            return new JointBranchReconstruction(flatTree, matrices, workspaces, pi, rateDist, selector, sigDigits, sanityCheck, sites);
+        }
+        PartialsIndexReader queryIndex;
+        synchronized (this) {
+            queryIndex = index;
+        }
+        if (queryIndex != null) {
+            return new IndexedBranchReconstruction(queryIndex, IndexedBranchReconstruction.mapBranches(branches, queryIndex), matrices, inputs.getPatterns(), 
+                                                    branches, rateDist, selector, sigDigits, sites);
+        }
+        return new InsideOutsideReconstruction(flatTree, matrices, workspaces, branches, pi, rateDist, selector, sigDigits, sanityCheck, sites);
+    }
+
+}
@@ -19,34 +19,27 @@ import subrecon.molevo.*;
 import subrecon.utils.*;
 import subrecon.recon.*;
 import subrecon.cli.*;
+import subrecon.batch.BatchRunner;
+import subrecon.server.SubReconServer;
+import subrecon.io.BinaryResultWriter;
+import subrecon.io.PartialsIndexReader;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import pal.alignment.AlignmentParseException;
-import pal.alignment.AlignmentReaders;
-import pal.alignment.SimpleAlignment;
-import pal.datatype.AminoAcids;
+import java.util.concurrent.ForkJoinPool;
 import pal.substmodel.AminoAcidModel;
 import pal.substmodel.BLOSUM62;
 import pal.substmodel.Dayhoff;
-import pal.substmodel.GammaRates;
 import pal.substmodel.JTT;
 import pal.substmodel.RateDistribution;
 import pal.substmodel.WAG;
 import pal.tree.Node;
 import pal.tree.NodeUtils;
-import pal.tree.ReadTree;
-import pal.tree.Tree;
-import pal.tree.TreeParseException;
 
 /**
  *
@@ -69,96 +62,256 @@ import pal.tree.TreeParseException;
  */
 public class SubRecon {
     private boolean sanityCheck;
-    private AdvancedAlignmentAminoAcid alignment;
-    private Tree tree;
-    
-    private double[] pi;
-    private double[] logPi;
+    private ReconstructionSession session; // inputs, model and rates, and the reconstructions
 
     private int site;
     
     private boolean sortByProb; // sort by value for output
     private double threshold; // minimum transition probability for printing 
     private boolean verbose;
-    private int sigDigits;
-    
-    private RateDistribution rateDist;
     
     private CommandArgs comArgs;
     
-    private int nThreads;
+    private boolean unordered; // write results as they complete, rather than in site order
+    private int topK; // maximum number of substitutions reported per site, 0 for no limit
+    private String binaryPath; // file for all joint probabilities, or null
+    private int binaryPrecision; // 32 or 64 bit floats in binary file
+    private BranchSet branches; // branches to reconstruct in all-branches mode, or null for the branch between A and B only
+    private String buildIndexPath; // partials index file to build, or null
+    private boolean printStats; // phase times and work counters, after the results
+    private final RunStats stats = new RunStats();
+    private ProgressReporter progress; // for -progress or -metrics, or null
+    
+    private final PrintStream console; // all output, normally System.out
+    private final ModelCache models; // shared between runs in batch mode
+    private final DataCache data; // inputs and transition matrices, kept between runs by a server
+    private final ForkJoinPool sharedPool; // worker threads shared between runs in batch mode, or null for a pool of this run's own
+    private JCommander jcom;
+    
+    // outcome of the run
+    private double totalLnL = Double.NaN;
+    private int nReportedSites = 0;
     
-    public SubRecon(){}
+    public SubRecon(){
+        this(System.out, new ModelCache(), null);
+    }
+    
+    public SubRecon(PrintStream console, ModelCache models, ForkJoinPool sharedPool){
+        this(console, models, new DataCache(0), sharedPool);
+    }
+    
+    public SubRecon(PrintStream console, ModelCache models, DataCache data, ForkJoinPool sharedPool){
+        this.console = console;
+        this.models = models;
+        this.data = data;
+        this.sharedPool = sharedPool;
+    }
     
     public static void main(String[] args) {
-        new SubRecon().run(args);
+        if (BatchRunner.isBatch(args)) {
+            System.exit(BatchRunner.run(args));
+        }
+        if (SubReconServer.isServe(args)) {
+            System.exit(SubReconServer.run(args));
+        }
+        SubRecon subRecon = new SubRecon();
+        try{
+            subRecon.run(args);
+        }catch(SubReconException e){
+            if (!e.isHelpRequest()) {
+                System.out.println(e.getMessage());
+            }
+            if (e.isUsageError()) {
+                subRecon.printHelp();
+            }
+            System.exit(e.isHelpRequest() ? 0 : 1);
+        }
     }
     
+    /*
+        Throws SubReconException if the run cannot be completed
+    */
     public void run(String[] args){
-        
-        //long start = System.currentTimeMillis();
-        this.init(args);
-        boolean printingSites = false;
-        if (site > -1) { // analysing a single site
-            SiteResult result = new JointBranchReconstruction(alignment, tree, getModelInstance(comArgs.getModelID(), pi), pi, logPi, rateDist, threshold, sigDigits, sortByProb, sanityCheck, site).call();
-            if (verbose || (result.getMaxIIProb() <= 1.-threshold && result.getMaxProb() >= threshold)) { // print if highest prob substitution is NOT I->I *and* if that sub has prob >= threshold
-                printingSites = true; // at least one site has result to be printed
-                System.out.println(result);
+        boolean finished = false;
+        try{
+            this.init(args);
+            reconstruct();
+            finished = true;
+            if (printStats) {
+                stats.report(console);
             }
-        }else{
-            ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);        
-            
-            List<Future<SiteResult>> siteResults = new ArrayList<Future<SiteResult>>();
-            for (int iSite = 0; iSite < alignment.getLength(); iSite++) {
-                Future<SiteResult> siteResult = threadPool.submit(new JointBranchReconstruction(alignment, tree, getModelInstance(comArgs.getModelID(), pi), pi, logPi, rateDist, threshold, sigDigits, sortByProb, sanityCheck, iSite  )
-                );// submit
-                siteResults.add(siteResult);
-            }// for iSite
-            
-            threadPool.shutdown();
-            
-            
-            // print results
-            double totalLnL = 0.0; // across sites
-            for (int iSite = 0; iSite < siteResults.size(); iSite++) {
-                SiteResult result = null;
+        }finally{ // the session's threads and index stay open in a batch otherwise
+            if (progress != null) {
+                progress.stop(finished);
+            }
+            if (session != null) {
                 try{
-                    result = siteResults.get(iSite).get();
-                }catch(InterruptedException e){
-                    System.out.printf("ERROR: Site %d%n", (iSite+1));
-                    e.printStackTrace();
-                    continue;
-                }catch(ExecutionException e){
-                    System.out.printf("ERROR: Site %d%n", (iSite+1));
-                    e.printStackTrace();
-                    continue;
-                }
-
-                totalLnL += result.getMarginalLnL();
-                if (verbose || (result.getMaxIIProb() <= 1.-threshold && result.getMaxProb() >= threshold)) { // result is interesting if the highest prob substitution is NOT I->I *and* if that substitution has prob above threshold
-                    printingSites = true; // at least one site has result to be printed
-                    System.out.println(result);
+                    session.close();
+                }catch(IOException e){
+                    // nothing more to read from the index
                 }
-            }// for iSite
-            System.out.printf("Total lnL: %.10f%n", totalLnL);
+            }
+        }
+    }// run
+    
+    private void reconstruct(){
+        if (buildIndexPath != null) {
+            buildIndex();
+            return;
+        }
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(console), Constants.OUTPUT_BUFFER_SIZE)); // all results go through this single buffered sink
+        BinaryResultWriter binaryWriter = createBinaryWriter(); // null unless -binary
+        PrintingSink sink = new PrintingSink(out, binaryWriter);
+        SubstitutionSelector selector = new SubstitutionSelector(threshold, topK, sortByProb, binaryWriter != null); // which substitutions are reported for each site
+        if (site > -1) { // analysing a single site
+            sink.write(session.reconstruct(site, branches, selector));
+        }else{
+            try{
+                totalLnL = session.reconstructAll(branches, selector, !unordered, sink);
+            }finally{
+                out.flush();
+            }
+            out.printf("Total lnL: %.10f%n", totalLnL);
 
         }// else (analysing all sites)
 
-        if (!printingSites) { // produce output if no sites are deemed interesting, to avoid confusion
-            System.out.printf("0 sites have non-identical substitution probabilities greater than threshold value (threshold=%.5f)%n", threshold);
-            System.out.println("The options -threshold, -nosort and -verbose can be used to control output detail");
+        if (!sink.printingSites) { // produce output if no sites are deemed interesting, to avoid confusion
+            out.printf("0 sites have non-identical substitution probabilities greater than threshold value (threshold=%.5f)%n", threshold);
+            out.println("The options -threshold, -nosort and -verbose can be used to control output detail");
         }// if
-        //long duration = System.currentTimeMillis() - start;
-        //System.out.printf("Duration: %d s (%d ms)%n", (duration/1000), duration);
-
-    }// run
+        out.flush();
+        nReportedSites = sink.nPrintedSites;
+        
+        if (binaryWriter != null) {
+            long start = System.nanoTime();
+            try{
+                binaryWriter.close();
+            }catch(IOException e){
+                throw new SubReconException("ERROR: Unable to write binary results file: "+e.getMessage(), e);
+            }
+            sink.nanos += System.nanoTime() - start;
+        }
+        stats.addPhaseTime(RunStats.OUTPUT, sink.nanos);
+    }// reconstruct
     
+    /*
+        Writes the partials index (-buildindex), instead of any results
+    */
+    private void buildIndex(){
+        try{
+            session.buildIndex(new File(buildIndexPath));
+        }catch(IOException e){
+            throw new SubReconException("ERROR: Unable to write partials index: "+e.getMessage(), e);
+        }
+        console.printf("Partials index written to %s: %d branches, %d site patterns, %d rate classes%n", 
+                            buildIndexPath, session.getAllBranches().getCount(), session.getPatternCount(), session.getRateDistribution().getNumberOfRates());
+    }
+    
+    /*
+        Opens the -index file, checking it was built from the same inputs
+    */
+    private void openIndex(String indexPath){
+        PartialsIndexReader index = null;
+        try{
+            index = new PartialsIndexReader(new File(indexPath));
+            IndexedBranchReconstruction.mapBranches(branches, index); // check the branches are there
+            session.useIndex(index);
+        }catch(IOException e){
+            closeQuietly(index);
+            throw new SubReconException("ERROR: Unable to use partials index "+indexPath+": "+e.getMessage(), e);
+        }catch(IllegalArgumentException e){
+            closeQuietly(index);
+            throw new SubReconException(e.getMessage(), e);
+        }
+    }
+    
+    private static void closeQuietly(PartialsIndexReader index){
+        if (index == null) return;
+        try{
+            index.close();
+        }catch(IOException e){
+            // already failed
+        }
+    }
+    
+    /*
+        Opens the -binary output file, if one was requested
+    */
+    private BinaryResultWriter createBinaryWriter(){
+        if (binaryPath == null) return null;
+        try{
+            double shape = comArgs.getRates() != null ? Double.NaN : comArgs.getShape();
+            RateDistribution rateDist = session.getRateDistribution();
+            return new BinaryResultWriter(new File(binaryPath), session.getSiteCount(), session.getFrequencies().length, binaryPrecision / 8,
+                                            comArgs.getAlignPath(), comArgs.getTreePath(), comArgs.getModelID(),
+                                            shape, rateDist.getRates(), rateDist.getCategoryProbabilities());
+        }catch(IOException e){
+            throw new SubReconException("ERROR: Unable to create binary results file: "+e.getMessage(), e);
+        }
+    }
+    
+    /*
+        Prints results that are interesting, or all results if verbose. Writes all results to the binary file, if there is one
+    */
+    private class PrintingSink implements ResultPipeline.Sink {
+        
+        private final PrintWriter out;
+        private final BinaryResultWriter binaryWriter;
+        boolean printingSites = false; // at least one site has result to be printed
+        int nPrintedSites = 0;
+        long nanos = 0; // formatting and writing results, for -stats
+        
+        PrintingSink(PrintWriter out, BinaryResultWriter binaryWriter){
+            this.out = out;
+            this.binaryWriter = binaryWriter;
+        }
+        
+        @Override
+        public void write(SiteResult result){
+            long start = System.nanoTime();
+            boolean printed = false;
+            if (result.getBranchResults() != null) { // all-branches mode: one line per branch
+                for (SiteResult branchResult : result.getBranchResults()) {
+                    printed |= print(branchResult);
+                }
+            }else{
+                printed = print(result);
+            }
+            if (printed) nPrintedSites++;
+            stats.siteWritten();
+            if (binaryWriter != null) {
+                try{
+                    binaryWriter.write(result);
+                }catch(IOException e){
+                    throw new SubReconException("ERROR: Unable to write binary results file: "+e.getMessage(), e);
+                }
+            }
+            nanos += System.nanoTime() - start;
+        }
+        
+        private boolean print(SiteResult result){
+            if (verbose || (result.getMaxIIProb() <= 1.-threshold && result.getMaxProb() >= threshold)) { // result is interesting if the highest prob substitution is NOT I->I *and* if that substitution has prob above threshold
+                printingSites = true;
+                out.println(result);
+                return true;
+            }
+            return false;
+        }
+        
+        @Override
+        public void flush(){
+            long start = System.nanoTime();
+            out.flush();
+            nanos += System.nanoTime() - start;
+        }
+        
+    }
     
     private void init(String[] args){
         
         // assign fields
         this.comArgs = new CommandArgs();
-        JCommander jcom = new JCommander(this.comArgs);
+        this.jcom = new JCommander(this.comArgs);
         jcom.setProgramName(Constants.NAME);
         
         try{
@@ -167,103 +320,147 @@ public class SubRecon {
         catch(ParameterException ex){
             // exception will be thrown even if -h used legitimately, because compulsary options (e.g. -m) may not have been given
             if (comArgs.getShowHelp()) {
-                helpAndExit(jcom, 0);
+                throw new SubReconException(null, true);
             }else{
-                System.out.printf("ERROR: %s%n", ex.getMessage());
-                helpAndExit(jcom, 1);
+                throw new SubReconException(String.format("ERROR: %s", ex.getMessage()), true);
             }
         }
 
         if (comArgs.getShowHelp()) {
-            helpAndExit(jcom, 0);
+            throw new SubReconException(null, true);
         }
         
         this.site = comArgs.getSite(); // default value is -1, meaning analyse all sites
         this.sortByProb = !comArgs.getNoSort();
         this.threshold =  comArgs.getThreshold();
         this.verbose = comArgs.getVerbose();
-        this.sigDigits = comArgs.getSigDigits();
         this.sanityCheck = comArgs.getDebug();
-        this.nThreads = comArgs.getNThreads();
+        this.unordered = comArgs.getUnordered();
+        this.topK = comArgs.getTopK();
+        this.binaryPath = comArgs.getBinaryPath();
+        this.binaryPrecision = comArgs.getBinaryPrecision();
+        this.buildIndexPath = comArgs.getBuildIndexPath();
+        this.printStats = comArgs.getStats();
         
-        double shape = comArgs.getShape();
-        int nCat = comArgs.getNCat();
-        
-        AminoAcidModel reportModel = null;
-        Node root = null;
+        if (comArgs.getProgressInterval() != null && !(comArgs.getProgressInterval() > 0.0)) 
+            throw new SubReconException("ERROR: -progress must be a number of seconds greater than 0", true);
+        if (comArgs.getProgressInterval() != null || comArgs.getMetricsPath() != null) { // started now, to report reading the inputs
+            double interval = comArgs.getProgressInterval() != null ? comArgs.getProgressInterval() : Constants.DEFAULT_METRICS_INTERVAL;
+            progress = new ProgressReporter(stats, new File(comArgs.getAlignPath()).getName(), comArgs.getProgressInterval() != null ? System.err : null,
+                                            comArgs.getMetricsPath() != null ? new File(comArgs.getMetricsPath()) : null, interval);
+            progress.start();
+        }
         
         try{ // check input parameters are ok
-            loadData(comArgs.getAlignPath(), comArgs.getTreePath(), comArgs.getPhy());            
-            root = this.tree.getRoot();
-            reportModel = getModelInstance(comArgs.getModelID(), comArgs.getFrequencies());
-            
-            if (sigDigits < 1 || sigDigits > 15) 
-                throw new ParameterException("ERROR: -sd (significant digits) argument must be 0 < sd < 16");
+            ReconstructionSession.Builder builder = new ReconstructionSession.Builder()
+                    .alignment(comArgs.getAlignPath(), comArgs.getPhy())
+                    .tree(comArgs.getTreePath())
+                    .model(comArgs.getModelID())
+                    .frequencies(comArgs.getFrequencies())
+                    .gamma(comArgs.getShape(), comArgs.getNCat())
+                    .simd(comArgs.getSimd())
+                    .sanityCheck(sanityCheck)
+                    .sigDigits(comArgs.getSigDigits())
+                    .modelCache(models)
+                    .dataCache(data)
+                    .stats(stats);
+            if (comArgs.getRates() != null) {
+                builder.rates(comArgs.getRates());
+            }
+            if (sharedPool != null) {
+                builder.pool(sharedPool); // -T is for the whole batch
+            }else{
+                builder.threads(comArgs.getNThreads());
+            }
+            this.session = builder.build(); // SubReconException for unreadable or unsuitable inputs
+            if (progress != null) {
+                progress.setSession(session);
+            }
             
-            if (site < -1 || site > alignment.getLength()-1) // site == -1 is the default number, meaning no value has been supplied. site < -1 means the user has given a (nonsensical) negative number
+            if (site < -1 || site > session.getSiteCount()-1) // site == -1 is the default number, meaning no value has been supplied. site < -1 means the user has given a (nonsensical) negative number
                 throw new ParameterException("ERROR: -site value is less than 1 or greater than the number of sites in the alignment");
-           
-            if (shape < 0.0)
-                throw new ParameterException("ERROR: -shape value must be greater than or equal to 0.0");
             
-            if (nCat < 1)
-                throw new ParameterException("ERROR: -n (number of rate categories) must be 1 or higher");
+            if (topK < 0) 
+                throw new ParameterException("ERROR: -topk must be 0 (no limit) or higher");
             
-            if (root.getChildCount() > 2) 
-                throw new ParameterException("ERROR: Tree root has more than two descendents. Is the tree rooted correctly?");
+            if (binaryPrecision != 32 && binaryPrecision != 64) 
+                throw new ParameterException("ERROR: -binaryprecision must be 32 or 64");
             
-            if (nThreads < 1) 
-                throw new ParameterException("ERROR: -T (number of threads) must be 1 or higher");
+            if (comArgs.getAllBranches() && comArgs.getBranches() != null) 
+                throw new ParameterException("ERROR: -allbranches and -branches cannot be used together");
+            
+            if (comArgs.getAllBranches()) {
+                branches = session.getAllBranches();
+            }else if (comArgs.getBranches() != null) {
+                branches = session.getBranches(comArgs.getBranches()); // IllegalArgumentException for unknown taxa
+            }
+            
+            if (branches != null && binaryPath != null) 
+                throw new ParameterException("ERROR: -binary cannot be used with -allbranches or -branches");
+            
+            if (comArgs.getIndexPath() != null && branches == null) 
+                throw new ParameterException("ERROR: -index requires -branches or -allbranches");
+            
+            if (comArgs.getOutDir() != null || comArgs.getNJobs() != null || comArgs.getTimeout() != null || comArgs.getCacheMB() != null) 
+                throw new ParameterException("ERROR: -outdir and -jobs can only be used with -batch or -serve, and -timeout and -cachemb with -serve");
+            
+            if (buildIndexPath != null && (branches != null || comArgs.getIndexPath() != null || binaryPath != null || site > -1)) 
+                throw new ParameterException("ERROR: -buildindex cannot be used with -allbranches, -branches, -index, -binary or -site");
         }catch (ParameterException e){
-            System.out.println(e.getMessage());
-            helpAndExit(jcom, 1);
+            throw new SubReconException(e.getMessage(), true);
+        }catch (IllegalArgumentException e){ // unknown taxa
+            throw new SubReconException(e.getMessage(), true);
         }
         
-        this.pi = reportModel.getEquilibriumFrequencies();
-        this.logPi = Utils.getLnValues(pi);
-        
+        Node root = session.getTree().getRoot();
         Node nodeA = root.getChild(0);  
         Node nodeB = root.getChild(1);
-
-        if (comArgs.getRates() != null) {
-            rateDist = new CustomRates(comArgs.getRates());
-        }else{
-            rateDist = new GammaRates(nCat, shape);        
+        
+        if (comArgs.getIndexPath() != null) {
+            openIndex(comArgs.getIndexPath());
         }
         
-        System.out.println("SubRecon: Ancestral Reconstruction of Amino Acid Substitutions Along a Branch in a Phylogeny");
-        System.out.println("");
-        System.out.println("Please cite: Christopher Monit and Richard A. Goldstein (2018) Bioinformatics. DOI: 10.1093/bioinformatics/bty101");
-        System.out.println("");
+        console.println("SubRecon: Ancestral Reconstruction of Amino Acid Substitutions Along a Branch in a Phylogeny");
+        console.println("");
+        console.println("Please cite: Christopher Monit and Richard A. Goldstein (2018) Bioinformatics. DOI: 10.1093/bioinformatics/bty101");
+        console.println("");
         
-        try{
-            PrintWriter writer = new PrintWriter(System.out);
-            reportModel.report(writer);
-            rateDist.report(writer);
-            writer.flush();
-        }catch(Exception e){
-            e.printStackTrace();
-            System.exit(1);
-        }
+        console.print(session.getModelReport());
+        PrintWriter writer = new PrintWriter(console);
+        session.getRateDistribution().report(writer);
+        writer.flush();
 
         if (sanityCheck) {
-            System.out.println("");
-            System.out.println("######### sanityCheck == true #########");
+            console.println("");
+            console.println("######### sanityCheck == true #########");
         }
         
-        System.out.println("");
-        System.out.printf("Using %d thread(s)%n", nThreads);
-        System.out.println("");
+        console.println("");
+        console.printf("Using %d thread(s)%n", session.getThreadCount());
+        console.printf("Kernel: %s%n", session.getKernelOps().getDescription());
+        if (comArgs.getIndexPath() != null) {
+            console.printf("Reading conditionals from partials index %s%n", comArgs.getIndexPath());
+        }
+        console.printf("Alignment has %d sites and %d unique site patterns%n", session.getSiteCount(), session.getPatternCount());
+        console.println("");
         
-        System.out.println("--------------------------------------------------------------");
-        System.out.println("Reconstruction probabilities are presented in the form [ab:x],");
-        System.out.println("meaning x is the joint probability of residue [a] being       ");
-        System.out.println("present at node [A] and residue [b] being present at node [B].");        
-        System.out.printf( "Node [A] has %d tips and contains taxon %s.%n", NodeUtils.getLeafCount(nodeA), getSingleTerminalNode(nodeA).getIdentifier().getName());
-        System.out.printf( "Node [B] has %d tips and contains taxon %s.%n", NodeUtils.getLeafCount(nodeB), getSingleTerminalNode(nodeB).getIdentifier().getName());
-        System.out.println("--------------------------------------------------------------");
+        console.println("--------------------------------------------------------------");
+        console.println("Reconstruction probabilities are presented in the form [ab:x],");
+        console.println("meaning x is the joint probability of residue [a] being       ");
+        console.println("present at node [A] and residue [b] being present at node [B].");        
+        console.printf( "Node [A] has %d tips and contains taxon %s.%n", NodeUtils.getLeafCount(nodeA), getSingleTerminalNode(nodeA).getIdentifier().getName());
+        console.printf( "Node [B] has %d tips and contains taxon %s.%n", NodeUtils.getLeafCount(nodeB), getSingleTerminalNode(nodeB).getIdentifier().getName());
+        if (branches != null) {
+            console.printf( "Reconstructing %d branches. For other branches, [a] is at the upper%n", branches.getCount());
+            console.println("node and [b] at the lower node. Branches are named by a taxon, or by");
+            console.println("two taxa whose most recent common ancestor is the lower node. The");
+            console.println("branch between [A] and [B] is named by [A].");
+        }
+        console.println("--------------------------------------------------------------");
         
-        System.out.println(SiteResult.getHeader());
+        if (buildIndexPath == null) {
+            console.println(branches == null ? SiteResult.getHeader() : SiteResult.getBranchHeader());
+        }
                 
     } // init
     
@@ -279,7 +476,7 @@ public class SubRecon {
     
     
 
-    private AminoAcidModel getModelInstance(String modelArgument, double[] frequencies) throws ParameterException {
+    public static AminoAcidModel getModelInstance(String modelArgument, double[] frequencies) throws ParameterException {
     
         AminoAcidModel model;
         if (frequencies == null) { // use default model frequencies
@@ -315,43 +512,37 @@ public class SubRecon {
         return model;
     }
     
-    private void helpAndExit(JCommander jcom, int exitStatus){
+    private void printHelp(){
         
         HelpHandler handler = new HelpHandler();
         handler.printSynopsis();
         handler.printOptions(jcom);
-        System.exit(exitStatus);
     }
-
-    public void loadData(String alignmentPath, String treePath, Boolean readPhylip) throws ParameterException {
-        try{
-            SimpleAlignment simple;
-            if (readPhylip)
-                simple = new SimpleAlignment(AlignmentReaders.readPhylipClustalAlignment(new FileReader(alignmentPath), new AminoAcids()));
-            else
-                simple = new SimpleAlignment(AlignmentReaders.readFastaSequences(new FileReader(alignmentPath), new AminoAcids()));
-            
-            this.alignment = new AdvancedAlignmentAminoAcid(simple);
-                                
-            this.tree = new ReadTree(treePath);
-        }
-        catch(TreeParseException e){
-            throw new ParameterException("ERROR: Unable to parse tree file: "+e.getMessage());
-        }
-        catch(AlignmentParseException e){
-            throw new ParameterException("ERROR: Unable to parse alignment file: "+e.getMessage());
-        }
-        catch(FileNotFoundException e){
-            throw new ParameterException("ERROR: Unable to find alignment or tree file(s): "+e.getMessage());
-        }
-        catch(IOException e){
-            throw new ParameterException("ERROR: Unable read tree or alignment file(s): "+e.getMessage());
-        }
-        catch(Exception e){
-            e.printStackTrace();
-            throw new ParameterException("ERROR: Problem reading alignment or tree");
-        }
-
-    }//loadData
+    
+    /*
+        NaN before the run, and for a single site
+    */
+    public double getTotalLnL(){
+        return totalLnL;
+    }
+    
+    public int getSiteCount(){
+        return session.getSiteCount();
+    }
+    
+    public int getPatternCount(){
+        return session.getPatternCount();
+    }
+    
+    public int getTaxonCount(){
+        return session.getTaxonCount();
+    }
+    
+    /*
+        Sites with at least one result line, i.e. that passed -threshold
+    */
+    public int getReportedSiteCount(){
+        return nReportedSites;
+    }
     
 }
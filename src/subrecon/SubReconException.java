@@ -0,0 +1,51 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon;
+
+/**
+ * A run of SubRecon cannot continue. The message is for the user, and starts
+ * with "ERROR:". Thrown rather than exiting, so that one failed run does not
+ * end the others in batch mode. The command line prints the message (and the
+ * help, for bad arguments) and exits.
+ */
+public class SubReconException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean usageError;
+
+    /*
+        usageError: the arguments were wrong, so the help should be shown. A null message means -help was requested
+    */
+    public SubReconException(String message, boolean usageError){
+        super(message);
+        this.usageError = usageError;
+    }
+
+    public SubReconException(String message, Throwable cause){
+        super(message, cause);
+        this.usageError = false;
+    }
+
+    public boolean isUsageError(){
+        return usageError;
+    }
+
+    public boolean isHelpRequest(){
+        return usageError && getMessage() == null;
+    }
+
+}
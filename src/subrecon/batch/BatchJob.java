@@ -0,0 +1,63 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.batch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One line of a batch manifest: an alignment and tree with the model and rate
+ * parameters to analyse them with.
+ */
+public class BatchJob {
+
+    private final String name;
+    private final String alignmentPath;
+    private final String treePath;
+    private final String modelID;
+    private final String shape;
+    private final String nCat;
+    private final String frequencies; // null for the model's own frequencies
+
+    public BatchJob(String name, String alignmentPath, String treePath, String modelID, String shape, String nCat, String frequencies){
+        this.name = name;
+        this.alignmentPath = alignmentPath;
+        this.treePath = treePath;
+        this.modelID = modelID;
+        this.shape = shape;
+        this.nCat = nCat;
+        this.frequencies = frequencies;
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    /*
+        Command line for this job: its own inputs followed by the options common to all jobs
+    */
+    public String[] toArgs(String[] common){
+        List<String> args = new ArrayList<String>(Arrays.asList("-s", alignmentPath, "-t", treePath, "-m", modelID, "-a", shape, "-k", nCat));
+        if (frequencies != null) {
+            args.add("-pi");
+            args.add(frequencies);
+        }
+        args.addAll(Arrays.asList(common));
+        return args.toArray(new String[args.size()]);
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads a batch manifest: one job per line, with whitespace separated fields
+ *
+ *   name alignment tree model shape k [frequencies|-]
+ *
+ * Frequencies are as for -pi, and '-' (or no field) means the model's own.
+ * Blank lines, lines starting with '#' and a header line starting with "name"
+ * are ignored. Relative paths are relative to the manifest's directory. Names
+ * are used for the output files, so must be unique and only contain letters,
+ * digits, '.', '_' and '-'.
+ */
+public class BatchManifest {
+
+    private BatchManifest(){}
+
+    public static List<BatchJob> read(File manifest) throws IOException {
+        File dir = manifest.getAbsoluteFile().getParentFile();
+        List<BatchJob> jobs = new ArrayList<BatchJob>();
+        Set<String> names = new HashSet<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(manifest));
+        try{
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || (jobs.isEmpty() && line.startsWith("name"))) continue;
+                
+                String[] fields = line.split("\\s+");
+                if (fields.length < 6 || fields.length > 7) 
+                    throw new IOException("line "+lineNumber+": expected 6 or 7 fields (name alignment tree model shape k [frequencies]) but found "+fields.length);
+                String name = fields[0];
+                if (!name.matches("[A-Za-z0-9._-]+")) 
+                    throw new IOException("line "+lineNumber+": job name "+name+" may only contain letters, digits, '.', '_' and '-'");
+                if (!names.add(name)) 
+                    throw new IOException("line "+lineNumber+": job name "+name+" is used more than once");
+                String frequencies = fields.length == 7 && !fields[6].equals("-") ? fields[6] : null;
+                jobs.add(new BatchJob(name, resolve(dir, fields[1]), resolve(dir, fields[2]), fields[3], fields[4], fields[5], frequencies));
+            }
+        }finally{
+            reader.close();
+        }
+        return jobs;
+    }
+
+    private static String resolve(File dir, String path){
+        File file = new File(path);
+        return file.isAbsolute() ? path : new File(dir, path).getPath();
+    }
+
+}
@@ -0,0 +1,291 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import subrecon.ModelCache;
+import subrecon.SubRecon;
+import subrecon.SubReconException;
+
+/**
+ * Batch mode (-batch): runs every job of a manifest (see BatchManifest) in one
+ * JVM. Starting a JVM and building the substitution model's eigensystem can
+ * take longer than reconstructing a small gene alignment, so for many genes
+ * these are done once: all jobs share one ForkJoinPool of -T threads and one
+ * ModelCache, and -jobs of them run at a time, so that small alignments do not
+ * leave threads idle.
+ *
+ * Each job writes what SubRecon would print to <outdir>/<name>.out. A failed
+ * job does not stop the others; its error is written to its output file and
+ * to <outdir>/summary.tsv, which has one row per job in manifest order.
+ */
+public class BatchRunner {
+
+    // options that are given per job in the manifest, or would make jobs overwrite each other's files
+    private static final Set<String> PER_JOB_OPTIONS = new HashSet<String>(Arrays.asList(
+            "-sequences", "-s", "-tree", "-t", "-model", "-m", "-shape", "-a", "-rateclasses", "-k", "-frequencies", "-pi",
+            "-binary", "-buildindex", "-index"));
+
+    private final File manifest;
+    private final File outDir;
+    private final int nThreads;
+    private final int nJobs;
+    private final String[] common; // options for every job
+
+    private BatchRunner(File manifest, File outDir, int nThreads, int nJobs, String[] common){
+        this.manifest = manifest;
+        this.outDir = outDir;
+        this.nThreads = nThreads;
+        this.nJobs = nJobs;
+        this.common = common;
+    }
+
+    public static boolean isBatch(String[] args){
+        return Arrays.asList(args).contains("-batch");
+    }
+
+    /*
+        Runs the batch described by the command line. Returns the exit status: 0 if all jobs succeeded
+    */
+    public static int run(String[] args){
+        String manifestPath = null;
+        String outDirPath = ".";
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        int nJobs = -1; // default: one per thread
+        List<String> common = new ArrayList<String>();
+        try{
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-batch") || arg.equals("-outdir") || arg.equals("-jobs") || arg.equals("-threads") || arg.equals("-T")) {
+                    if (i + 1 == args.length) 
+                        throw new IllegalArgumentException("ERROR: Expected a value after "+arg);
+                    String value = args[++i];
+                    if (arg.equals("-batch")) {
+                        manifestPath = value;
+                    }else if (arg.equals("-outdir")) {
+                        outDirPath = value;
+                    }else if (arg.equals("-jobs")) {
+                        nJobs = Integer.parseInt(value);
+                    }else{
+                        nThreads = Integer.parseInt(value);
+                    }
+                }else if (PER_JOB_OPTIONS.contains(arg)) {
+                    throw new IllegalArgumentException("ERROR: "+arg+" cannot be used with -batch");
+                }else{
+                    common.add(arg);
+                }
+            }
+            if (nThreads < 1) 
+                throw new IllegalArgumentException("ERROR: -T (number of threads) must be 1 or higher");
+            if (nJobs == -1) {
+                nJobs = nThreads;
+            }else if (nJobs < 1) {
+                throw new IllegalArgumentException("ERROR: -jobs must be 1 or higher");
+            }
+        }catch(NumberFormatException e){
+            System.out.println("ERROR: -T and -jobs must be whole numbers");
+            return 1;
+        }catch(IllegalArgumentException e){
+            System.out.println(e.getMessage());
+            return 1;
+        }
+        return new BatchRunner(new File(manifestPath), new File(outDirPath), nThreads, nJobs, common.toArray(new String[common.size()])).run();
+    }
+
+    private int run(){
+        List<BatchJob> jobs;
+        try{
+            jobs = BatchManifest.read(manifest);
+        }catch(IOException e){
+            System.out.println("ERROR: Unable to read batch manifest "+manifest+": "+e.getMessage());
+            return 1;
+        }
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            System.out.println("ERROR: Unable to create output directory "+outDir);
+            return 1;
+        }
+        System.out.printf("Running %d jobs from %s, %d at a time on %d thread(s)%n", jobs.size(), manifest, Math.min(nJobs, Math.max(1, jobs.size())), nThreads);
+
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(nJobs, Math.max(1, jobs.size())));
+        ModelCache models = new ModelCache();
+        AtomicInteger nFinished = new AtomicInteger(0);
+        List<Future<Outcome>> futures = new ArrayList<Future<Outcome>>();
+        for (BatchJob job : jobs) {
+            futures.add(executor.submit(new JobTask(job, models, pool, nFinished, jobs.size())));
+        }
+
+        List<Outcome> outcomes = new ArrayList<Outcome>();
+        try{
+            for (Future<Outcome> future : futures) {
+                outcomes.add(future.get());
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while running batch", e);
+        }catch(ExecutionException e){ // JobTask makes every Throwable a failed Outcome
+            throw new RuntimeException(e.getCause());
+        }finally{ // the queued jobs are cancelled before their threads are stopped, if any job could not finish
+            executor.shutdownNow();
+            pool.shutdown();
+        }
+
+        int nFailed = 0;
+        File summary = new File(outDir, "summary.tsv");
+        try{
+            PrintWriter writer = new PrintWriter(summary);
+            writer.println("job\tstatus\ttaxa\tsites\tpatterns\ttotal_lnL\treported_sites\tseconds\tmessage");
+            for (Outcome outcome : outcomes) {
+                writer.println(outcome);
+                if (!outcome.succeeded) nFailed++;
+            }
+            writer.close();
+            if (writer.checkError()) 
+                throw new IOException("write failed");
+        }catch(IOException e){
+            System.out.println("ERROR: Unable to write batch summary "+summary+": "+e.getMessage());
+            return 1;
+        }
+
+        System.out.printf("Models built: %d, for %d jobs%n", models.getSize(), models.getRequestCount());
+        System.out.printf("%d of %d jobs succeeded. Summary written to %s%n", jobs.size() - nFailed, jobs.size(), summary);
+        return nFailed == 0 ? 0 : 1;
+    }
+
+    /*
+        Runs one job, writing its output to its own file
+    */
+    private class JobTask implements Callable<Outcome> {
+
+        private final BatchJob job;
+        private final ModelCache models;
+        private final ForkJoinPool pool;
+        private final AtomicInteger nFinished;
+        private final int nTotal;
+
+        JobTask(BatchJob job, ModelCache models, ForkJoinPool pool, AtomicInteger nFinished, int nTotal){
+            this.job = job;
+            this.models = models;
+            this.pool = pool;
+            this.nFinished = nFinished;
+            this.nTotal = nTotal;
+        }
+
+        @Override
+        public Outcome call(){
+            long start = System.nanoTime();
+            Outcome outcome;
+            File outFile = new File(outDir, job.getName()+".out");
+            PrintStream console = null;
+            try{
+                console = new PrintStream(new BufferedOutputStream(new FileOutputStream(outFile)));
+                SubRecon subRecon = new SubRecon(console, models, pool);
+                subRecon.run(job.toArgs(common));
+                outcome = new Outcome(job.getName(), subRecon, seconds(start));
+            }catch(IOException e){
+                outcome = new Outcome(job.getName(), "ERROR: Unable to write "+outFile+": "+e.getMessage(), seconds(start));
+            }catch(SubReconException e){
+                console.println(e.getMessage());
+                outcome = new Outcome(job.getName(), e.getMessage(), seconds(start));
+            }catch(Throwable e){ // a bug, or an Error such as running out of memory, rather than a problem with the job's inputs
+                if (console != null) e.printStackTrace(console);
+                outcome = new Outcome(job.getName(), "ERROR: "+e, seconds(start));
+            }finally{
+                if (console != null) console.close();
+            }
+            synchronized (BatchRunner.class) {
+                System.out.printf("[%d/%d] %s %s (%.2f s)%s%n", nFinished.incrementAndGet(), nTotal, job.getName(), outcome.succeeded ? "done" : "FAILED", 
+                                    outcome.seconds, outcome.succeeded ? "" : ": "+outcome.message);
+            }
+            return outcome;
+        }
+
+        private double seconds(long start){
+            return (System.nanoTime() - start) / 1e9;
+        }
+
+    }
+
+    /*
+        One row of the summary
+    */
+    private static class Outcome {
+
+        final String name;
+        final boolean succeeded;
+        final String message;
+        final double seconds;
+        final int nTaxa; // the rest are 0 if failed
+        final int nSites;
+        final int nPatterns;
+        final double totalLnL;
+        final int nReportedSites;
+
+        /*
+            Copies the numbers from the finished run, so that its session and workspaces are not kept
+        */
+        Outcome(String name, SubRecon subRecon, double seconds){
+            this.name = name;
+            this.succeeded = true;
+            this.message = "";
+            this.seconds = seconds;
+            this.nTaxa = subRecon.getTaxonCount();
+            this.nSites = subRecon.getSiteCount();
+            this.nPatterns = subRecon.getPatternCount();
+            this.totalLnL = subRecon.getTotalLnL();
+            this.nReportedSites = subRecon.getReportedSiteCount();
+        }
+
+        Outcome(String name, String message, double seconds){
+            this.name = name;
+            this.succeeded = false;
+            this.message = message == null ? "" : message.replaceAll("\\s+", " ");
+            this.seconds = seconds;
+            this.nTaxa = 0;
+            this.nSites = 0;
+            this.nPatterns = 0;
+            this.totalLnL = 0.0;
+            this.nReportedSites = 0;
+        }
+
+        @Override
+        public String toString(){
+            if (!succeeded) {
+                return String.format("%s\tfailed\t\t\t\t\t\t%.3f\t%s", name, seconds, message);
+            }
+            return String.format("%s\tok\t%d\t%d\t%d\t%.10f\t%d\t%.3f\t", name, nTaxa, nSites, nPatterns, totalLnL, nReportedSites, seconds);
+        }
+
+    }
+
+}
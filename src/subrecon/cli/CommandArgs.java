@@ -16,6 +16,7 @@
 package subrecon.cli;
 
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
 import subrecon.Constants;
 
 /**
@@ -86,16 +87,24 @@ public class CommandArgs {
         if (piArgument == null) {
             return null; // user has not provided frequencies on the CLI
         }
-                
+        
+        this.piValues = parseFrequencies(piArgument);
+        return piValues;
+    }
+    
+    /*
+        Comma delimited frequencies, normalised to sum to one. Throws ParameterException unless there are 20
+    */
+    public static double[] parseFrequencies(String piArgument){
+        
         double sum = 0.0;
         String[] piStrings = piArgument.split(",");
         
         if (piStrings.length != 20) {
-            System.out.println("Error: if specifying amino acid frequencies, exactly 20 values must be provided and delimited by comma with no spaces");
-            System.exit(1);
+            throw new ParameterException("Error: if specifying amino acid frequencies, exactly 20 values must be provided and delimited by comma with no spaces");
         }
         
-        this.piValues = new double[piStrings.length];
+        double[] piValues = new double[piStrings.length];
         for (int i = 0; i < piValues.length; i++) {
             piValues[i] = Double.parseDouble(piStrings[i]);
             sum += piValues[i];
@@ -109,8 +118,6 @@ public class CommandArgs {
         for (int i = 0; i < piValues.length; i++) {
             piValues[i] /= sum;
         }
-        
-        
         return piValues;
     }
     
@@ -164,14 +171,146 @@ public class CommandArgs {
         return sigDigits;
     }
     
-    @Parameter(names = {"-threads", "-T"}, required = false, description = "Number of threads to use (usually the number of spare CPUs on the machine)")
-    private int nThreads = 1;
+    @Parameter(names = {"-threads", "-T"}, required = false, description = "Number of threads to use (default: the number of available processors)")
+    private int nThreads = Runtime.getRuntime().availableProcessors();
     
     public int getNThreads(){
         return nThreads; // user can give site number in non-zero based
     }
     
     
+    @Parameter(names = {"-simd"}, required = false, description = "Use SIMD instructions via the JDK Vector API, if available (requires JDK 17+ and java --add-modules jdk.incubator.vector)")
+    private boolean simd = false;
+    
+    public boolean getSimd(){
+        return simd;
+    }
+    
+    @Parameter(names = {"-unordered"}, required = false, description = "Write results as soon as they are complete, rather than in site order")
+    private boolean unordered = false;
+    
+    public boolean getUnordered(){
+        return unordered;
+    }
+    
+    @Parameter(names = {"-stats"}, required = false, description = "After the results, print the time taken by each phase of the run and counts of the work done by each thread")
+    private boolean stats = false;
+    
+    public boolean getStats(){
+        return stats;
+    }
+    
+    @Parameter(names = {"-progress"}, required = false, description = "Every this many seconds, print the progress of the run to stderr: sites written, sites per second, time remaining, busy threads and heap use")
+    private Double progressInterval = null;
+    
+    public Double getProgressInterval(){
+        return progressInterval;
+    }
+    
+    @Parameter(names = {"-metrics"}, required = false, description = "Keep this file updated with the progress of the run in the Prometheus text format, e.g. for a node exporter's textfile collector (name it *.prom). Updated every -progress seconds (default: 10)")
+    private String metricsPath = null;
+    
+    public String getMetricsPath(){
+        return metricsPath;
+    }
+    
+    @Parameter(names = {"-topk"}, required = false, description = "Maximum number of substitutions to display per site, in addition to the -threshold limit (default: no limit)")
+    private int topK = 0;
+    
+    public int getTopK(){
+        return topK;
+    }
+    
+    @Parameter(names = {"-binary"}, required = false, description = "Also write the marginal lnL and all joint probabilities of every site to this binary file (see subrecon.io.BinaryResultFormat)")
+    private String binaryPath = null;
+    
+    public String getBinaryPath(){
+        return binaryPath;
+    }
+    
+    @Parameter(names = {"-binaryprecision"}, required = false, description = "Bits per probability in the -binary file: 32 or 64")
+    private int binaryPrecision = 32;
+    
+    public int getBinaryPrecision(){
+        return binaryPrecision;
+    }
+    
+    
+    @Parameter(names = {"-allbranches"}, required = false, description = "Reconstruct the substitutions along every branch of the tree, not only the branch between A and B")
+    private boolean allBranches = false;
+    
+    public boolean getAllBranches(){
+        return allBranches;
+    }
+    
+    @Parameter(names = {"-branches"}, required = false, description = "Reconstruct the substitutions along these branches only: comma separated taxon names, or taxon1+taxon2 for the branch above their most recent common ancestor")
+    private String branches = null;
+    
+    public String getBranches(){
+        return branches;
+    }
+    
+    
+    @Parameter(names = {"-buildindex"}, required = false, description = "Write the conditionals at both ends of every branch, for every site pattern, to this partials index file, for later queries with -index")
+    private String buildIndexPath = null;
+    
+    public String getBuildIndexPath(){
+        return buildIndexPath;
+    }
+    
+    @Parameter(names = {"-index"}, required = false, description = "Reconstruct the -branches (or -allbranches) from this partials index file, built with -buildindex from the same alignment, tree, model and rates, rather than pruning the tree")
+    private String indexPath = null;
+    
+    public String getIndexPath(){
+        return indexPath;
+    }
+    
+    
+    // batch mode: these are read by subrecon.batch.BatchRunner before the job arguments are parsed, and are listed here for the help
+    @Parameter(names = {"-batch"}, required = false, description = "Run every job in this manifest in one process, sharing the -T threads. Each line is: name alignment tree model shape k [frequencies|-]. The other options apply to every job")
+    private String batchPath = null;
+    
+    public String getBatchPath(){
+        return batchPath;
+    }
+    
+    @Parameter(names = {"-outdir"}, required = false, description = "With -batch, directory for the output of each job (name.out) and summary.tsv (default: current directory). With -serve, directory for the output of each job (default: a new temporary directory)")
+    private String outDir = null;
+    
+    public String getOutDir(){
+        return outDir;
+    }
+    
+    @Parameter(names = {"-jobs"}, required = false, description = "With -batch or -serve, number of jobs run at the same time (default: the number of threads)")
+    private Integer nJobs = null;
+    
+    public Integer getNJobs(){
+        return nJobs;
+    }
+    
+    // server mode: read by subrecon.server.SubReconServer, and listed here for the help
+    @Parameter(names = {"-serve"}, required = false, description = "Run as a server, taking jobs over HTTP on this port of the loopback interface (0 for any free port) until it is shut down. Only -T, -jobs, -timeout, -cachemb and -outdir may also be given. See subrecon.server.SubReconServer for the API")
+    private Integer servePort = null;
+    
+    public Integer getServePort(){
+        return servePort;
+    }
+    
+    @Parameter(names = {"-timeout"}, required = false, description = "With -serve, default number of seconds a job may run before it is cancelled (default: 0, no limit)")
+    private Double timeout = null;
+    
+    public Double getTimeout(){
+        return timeout;
+    }
+    
+    @Parameter(names = {"-cachemb"}, required = false, description = "With -serve, estimated megabytes of alignments, trees and transition matrices kept between jobs (default: "+Constants.SERVER_CACHE_MB+")")
+    private Double cacheMB = null;
+    
+    public Double getCacheMB(){
+        return cacheMB;
+    }
+    
+    
     @Parameter(names = {"-rates"}, required = false, description = "For testing only: explicit values for rate distribution")
     private String rateArgument;
     
@@ -0,0 +1,70 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.io;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the binary results file (-binary). All values are little endian,
+ * so the columns can be mapped directly by numpy etc.
+ *
+ * Header, at offset 0:
+ *   8 bytes   magic "SUBRECON"
+ *   int32     format version
+ *   int32     header length in bytes (= offset of the lnL column)
+ *   int32     number of sites
+ *   int32     number of states (20)
+ *   int32     bytes per probability (4 for float32, 8 for float64)
+ *   int32     number of rate classes
+ *   float64   gamma shape parameter (NaN for custom rates)
+ *   float64[] rates, then float64[] rate class probabilities
+ *   strings   alignment path, tree path, model (each int32 length + UTF-8 bytes)
+ *   padding   to a multiple of ALIGNMENT
+ *
+ * Columns:
+ *   float64[nSites]                     marginal lnL of each site (NaN if the site was not analysed)
+ *   padding                             to a multiple of ALIGNMENT
+ *   float32 or float64[nSites][nStates*nStates]
+ *                                       joint probabilities of the states at A and B, [site][i*nStates + j]
+ *
+ * Sites are zero based, in alignment order, whatever order the results were
+ * computed in.
+ */
+public class BinaryResultFormat {
+
+    public static final byte[] MAGIC = new byte[]{ 'S', 'U', 'B', 'R', 'E', 'C', 'O', 'N' };
+    public static final int VERSION = 1;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    public static final int ALIGNMENT = 64; // columns start on cache line boundaries
+
+    public static final int FLOAT32 = 4;
+    public static final int FLOAT64 = 8;
+
+    private BinaryResultFormat(){}
+
+    public static long align(long offset){
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    public static long getProbsOffset(long headerLength, int nSites){
+        return align(headerLength + 8L * nSites);
+    }
+
+    public static long getRecordLength(int nStates, int bytesPerProb){
+        return (long)nStates * nStates * bytesPerProb;
+    }
+
+}
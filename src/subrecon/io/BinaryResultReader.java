@@ -0,0 +1,255 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import pal.datatype.AminoAcids;
+
+/**
+ * Reads a binary results file (see BinaryResultFormat) by memory mapping it, so
+ * values are read directly from the page cache without copying or parsing.
+ *
+ * getLnLColumn() and getProbs() give views of the mapped file. The other getters
+ * read single values. Files larger than 2 GB are mapped in several segments,
+ * each holding a whole number of sites.
+ *
+ * Safe for concurrent reads once constructed.
+ */
+public class BinaryResultReader implements Closeable {
+
+    private final FileChannel channel;
+
+    private final int nSites;
+    private final int nStates;
+    private final int bytesPerProb;
+    private final double shape;
+    private final double[] rates;
+    private final double[] rateProbs;
+    private final String alignmentPath;
+    private final String treePath;
+    private final String model;
+
+    private final DoubleBuffer lnLs;
+    private final MappedByteBuffer[] probSegments;
+    private final int sitesPerSegment;
+    private final int recordLength;
+
+    public BinaryResultReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        try{
+            ByteBuffer fixed = ByteBuffer.allocate(8 + 6 * 4 + 8).order(BinaryResultFormat.BYTE_ORDER);
+            readFully(fixed, 0);
+            byte[] magic = new byte[BinaryResultFormat.MAGIC.length];
+            fixed.get(magic);
+            if (!Arrays.equals(magic, BinaryResultFormat.MAGIC))
+                throw new IOException("Not a SubRecon binary results file: "+file);
+            int version = fixed.getInt();
+            if (version != BinaryResultFormat.VERSION)
+                throw new IOException("Unsupported binary results version "+version+" (expected "+BinaryResultFormat.VERSION+")");
+            int headerLength = fixed.getInt();
+            this.nSites = fixed.getInt();
+            this.nStates = fixed.getInt();
+            this.bytesPerProb = fixed.getInt();
+            int nRates = fixed.getInt();
+            this.shape = fixed.getDouble();
+
+            ByteBuffer header = ByteBuffer.allocate(headerLength).order(BinaryResultFormat.BYTE_ORDER);
+            readFully(header, 0);
+            header.position(fixed.capacity());
+            this.rates = new double[nRates];
+            this.rateProbs = new double[nRates];
+            for (int i = 0; i < nRates; i++) {
+                rates[i] = header.getDouble();
+            }
+            for (int i = 0; i < nRates; i++) {
+                rateProbs[i] = header.getDouble();
+            }
+            this.alignmentPath = readString(header);
+            this.treePath = readString(header);
+            this.model = readString(header);
+
+            this.recordLength = (int)BinaryResultFormat.getRecordLength(nStates, bytesPerProb);
+            long probsOffset = BinaryResultFormat.getProbsOffset(headerLength, nSites);
+            if (channel.size() < probsOffset + (long)nSites * recordLength)
+                throw new IOException("Binary results file is truncated: "+file);
+
+            this.lnLs = channel.map(FileChannel.MapMode.READ_ONLY, headerLength, 8L * nSites).order(BinaryResultFormat.BYTE_ORDER).asDoubleBuffer();
+
+            this.sitesPerSegment = Math.max(1, Integer.MAX_VALUE / recordLength);
+            int nSegments = (nSites + sitesPerSegment - 1) / sitesPerSegment;
+            this.probSegments = new MappedByteBuffer[nSegments];
+            for (int iSegment = 0; iSegment < nSegments; iSegment++) {
+                long firstSite = (long)iSegment * sitesPerSegment;
+                long length = Math.min(sitesPerSegment, nSites - firstSite) * recordLength;
+                probSegments[iSegment] = channel.map(FileChannel.MapMode.READ_ONLY, probsOffset + firstSite * recordLength, length);
+                probSegments[iSegment].order(BinaryResultFormat.BYTE_ORDER);
+            }
+        }catch(IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getSiteCount(){
+        return nSites;
+    }
+
+    public int getNumStates(){
+        return nStates;
+    }
+
+    /*
+        BinaryResultFormat.FLOAT32 or FLOAT64
+    */
+    public int getBytesPerProb(){
+        return bytesPerProb;
+    }
+
+    public double getShape(){
+        return shape;
+    }
+
+    public double[] getRates(){
+        return rates.clone();
+    }
+
+    public double[] getRateProbabilities(){
+        return rateProbs.clone();
+    }
+
+    public String getAlignmentPath(){
+        return alignmentPath;
+    }
+
+    public String getTreePath(){
+        return treePath;
+    }
+
+    public String getModel(){
+        return model;
+    }
+
+    /*
+        Zero based. NaN if the site was not analysed
+    */
+    public double getMarginalLnL(int site){
+        return lnLs.get(site);
+    }
+
+    /*
+        The whole lnL column, read only
+    */
+    public DoubleBuffer getLnLColumn(){
+        return lnLs.duplicate();
+    }
+
+    /*
+        P(A=i, B=j) for the site
+    */
+    public double getJointProb(int site, int i, int j){
+        ByteBuffer segment = probSegments[site / sitesPerSegment];
+        int offset = (site % sitesPerSegment) * recordLength + (i * nStates + j) * bytesPerProb;
+        return bytesPerProb == BinaryResultFormat.FLOAT32 ? segment.getFloat(offset) : segment.getDouble(offset);
+    }
+
+    /*
+        Copies all nStates*nStates joint probabilities of the site into dest, [i*nStates + j]
+    */
+    public void getJointProbs(int site, double[] dest){
+        ByteBuffer record = getProbs(site);
+        for (int k = 0; k < nStates * nStates; k++) {
+            dest[k] = bytesPerProb == BinaryResultFormat.FLOAT32 ? record.getFloat() : record.getDouble();
+        }
+    }
+
+    /*
+        Read only view of the site's joint probabilities in the mapped file, without copying. Use
+        asFloatBuffer() or asDoubleBuffer() according to getBytesPerProb()
+    */
+    public ByteBuffer getProbs(int site){
+        ByteBuffer record = probSegments[site / sitesPerSegment].duplicate();
+        int offset = (site % sitesPerSegment) * recordLength;
+        record.position(offset);
+        record.limit(offset + recordLength);
+        return record.slice().order(BinaryResultFormat.BYTE_ORDER);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new IOException("Unexpected end of binary results file");
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    private static String readString(ByteBuffer buffer){
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+        Prints the contents of a binary results file as text, for checking.
+        Usage: java -cp SubRecon1.0.jar subrecon.io.BinaryResultReader results.bin [site]
+    */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: BinaryResultReader results.bin [site]");
+            System.exit(1);
+        }
+        BinaryResultReader reader = new BinaryResultReader(new File(args[0]));
+        try{
+            System.out.printf("alignment=%s tree=%s model=%s sites=%d states=%d precision=float%d shape=%s rates=%s%n",
+                    reader.getAlignmentPath(), reader.getTreePath(), reader.getModel(), reader.getSiteCount(),
+                    reader.getNumStates(), 8 * reader.getBytesPerProb(), reader.getShape(), Arrays.toString(reader.getRates()));
+
+            int first = 0, last = reader.getSiteCount() - 1;
+            if (args.length > 1) {
+                first = last = Integer.parseInt(args[1]) - 1; // one based, like -site
+            }
+            AminoAcids aa = AminoAcids.DEFAULT_INSTANCE;
+            double[] probs = new double[reader.getNumStates() * reader.getNumStates()];
+            for (int site = first; site <= last; site++) {
+                StringBuilder s = new StringBuilder();
+                s.append(site + 1).append('\t').append(reader.getMarginalLnL(site));
+                reader.getJointProbs(site, probs);
+                for (int k = 0; k < probs.length; k++) {
+                    s.append('\t').append(aa.getChar(k / reader.getNumStates())).append(aa.getChar(k % reader.getNumStates())).append(':').append(probs[k]);
+                }
+                System.out.println(s);
+            }
+        }finally{
+            reader.close();
+        }
+    }
+
+}
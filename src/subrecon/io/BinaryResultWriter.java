@@ -0,0 +1,177 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import subrecon.recon.SiteResult;
+
+/**
+ * Writes SiteResults to a binary results file (see BinaryResultFormat).
+ *
+ * Each site has a fixed position, so results can be written in any order.
+ * Runs of consecutive sites are buffered and written together.
+ *
+ * Not thread safe.
+ */
+public class BinaryResultWriter implements Closeable {
+
+    private static final int BUFFERED_SITES = 256;
+
+    private final FileChannel channel;
+    private final int nSites;
+    private final int nStates;
+    private final int bytesPerProb;
+    private final long lnLOffset;
+    private final long probsOffset;
+    private final long recordLength;
+
+    // pending run of consecutive sites
+    private final ByteBuffer lnLBuffer;
+    private final ByteBuffer probsBuffer;
+    private int firstBufferedSite = -1;
+    private int nBufferedSites = 0;
+
+    public BinaryResultWriter(File file, int nSites, int nStates, int bytesPerProb,
+                                String alignmentPath, String treePath, String model,
+                                double shape, double[] rates, double[] rateProbs) throws IOException {
+        if (bytesPerProb != BinaryResultFormat.FLOAT32 && bytesPerProb != BinaryResultFormat.FLOAT64)
+            throw new IllegalArgumentException("Probabilities must be 4 (float32) or 8 (float64) bytes");
+
+        this.nSites = nSites;
+        this.nStates = nStates;
+        this.bytesPerProb = bytesPerProb;
+        this.recordLength = BinaryResultFormat.getRecordLength(nStates, bytesPerProb);
+
+        byte[][] strings = new byte[][]{ bytes(alignmentPath), bytes(treePath), bytes(model) };
+        int headerLength = 8 + 6 * 4 + 8 + 16 * rates.length;
+        for (byte[] string : strings) {
+            headerLength += 4 + string.length;
+        }
+        headerLength = (int)BinaryResultFormat.align(headerLength);
+        this.lnLOffset = headerLength;
+        this.probsOffset = BinaryResultFormat.getProbsOffset(headerLength, nSites);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        raf.setLength(probsOffset + nSites * recordLength); // probabilities of sites not written are zero
+        this.channel = raf.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(headerLength).order(BinaryResultFormat.BYTE_ORDER);
+        header.put(BinaryResultFormat.MAGIC);
+        header.putInt(BinaryResultFormat.VERSION);
+        header.putInt(headerLength);
+        header.putInt(nSites);
+        header.putInt(nStates);
+        header.putInt(bytesPerProb);
+        header.putInt(rates.length);
+        header.putDouble(shape);
+        for (double rate : rates) {
+            header.putDouble(rate);
+        }
+        for (double prob : rateProbs) {
+            header.putDouble(prob);
+        }
+        for (byte[] string : strings) {
+            header.putInt(string.length);
+            header.put(string);
+        }
+        header.clear();
+        writeFully(header, 0);
+
+        // sites not (yet) written have lnL NaN
+        ByteBuffer nans = ByteBuffer.allocate(8 * BUFFERED_SITES).order(BinaryResultFormat.BYTE_ORDER);
+        for (int iSite = 0; iSite < nSites; iSite += BUFFERED_SITES) {
+            nans.clear();
+            int n = Math.min(BUFFERED_SITES, nSites - iSite);
+            for (int i = 0; i < n; i++) {
+                nans.putDouble(Double.NaN);
+            }
+            nans.flip();
+            writeFully(nans, lnLOffset + 8L * iSite);
+        }
+
+        this.lnLBuffer = ByteBuffer.allocate(8 * BUFFERED_SITES).order(BinaryResultFormat.BYTE_ORDER);
+        this.probsBuffer = ByteBuffer.allocate((int)recordLength * BUFFERED_SITES).order(BinaryResultFormat.BYTE_ORDER);
+    }
+
+    /*
+        result must have kept its joint probabilities (see SubstitutionSelector)
+    */
+    public void write(SiteResult result) throws IOException {
+        int site = result.getSite();
+        double[] jointProbs = result.getJointProbs();
+        if (jointProbs == null)
+            throw new IllegalArgumentException("Joint probabilities were not kept for site "+(site+1));
+        if (site < 0 || site >= nSites)
+            throw new IllegalArgumentException("Site "+(site+1)+" is outside the file");
+
+        if (nBufferedSites == BUFFERED_SITES || (nBufferedSites > 0 && site != firstBufferedSite + nBufferedSites)) {
+            flush();
+        }
+        if (nBufferedSites == 0) {
+            firstBufferedSite = site;
+        }
+
+        lnLBuffer.putDouble(result.getMarginalLnL());
+        if (bytesPerProb == BinaryResultFormat.FLOAT32) {
+            for (int i = 0; i < nStates * nStates; i++) {
+                probsBuffer.putFloat((float)jointProbs[i]);
+            }
+        }else{
+            for (int i = 0; i < nStates * nStates; i++) {
+                probsBuffer.putDouble(jointProbs[i]);
+            }
+        }
+        nBufferedSites++;
+    }
+
+    public void flush() throws IOException {
+        if (nBufferedSites == 0) return;
+        lnLBuffer.flip();
+        writeFully(lnLBuffer, lnLOffset + 8L * firstBufferedSite);
+        probsBuffer.flip();
+        writeFully(probsBuffer, probsOffset + recordLength * firstBufferedSite);
+        lnLBuffer.clear();
+        probsBuffer.clear();
+        nBufferedSites = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            flush();
+        }finally{
+            channel.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static byte[] bytes(String s){
+        return (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Layout of the partials index file (-buildindex, -index). The index holds,
+ * for every branch, rate class and site pattern, the conditionals at the two
+ * ends of the branch (see InsideOutsideReconstruction.PartialsVisitor), so the
+ * joint probabilities of any branch can be computed without pruning the tree.
+ * All values are little endian.
+ *
+ * Header, at offset 0:
+ *   8 bytes   magic "SRPINDEX" (written last, so an incomplete index is rejected)
+ *   int32     format version
+ *   int32     header length in bytes (= offset of the first record)
+ *   32 bytes  key: SHA-256 of the alignment and tree files, model, frequencies and rates (see computeKey)
+ *   int32     number of site patterns
+ *   int32     number of states (20)
+ *   int32     number of rate classes
+ *   int32     number of branches
+ *   int32[]   node at the lower end of each branch (as in BranchSet)
+ *   padding   to a multiple of BinaryResultFormat.ALIGNMENT
+ *
+ * Records, [branch][rate class][pattern]:
+ *   float32[nStates]   upper conditionals
+ *   float32[nStates]   lower conditionals
+ *   int32              power of two scaling of the upper conditionals
+ *   int32              power of two scaling of the lower conditionals
+ *
+ * Each vector is scaled so that its largest value is in [1,2) before it is
+ * stored, so float32 keeps about 7 significant digits of every value that
+ * matters. The records of a branch are contiguous, so a query reads one region.
+ */
+public class PartialsIndexFormat {
+
+    public static final byte[] MAGIC = new byte[]{ 'S', 'R', 'P', 'I', 'N', 'D', 'E', 'X' };
+    public static final int VERSION = 1;
+    public static final int KEY_LENGTH = 32;
+
+    private PartialsIndexFormat(){}
+
+    public static int getHeaderLength(int nBranches){
+        return (int)BinaryResultFormat.align(8 + 2 * 4 + KEY_LENGTH + 4 * 4 + 4 * nBranches);
+    }
+
+    public static int getRecordLength(int nStates){
+        return 2 * nStates * 4 + 2 * 4;
+    }
+
+    /*
+        Bytes of all records of one branch
+    */
+    public static long getBranchLength(int nStates, int nRates, int nPatterns){
+        return (long)nRates * nPatterns * getRecordLength(nStates);
+    }
+
+    /*
+        An index is only valid for exactly the same inputs. The files are hashed as they are, so even a change
+        that makes no difference to the results (e.g. formatting) makes a new index necessary
+    */
+    public static byte[] computeKey(File alignment, File tree, String model, double[] frequencies,
+                                    double[] rates, double[] rateProbs) throws IOException {
+        MessageDigest digest;
+        try{
+            digest = MessageDigest.getInstance("SHA-256");
+        }catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException("SHA-256 is not available", e); // required of every Java platform
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8).order(BinaryResultFormat.BYTE_ORDER);
+        update(digest, buffer.putInt(0, VERSION), 4);
+        updateFile(digest, alignment);
+        updateFile(digest, tree);
+        byte[] modelBytes = model.getBytes(StandardCharsets.UTF_8);
+        update(digest, buffer.putInt(0, modelBytes.length), 4);
+        digest.update(modelBytes);
+        for (double[] values : new double[][]{ frequencies, rates, rateProbs }) {
+            update(digest, buffer.putInt(0, values.length), 4);
+            for (double value : values) {
+                update(digest, buffer.putDouble(0, value), 8);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static void update(MessageDigest digest, ByteBuffer buffer, int length){
+        digest.update(buffer.array(), 0, length);
+    }
+
+    private static void updateFile(MessageDigest digest, File file) throws IOException {
+        byte[] bytes = new byte[1 << 16];
+        long length = 0;
+        InputStream in = new FileInputStream(file);
+        try{
+            int n;
+            while ((n = in.read(bytes)) > 0) {
+                digest.update(bytes, 0, n);
+                length += n;
+            }
+        }finally{
+            in.close();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8).order(BinaryResultFormat.BYTE_ORDER);
+        update(digest, buffer.putLong(0, length), 8); // so the boundary between files is unambiguous
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads a partials index file (see PartialsIndexFormat) by memory mapping it.
+ * Only the records of the branches that are queried are paged in.
+ *
+ * Safe for concurrent reads once constructed.
+ */
+public class PartialsIndexReader implements Closeable {
+
+    private final FileChannel channel;
+    private final byte[] key;
+    private final int nPatterns;
+    private final int nStates;
+    private final int nRates;
+    private final int[] branchNodes;
+    private final int recordLength;
+
+    private final MappedByteBuffer[] segments;
+    private final int branchesPerSegment;
+    private final long branchLength;
+
+    public PartialsIndexReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        try{
+            ByteBuffer fixed = ByteBuffer.allocate(8 + 2 * 4 + PartialsIndexFormat.KEY_LENGTH + 4 * 4).order(BinaryResultFormat.BYTE_ORDER);
+            readFully(fixed, 0);
+            byte[] magic = new byte[PartialsIndexFormat.MAGIC.length];
+            fixed.get(magic);
+            if (!Arrays.equals(magic, PartialsIndexFormat.MAGIC))
+                throw new IOException("Not a complete SubRecon partials index: "+file);
+            int version = fixed.getInt();
+            if (version != PartialsIndexFormat.VERSION)
+                throw new IOException("Unsupported partials index version "+version+" (expected "+PartialsIndexFormat.VERSION+")");
+            int headerLength = fixed.getInt();
+            this.key = new byte[PartialsIndexFormat.KEY_LENGTH];
+            fixed.get(key);
+            this.nPatterns = fixed.getInt();
+            this.nStates = fixed.getInt();
+            this.nRates = fixed.getInt();
+            int nBranches = fixed.getInt();
+
+            ByteBuffer header = ByteBuffer.allocate(headerLength).order(BinaryResultFormat.BYTE_ORDER);
+            readFully(header, 0);
+            header.position(fixed.capacity());
+            this.branchNodes = new int[nBranches];
+            for (int k = 0; k < nBranches; k++) {
+                branchNodes[k] = header.getInt();
+            }
+
+            this.recordLength = PartialsIndexFormat.getRecordLength(nStates);
+            this.branchLength = PartialsIndexFormat.getBranchLength(nStates, nRates, nPatterns);
+            if (channel.size() < headerLength + branchLength * nBranches)
+                throw new IOException("Partials index is truncated: "+file);
+
+            this.branchesPerSegment = (int)Math.max(1, Integer.MAX_VALUE / Math.max(1, branchLength));
+            int nSegments = (nBranches + branchesPerSegment - 1) / branchesPerSegment;
+            this.segments = new MappedByteBuffer[nSegments];
+            for (int iSegment = 0; iSegment < nSegments; iSegment++) {
+                long firstBranch = (long)iSegment * branchesPerSegment;
+                long length = Math.min(branchesPerSegment, nBranches - firstBranch) * branchLength;
+                segments[iSegment] = channel.map(FileChannel.MapMode.READ_ONLY, headerLength + firstBranch * branchLength, length);
+                segments[iSegment].order(BinaryResultFormat.BYTE_ORDER);
+            }
+        }catch(IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    public boolean hasKey(byte[] expected){
+        return Arrays.equals(key, expected);
+    }
+
+    public int getPatternCount(){
+        return nPatterns;
+    }
+
+    public int getNumStates(){
+        return nStates;
+    }
+
+    public int getNumRates(){
+        return nRates;
+    }
+
+    public int getBranchCount(){
+        return branchNodes.length;
+    }
+
+    /*
+        Index of the branch above the node, or -1 if it is not in the index
+    */
+    public int getBranchIndex(int node){
+        for (int k = 0; k < branchNodes.length; k++) {
+            if (branchNodes[k] == node) return k;
+        }
+        return -1;
+    }
+
+    /*
+        Reads the conditionals of one branch, rate class and pattern into upper and lower (length nStates).
+        Returns the total power of two scaling of both
+    */
+    public int read(int branch, int iRate, int pattern, double[] upper, double[] lower){
+        ByteBuffer segment = segments[branch / branchesPerSegment];
+        int offset = (int)((branch % branchesPerSegment) * branchLength) + (iRate * nPatterns + pattern) * recordLength;
+        for (int i = 0; i < nStates; i++) {
+            upper[i] = segment.getFloat(offset + 4 * i);
+            lower[i] = segment.getFloat(offset + 4 * (nStates + i));
+        }
+        return segment.getInt(offset + 8 * nStates) + segment.getInt(offset + 8 * nStates + 4);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new IOException("Unexpected end of partials index");
+            position += n;
+        }
+        buffer.flip();
+    }
+
+}
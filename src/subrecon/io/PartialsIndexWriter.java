@@ -0,0 +1,144 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a partials index file (see PartialsIndexFormat) through a memory
+ * mapping. Records have fixed positions, so they can be written in any order.
+ *
+ * write() only uses absolute puts on the mapping, so it may be called from
+ * several threads at once for different records. The header is written by
+ * finish(), once all records are written, so an index that is closed without
+ * finishing (e.g. after an error) is rejected by PartialsIndexReader.
+ */
+public class PartialsIndexWriter implements Closeable {
+
+    private final FileChannel channel;
+    private final byte[] key;
+    private final int nPatterns;
+    private final int nStates;
+    private final int nRates;
+    private final int[] branchNodes;
+    private final int headerLength;
+    private final int recordLength;
+
+    private final MappedByteBuffer[] segments;
+    private final int branchesPerSegment;
+    private final long branchLength;
+
+    public PartialsIndexWriter(File file, byte[] key, int nPatterns, int nStates, int nRates, int[] branchNodes) throws IOException {
+        this.key = key.clone();
+        this.nPatterns = nPatterns;
+        this.nStates = nStates;
+        this.nRates = nRates;
+        this.branchNodes = branchNodes.clone();
+        this.headerLength = PartialsIndexFormat.getHeaderLength(branchNodes.length);
+        this.recordLength = PartialsIndexFormat.getRecordLength(nStates);
+        this.branchLength = PartialsIndexFormat.getBranchLength(nStates, nRates, nPatterns);
+        if (branchLength > Integer.MAX_VALUE)
+            throw new IOException("Too many site patterns for a partials index ("+nPatterns+")");
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        raf.setLength(headerLength + branchLength * branchNodes.length);
+        this.channel = raf.getChannel();
+        try{
+            // each segment holds a whole number of branches
+            this.branchesPerSegment = (int)Math.max(1, Integer.MAX_VALUE / Math.max(1, branchLength));
+            int nSegments = (branchNodes.length + branchesPerSegment - 1) / branchesPerSegment;
+            this.segments = new MappedByteBuffer[nSegments];
+            for (int iSegment = 0; iSegment < nSegments; iSegment++) {
+                long firstBranch = (long)iSegment * branchesPerSegment;
+                long length = Math.min(branchesPerSegment, branchNodes.length - firstBranch) * branchLength;
+                segments[iSegment] = channel.map(FileChannel.MapMode.READ_WRITE, headerLength + firstBranch * branchLength, length);
+                segments[iSegment].order(BinaryResultFormat.BYTE_ORDER);
+            }
+        }catch(IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+        Writes the conditionals of one branch, rate class and pattern. The state i values are at
+        upper[upperOffset + i*stride] and lower[lowerOffset + i*stride], scaled by 2^upperExponent and 2^lowerExponent
+    */
+    public void write(int branch, int iRate, int pattern, double[] upper, int upperOffset, int upperExponent,
+                        double[] lower, int lowerOffset, int lowerExponent, int stride){
+        ByteBuffer segment = segments[branch / branchesPerSegment];
+        int offset = (int)((branch % branchesPerSegment) * branchLength) + (iRate * nPatterns + pattern) * recordLength;
+        int upperScaling = putVector(segment, offset, upper, upperOffset, stride);
+        int lowerScaling = putVector(segment, offset + 4 * nStates, lower, lowerOffset, stride);
+        segment.putInt(offset + 8 * nStates, upperExponent + upperScaling);
+        segment.putInt(offset + 8 * nStates + 4, lowerExponent + lowerScaling);
+    }
+
+    /*
+        Stores the vector scaled by a power of two, so its largest value is in [1,2). Returns the power
+    */
+    private int putVector(ByteBuffer segment, int offset, double[] values, int valuesOffset, int stride){
+        double biggestValue = 0.0;
+        for (int i = 0; i < nStates; i++) {
+            biggestValue = Math.max(biggestValue, values[valuesOffset + i * stride]);
+        }
+        int exponent = biggestValue > 0.0 ? Math.getExponent(biggestValue) : 0;
+        for (int i = 0; i < nStates; i++) {
+            segment.putFloat(offset + 4 * i, (float)Math.scalb(values[valuesOffset + i * stride], -exponent));
+        }
+        return exponent;
+    }
+
+    /*
+        Writes the header, once all records are written
+    */
+    public void finish() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        ByteBuffer header = ByteBuffer.allocate(headerLength).order(BinaryResultFormat.BYTE_ORDER);
+        header.put(PartialsIndexFormat.MAGIC);
+        header.putInt(PartialsIndexFormat.VERSION);
+        header.putInt(headerLength);
+        header.put(key);
+        header.putInt(nPatterns);
+        header.putInt(nStates);
+        header.putInt(nRates);
+        header.putInt(branchNodes.length);
+        for (int node : branchNodes) {
+            header.putInt(node);
+        }
+        header.clear();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
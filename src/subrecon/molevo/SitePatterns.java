@@ -0,0 +1,93 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.molevo;
+
+import java.util.HashMap;
+import java.util.Map;
+import pal.alignment.Alignment;
+
+/**
+ * Compresses alignment columns into unique site patterns. Identical columns give
+ * identical reconstructions, so each pattern need only be analysed once and the
+ * result shared by all sites with that pattern.
+ *
+ * Patterns are numbered in order of their first occurrence in the alignment.
+ */
+public class SitePatterns {
+
+    private final int[] siteToPattern;
+    private final int[] patternSites; // first site (zero based) at which each pattern occurs
+    private final int[] weights; // number of sites with each pattern
+
+    public SitePatterns(Alignment alignment){
+
+        int nSites = alignment.getSiteCount();
+        int nSequences = alignment.getSequenceCount();
+
+        this.siteToPattern = new int[nSites];
+
+        Map<String, Integer> patternIndices = new HashMap<String, Integer>();
+        int[] firstSites = new int[nSites];
+        int[] counts = new int[nSites];
+
+        char[] column = new char[nSequences];
+        for (int iSite = 0; iSite < nSites; iSite++) {
+            for (int iSeq = 0; iSeq < nSequences; iSeq++) {
+                column[iSeq] = alignment.getData(iSeq, iSite);
+            }
+            String key = new String(column);
+
+            Integer pattern = patternIndices.get(key);
+            if (pattern == null) {
+                pattern = patternIndices.size();
+                patternIndices.put(key, pattern);
+                firstSites[pattern] = iSite;
+            }
+            siteToPattern[iSite] = pattern;
+            counts[pattern]++;
+        }// for iSite
+
+        int nPatterns = patternIndices.size();
+        this.patternSites = new int[nPatterns];
+        this.weights = new int[nPatterns];
+        System.arraycopy(firstSites, 0, patternSites, 0, nPatterns);
+        System.arraycopy(counts, 0, weights, 0, nPatterns);
+    }
+
+    public int getPatternCount(){
+        return patternSites.length;
+    }
+
+    public int getSiteCount(){
+        return siteToPattern.length;
+    }
+
+    public int getPattern(int site){
+        return siteToPattern[site];
+    }
+
+    /*
+        An alignment column with this pattern, which can be used to analyse it
+    */
+    public int getPatternSite(int pattern){
+        return patternSites[pattern];
+    }
+
+    public int getWeight(int pattern){
+        return weights[pattern];
+    }
+
+}
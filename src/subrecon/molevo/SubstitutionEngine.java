@@ -0,0 +1,185 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.molevo;
+
+import java.util.Arrays;
+import pal.substmodel.AminoAcidModel;
+
+/**
+ * Computes transition probabilities P(t) = exp(Qt) from an eigendecomposition of
+ * the rate matrix Q, which is performed once on construction.
+ *
+ * PAL models keep the current branch length as mutable state, so cannot be
+ * shared between threads. Instances of this class are immutable, so a single
+ * instance can be used by any number of threads.
+ *
+ * The models used here are time reversible, so Q is similar to the symmetric
+ * matrix S = D^(1/2) Q D^(-1/2), where D = diag(pi). S is decomposed as U L U^T,
+ * giving P(t) = D^(-1/2) U exp(Lt) U^T D^(1/2).
+ */
+public class SubstitutionEngine {
+
+    private static final int MAX_SWEEPS = 100;
+
+    private final int nStates;
+    private final double[] frequencies;
+    private final double[] eigenValues;
+    private final double[] leftVectors; // D^(-1/2) U, flattened by row
+    private final double[] rightVectors; // U^T D^(1/2), flattened by row
+
+    /*
+        Q is taken from the model, which PAL has already normalised to one expected substitution per unit time
+    */
+    public SubstitutionEngine(AminoAcidModel model){
+        this(getRateMatrix(model), model.getEquilibriumFrequencies());
+    }
+
+    public SubstitutionEngine(double[][] Q, double[] frequencies){
+        this.nStates = frequencies.length;
+        this.frequencies = frequencies.clone();
+
+        double[] sqrtPi = new double[nStates];
+        for (int i = 0; i < nStates; i++) {
+            if (!(frequencies[i] > 0.0))
+                throw new IllegalArgumentException("Equilibrium frequencies must be greater than zero");
+            sqrtPi[i] = Math.sqrt(frequencies[i]);
+        }
+
+        // symmetrise, averaging the two halves to remove rounding differences
+        double[][] S = new double[nStates][nStates];
+        for (int i = 0; i < nStates; i++) {
+            for (int j = 0; j < nStates; j++) {
+                S[i][j] = 0.5 * (sqrtPi[i] * Q[i][j] / sqrtPi[j] + sqrtPi[j] * Q[j][i] / sqrtPi[i]);
+            }
+        }
+
+        double[][] U = new double[nStates][nStates];
+        this.eigenValues = new double[nStates];
+        decompose(S, U, eigenValues);
+
+        this.leftVectors = new double[nStates * nStates];
+        this.rightVectors = new double[nStates * nStates];
+        for (int i = 0; i < nStates; i++) {
+            for (int k = 0; k < nStates; k++) {
+                leftVectors[i * nStates + k] = U[i][k] / sqrtPi[i];
+                rightVectors[k * nStates + i] = U[i][k] * sqrtPi[i];
+            }
+        }
+    }
+
+    private static double[][] getRateMatrix(AminoAcidModel model){
+        model.setDistance(0.0); // forces PAL to build and normalise Q, if it has not already
+        double[][] rates = model.getRelativeRates();
+        double[][] Q = new double[rates.length][];
+        for (int i = 0; i < rates.length; i++) {
+            Q[i] = rates[i].clone();
+        }
+        return Q;
+    }
+
+    /*
+        Cyclic Jacobi method for symmetric matrices. S is destroyed; eigenvectors are stored as columns of U
+    */
+    private static void decompose(double[][] S, double[][] U, double[] values){
+        int n = S.length;
+        for (int i = 0; i < n; i++) {
+            U[i][i] = 1.0;
+        }
+
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            double offDiagonal = 0.0;
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    offDiagonal += S[p][q] * S[p][q];
+                }
+            }
+            if (offDiagonal < 1e-30) break;
+
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    if (S[p][q] == 0.0) continue;
+
+                    // rotation angle which zeroes S[p][q]
+                    double theta = (S[q][q] - S[p][p]) / (2.0 * S[p][q]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1.0));
+                    if (theta == 0.0) t = 1.0;
+                    double c = 1.0 / Math.sqrt(t * t + 1.0);
+                    double s = t * c;
+
+                    for (int k = 0; k < n; k++) { // columns p and q
+                        double skp = S[k][p];
+                        double skq = S[k][q];
+                        S[k][p] = c * skp - s * skq;
+                        S[k][q] = s * skp + c * skq;
+                    }
+                    for (int k = 0; k < n; k++) { // rows p and q
+                        double spk = S[p][k];
+                        double sqk = S[q][k];
+                        S[p][k] = c * spk - s * sqk;
+                        S[q][k] = s * spk + c * sqk;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double ukp = U[k][p];
+                        double ukq = U[k][q];
+                        U[k][p] = c * ukp - s * ukq;
+                        U[k][q] = s * ukp + c * ukq;
+                    }
+                }// for q
+            }// for p
+        }// for sweep
+
+        for (int i = 0; i < n; i++) {
+            values[i] = S[i][i];
+        }
+    }
+
+    /*
+        Writes P(t) into P, flattened by row, starting at offset. Safe to call from any thread
+    */
+    public void getTransitionProbabilities(double t, double[] P, int offset){
+        double[] expValues = new double[nStates];
+        for (int k = 0; k < nStates; k++) {
+            expValues[k] = Math.exp(eigenValues[k] * t);
+        }
+
+        // row by row, accumulating over k in the same order as for a single element, so results are identical,
+        // but with the innermost loop along rows of rightVectors, which is much faster
+        double[] sums = new double[nStates];
+        for (int i = 0; i < nStates; i++) {
+            int rowOffset = i * nStates;
+            Arrays.fill(sums, 0.0);
+            for (int k = 0; k < nStates; k++) {
+                double scaledLeft = leftVectors[rowOffset + k] * expValues[k];
+                int kOffset = k * nStates;
+                for (int j = 0; j < nStates; j++) {
+                    sums[j] += scaledLeft * rightVectors[kOffset + j];
+                }
+            }
+            for (int j = 0; j < nStates; j++) {
+                P[offset + rowOffset + j] = Math.max(sums[j], 0.0); // remove tiny negative values due to rounding
+            }
+        }
+    }
+
+    public int getDimension(){
+        return nStates;
+    }
+
+    public double[] getEquilibriumFrequencies(){
+        return frequencies.clone();
+    }
+
+}
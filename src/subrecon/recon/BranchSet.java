@@ -0,0 +1,167 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The branches to reconstruct in all-branches mode. A branch is identified by
+ * the node at its lower end. The two branches below the root are treated as
+ * one branch, between A and B (as in the normal, single branch, mode), and are
+ * identified by A.
+ *
+ * Branches are specified, and labelled in the output, by a taxon name for a
+ * terminal branch, or by two taxon names joined by '+' for the branch above
+ * their most recent common ancestor. Labels of internal branches use the first
+ * leaf below the first and last child of the node, so a label can always be
+ * given back as a specification.
+ */
+public class BranchSet {
+
+    public static final String MRCA_DELIM = "+";
+
+    private final int[] nodes;
+    private final String[] labels;
+    private final int[] branchIndices; // by node, -1 if not in the set
+    private final int nodeA;
+
+    private BranchSet(FlatTree tree, int[] nodes){
+        this.nodes = nodes;
+        this.labels = new String[nodes.length];
+        this.branchIndices = new int[tree.getNodeCount()];
+        this.nodeA = tree.getNodeA();
+        Arrays.fill(branchIndices, -1);
+        for (int k = 0; k < nodes.length; k++) {
+            labels[k] = getLabel(tree, nodes[k]);
+            branchIndices[nodes[k]] = k;
+        }
+    }
+
+    /*
+        Every branch of the tree, in post order
+    */
+    public static BranchSet all(FlatTree tree){
+        int[] nodes = new int[tree.getNodeCount() - 2]; // all but the root and B
+        int k = 0;
+        for (int iNode = 0; iNode < tree.getRoot(); iNode++) {
+            if (iNode != tree.getNodeB()) {
+                nodes[k++] = iNode;
+            }
+        }
+        return new BranchSet(tree, nodes);
+    }
+
+    /*
+        Comma delimited specifications, eg "human,mouse+rat". Throws IllegalArgumentException for unknown taxa
+    */
+    public static BranchSet parse(FlatTree tree, String specifications){
+        Map<String, Integer> leaves = new HashMap<String, Integer>();
+        for (int iNode = 0; iNode < tree.getNodeCount(); iNode++) {
+            if (tree.isLeaf(iNode)) {
+                leaves.put(tree.getName(iNode), iNode);
+            }
+        }
+
+        List<Integer> nodes = new ArrayList<Integer>();
+        for (String specification : specifications.split(",")) {
+            specification = specification.trim();
+            if (specification.isEmpty()) continue;
+
+            int node = -1;
+            for (String taxon : specification.split("\\"+MRCA_DELIM)) {
+                Integer leaf = leaves.get(taxon.trim());
+                if (leaf == null)
+                    throw new IllegalArgumentException("ERROR: Branch '"+specification+"': taxon '"+taxon.trim()+"' is not in the tree");
+                node = node < 0 ? leaf : getMRCA(tree, node, leaf);
+            }
+            if (node == tree.getRoot() || node == tree.getNodeB()) {
+                node = tree.getNodeA(); // the branch between A and B
+            }
+            if (!nodes.contains(node)) {
+                nodes.add(node);
+            }
+        }
+        if (nodes.isEmpty())
+            throw new IllegalArgumentException("ERROR: No branches specified");
+
+        int[] nodeArray = new int[nodes.size()];
+        for (int k = 0; k < nodeArray.length; k++) {
+            nodeArray[k] = nodes.get(k);
+        }
+        return new BranchSet(tree, nodeArray);
+    }
+
+    public int getCount(){
+        return nodes.length;
+    }
+
+    /*
+        Node at the lower end of the k-th branch. For the branch between A and B, this is A
+    */
+    public int getNode(int k){
+        return nodes[k];
+    }
+
+    public String getLabel(int k){
+        return labels[k];
+    }
+
+    /*
+        Transition matrices along the k-th branch, for all rate categories. For the branch between A and B,
+        these join A and B rather than A and the root. Must not be modified
+    */
+    public double[] getMatrices(int k, TransitionMatrixCache matrices){
+        return nodes[k] == nodeA ? matrices.getRootBranchMatrices() : matrices.getMatrices(nodes[k]);
+    }
+
+    /*
+        Index of the branch above the node, or -1 if it is not in the set
+    */
+    public int getBranchIndex(int node){
+        return branchIndices[node];
+    }
+
+    private static int getMRCA(FlatTree tree, int a, int b){
+        // nodes are numbered in post order, so an ancestor always has a higher number than its descendents
+        while (a != b) {
+            if (a < b) {
+                a = tree.getParent(a);
+            }else{
+                b = tree.getParent(b);
+            }
+        }
+        return a;
+    }
+
+    private static String getLabel(FlatTree tree, int node){
+        if (tree.isLeaf(node)) {
+            return tree.getName(node);
+        }
+        return getFirstLeaf(tree, tree.getChild(node, 0)) + MRCA_DELIM + getFirstLeaf(tree, tree.getChild(node, tree.getChildCount(node) - 1));
+    }
+
+    private static String getFirstLeaf(FlatTree tree, int node){
+        while (!tree.isLeaf(node)) {
+            node = tree.getChild(node, 0);
+        }
+        return tree.getName(node);
+    }
+
+}
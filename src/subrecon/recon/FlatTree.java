@@ -0,0 +1,187 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import pal.alignment.Alignment;
+import pal.tree.Node;
+import pal.tree.Tree;
+
+/**
+ * Tree compiled into flat arrays for the pruning algorithm. Nodes are numbered
+ * in post order, so visiting nodes 0, 1, 2, ... always visits children before
+ * their parent, and the root is the last node.
+ *
+ * The children of node i are children[childStart[i]] ... children[childStart[i+1]-1].
+ * Leaves are mapped to their row in the alignment when the tree is compiled,
+ * so no names need to be resolved during the calculation.
+ *
+ * Built without recursion, so very deep (e.g. caterpillar) trees are not a problem.
+ */
+public class FlatTree {
+
+    private final int nNodes;
+    private final int[] parents; // -1 for root
+    private final int[] childStart;
+    private final int[] children;
+    private final double[] branchLengths;
+    private final int[] leafRows; // alignment row for leaves, -1 for internal nodes
+    private final int[] leafIndices; // leaves numbered 0 ... nLeaves-1 in post order, -1 for internal nodes
+    private final int[] leafCounts; // number of leaves in each node's subtree
+    private final String[] names;
+
+    public FlatTree(Tree tree, Alignment alignment){
+
+        List<Node> postOrder = getPostOrder(tree.getRoot());
+        this.nNodes = postOrder.size();
+
+        this.parents = new int[nNodes];
+        this.childStart = new int[nNodes + 1];
+        this.children = new int[Math.max(nNodes - 1, 0)];
+        this.branchLengths = new double[nNodes];
+        this.leafRows = new int[nNodes];
+        this.leafIndices = new int[nNodes];
+        this.leafCounts = new int[nNodes];
+        this.names = new String[nNodes];
+
+        IdentityHashMap<Node, Integer> indices = new IdentityHashMap<Node, Integer>();
+        for (int i = 0; i < nNodes; i++) {
+            indices.put(postOrder.get(i), i);
+        }
+
+        int nextChild = 0;
+        int nextLeaf = 0;
+        for (int i = 0; i < nNodes; i++) {
+            Node node = postOrder.get(i);
+            branchLengths[i] = node.getBranchLength();
+            names[i] = node.getIdentifier() == null ? "" : node.getIdentifier().getName();
+            parents[i] = node.isRoot() ? -1 : indices.get(node.getParent());
+
+            childStart[i] = nextChild;
+            for (int iChild = 0; iChild < node.getChildCount(); iChild++) {
+                int child = indices.get(node.getChild(iChild));
+                children[nextChild++] = child;
+                leafCounts[i] += leafCounts[child]; // children already visited
+            }
+
+            if (node.isLeaf()) {
+                leafCounts[i] = 1;
+                leafIndices[i] = nextLeaf++;
+                leafRows[i] = alignment.whichIdNumber(names[i]);
+                if (leafRows[i] < 0)
+                    throw new IllegalArgumentException("ERROR: Taxon "+names[i]+" in tree was not found in alignment");
+            }else{
+                leafRows[i] = -1;
+                leafIndices[i] = -1;
+            }
+        }// for i
+        childStart[nNodes] = nextChild;
+    }
+
+    private static List<Node> getPostOrder(Node root){
+        List<Node> postOrder = new ArrayList<Node>();
+        Deque<Node> stack = new ArrayDeque<Node>();
+        stack.push(root);
+        while (!stack.isEmpty()) { // collects nodes in reverse post order, i.e. parent, then children last to first
+            Node node = stack.pop();
+            postOrder.add(node);
+            for (int iChild = 0; iChild < node.getChildCount(); iChild++) {
+                stack.push(node.getChild(iChild));
+            }
+        }
+        Collections.reverse(postOrder);
+        return postOrder;
+    }
+
+    public int getNodeCount(){
+        return nNodes;
+    }
+
+    public int getRoot(){
+        return nNodes - 1;
+    }
+
+    public int getParent(int node){
+        return parents[node];
+    }
+
+    public int getChildCount(int node){
+        return childStart[node + 1] - childStart[node];
+    }
+
+    public int getChild(int node, int iChild){
+        return children[childStart[node] + iChild];
+    }
+
+    public boolean isLeaf(int node){
+        return leafIndices[node] >= 0;
+    }
+
+    public int getLeafRow(int node){
+        return leafRows[node];
+    }
+
+    public int getLeafIndex(int node){
+        return leafIndices[node];
+    }
+
+    public int getLeafCount(){
+        return leafCounts[getRoot()];
+    }
+
+    public int getLeafCount(int node){
+        return leafCounts[node];
+    }
+
+    public double getBranchLength(int node){
+        return branchLengths[node];
+    }
+
+    public String getName(int node){
+        return names[node];
+    }
+
+    /*
+        Nodes A and B, as in Fig. 1 in SubRecon
+    */
+    public int getNodeA(){
+        return getChild(getRoot(), 0);
+    }
+
+    public int getNodeB(){
+        return getChild(getRoot(), 1);
+    }
+
+    // arrays are exposed for the pruning kernel, and must not be modified
+
+    int[] getChildStartArray(){
+        return childStart;
+    }
+
+    int[] getChildArray(){
+        return children;
+    }
+
+    int[] getLeafIndexArray(){
+        return leafIndices;
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import pal.substmodel.RateDistribution;
+import subrecon.io.PartialsIndexReader;
+import subrecon.molevo.SitePatterns;
+
+/**
+ * Joint reconstruction along the branches of a BranchSet from a partials index
+ * (see PartialsIndexBuilder), without pruning the tree. For each site and rate
+ * class, a branch only needs its stored upper and lower conditionals and its
+ * transition matrix:
+ *
+ *   P(upper=a, lower=b, D) = upper(a) * P(a,b) * lower(b)
+ *
+ * Results are as from InsideOutsideReconstruction, except that the stored
+ * conditionals have float precision.
+ */
+public class IndexedBranchReconstruction implements Callable<SiteResult[]> {
+
+    private static final double LN_2 = Math.log(2.0);
+
+    private final PartialsIndexReader index;
+    private final int[] indexBranches; // index branch of each branch in the BranchSet
+    private final TransitionMatrixCache matrices;
+    private final SitePatterns patterns;
+    private final BranchSet branches;
+    private final int nStates;
+    private final double logNCat;
+    private final SubstitutionSelector selector;
+    private final int sigDigits;
+    private final int[] sites;
+
+    public IndexedBranchReconstruction(PartialsIndexReader index, int[] indexBranches, TransitionMatrixCache matrices,
+                                        SitePatterns patterns, BranchSet branches, RateDistribution rateDist,
+                                        SubstitutionSelector selector, int sigDigits, int[] sites){
+        this.index = index;
+        this.indexBranches = indexBranches;
+        this.matrices = matrices;
+        this.patterns = patterns;
+        this.branches = branches;
+        this.nStates = matrices.getNumStates();
+        this.logNCat = Math.log(rateDist.getNumberOfRates());
+        this.selector = selector;
+        this.sigDigits = sigDigits;
+        this.sites = sites;
+    }
+
+    /*
+        Index branch of each branch in the BranchSet. Throws IllegalArgumentException if one is not in the index
+    */
+    public static int[] mapBranches(BranchSet branches, PartialsIndexReader index){
+        int[] indexBranches = new int[branches.getCount()];
+        for (int k = 0; k < indexBranches.length; k++) {
+            indexBranches[k] = index.getBranchIndex(branches.getNode(k));
+            if (indexBranches[k] < 0)
+                throw new IllegalArgumentException("ERROR: Branch "+branches.getLabel(k)+" is not in the partials index");
+        }
+        return indexBranches;
+    }
+
+    // Callable interface
+    @Override
+    public SiteResult[] call(){
+        int nPairs = nStates * nStates;
+        double[] upper = new double[nStates];
+        double[] lower = new double[nStates];
+        double[] pairs = new double[nPairs];
+        double[] joint = new double[nPairs];
+        int[] jointExponent = new int[1];
+        int[] scratch = new int[2 * nPairs];
+
+        SiteResult[] results = new SiteResult[sites.length];
+        for (int s = 0; s < sites.length; s++) {
+            int pattern = patterns.getPattern(sites[s]);
+            SiteResult[] branchResults = new SiteResult[branches.getCount()];
+            for (int k = 0; k < branchResults.length; k++) {
+                double[] P = branches.getMatrices(k, matrices);
+                Arrays.fill(joint, 0.0);
+                jointExponent[0] = Integer.MIN_VALUE;
+                for (int iRate = 0; iRate < index.getNumRates(); iRate++) {
+                    int exponent = index.read(indexBranches[k], iRate, pattern, upper, lower);
+                    int rateOffset = matrices.getRateOffset(iRate);
+                    for (int a = 0; a < nStates; a++) {
+                        for (int b = 0; b < nStates; b++) {
+                            pairs[a * nStates + b] = upper[a] * P[rateOffset + a * nStates + b] * lower[b];
+                        }
+                    }
+                    InsideOutsideReconstruction.accumulate(joint, jointExponent, 0, exponent, pairs, nPairs);
+                }
+
+                double sum = 0.0;
+                for (int p = 0; p < nPairs; p++) {
+                    sum += joint[p];
+                }
+                for (int p = 0; p < nPairs; p++) {
+                    joint[p] /= sum;
+                }
+                double lnL = Math.log(sum) + jointExponent[0] * LN_2 - logNCat;
+                branchResults[k] = new SiteResult(sites[s], branches.getLabel(k), lnL, joint, nStates, selector, sigDigits, scratch);
+            }
+            results[s] = new SiteResult(sites[s], branchResults[0].getMarginalLnL(), branchResults);
+        }
+        return results;
+    }
+
+}
@@ -0,0 +1,408 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import pal.substmodel.RateDistribution;
+import subrecon.Constants;
+
+/**
+ * Joint reconstruction of the states at both ends of every branch in a
+ * BranchSet, for a block of sites, without re-rooting the tree.
+ *
+ * For each rate class, the PruningKernel gives the inside conditionals L_v(b),
+ * the probability of the data below node v given state b at v. A second pass,
+ * from the root towards the leaves, gives the outside (top) conditionals T_v(b),
+ * the joint probability of the data outside v's subtree and state b at v. Then
+ * for the branch from u down to v:
+ *
+ *   P(u=a, v=b, D) = T_u(a) * prod_{w != v} [P_w L_w](a) * P_v(a,b) * L_v(b)
+ *
+ * where w are the other children of u. The two branches below the root are one
+ * branch, between A and B, which is reconstructed exactly as in
+ * JointBranchReconstruction, with the equilibrium frequencies at A:
+ *
+ *   P(A=a, B=b, D) = pi(a) * L_A(a) * P_AB(a,b) * L_B(b)
+ *
+ * so that T_A(a) = pi(a) [P_AB L_B](a) and T_B(b) = sum_a pi(a) L_A(a) P_AB(a,b).
+ *
+ * Each branch costs one nStates x nStates combination per site, rather than a
+ * full pruning pass of a re-rooted tree. Top conditionals are scaled like the
+ * inside conditionals, by powers of two, and results are combined over rate
+ * classes relative to the largest scaling, as in JointBranchReconstruction.
+ *
+ * Produces one SiteResult per site, which groups the results of all branches.
+ */
+public class InsideOutsideReconstruction implements Callable<SiteResult[]> {
+
+    private static final double LN_2 = Math.log(2.0);
+
+    private final FlatTree tree;
+    private final TransitionMatrixCache matrices;
+    private final Workspace.Pool workspaces;
+    private final BranchSet branches;
+    private final double[] pi;
+    private final RateDistribution rateDist;
+    private final double logNCat;
+    private final SubstitutionSelector selector;
+    private final int sigDigits;
+    private final boolean sanityCheck;
+    private final int[] sites;
+
+    public InsideOutsideReconstruction(FlatTree tree, TransitionMatrixCache matrices, Workspace.Pool workspaces,
+                                        BranchSet branches, double[] pi, RateDistribution rateDist,
+                                        SubstitutionSelector selector, int sigDigits, boolean sanityCheck,
+                                        int[] sites){
+        if (sites.length > workspaces.getBlockSize())
+            throw new IllegalArgumentException("Block of "+sites.length+" sites exceeds workspace size "+workspaces.getBlockSize());
+
+        this.tree = tree;
+        this.matrices = matrices;
+        this.workspaces = workspaces;
+        this.branches = branches;
+        this.pi = pi;
+        this.rateDist = rateDist;
+        this.logNCat = Math.log(rateDist.getNumberOfRates());
+        this.selector = selector;
+        this.sigDigits = sigDigits;
+        this.sanityCheck = sanityCheck;
+        this.sites = sites;
+    }
+
+    public InsideOutsideReconstruction(FlatTree tree, TransitionMatrixCache matrices, Workspace.Pool workspaces,
+                                        BranchSet branches, double[] pi, RateDistribution rateDist,
+                                        SubstitutionSelector selector, int sigDigits, boolean sanityCheck,
+                                        int site){
+        this(tree, matrices, workspaces, branches, pi, rateDist, selector, sigDigits, sanityCheck, new int[]{ site });
+    }
+
+    /*
+        Receives the conditionals at the two ends of a branch in the BranchSet, for one rate class. For the s-th site,
+        P(upper=a, lower=b, D) = upper[a*blockSize + s] * 2^upperExponents[s] * P(a,b) * lower[lowerOffset + b*blockSize + s] * 2^lowerExponents[s]
+        where P is the branch's transition matrix (BranchSet.getMatrices). The arrays are only valid during the call
+    */
+    public interface PartialsVisitor {
+        void visit(int branch, int iRate, double[] upper, int[] upperExponents, double[] lower, int lowerOffset, int[] lowerExponents);
+    }
+
+    // Callable interface
+    @Override
+    public SiteResult[] call(){
+        return recon();
+    }
+
+    public SiteResult[] recon(){
+        final Workspace ws = workspaces.get();
+        int nStates = pi.length;
+        int nBranches = branches.getCount();
+        ws.ensureBranchCapacity(nStates, nBranches);
+        int blockSize = ws.blockSize;
+
+        Arrays.fill(ws.branchJointProbs, 0, nBranches * blockSize * nStates * nStates, 0.0);
+        Arrays.fill(ws.branchExponents, 0, nBranches * blockSize, Integer.MIN_VALUE);
+
+        traverse(new PartialsVisitor() {
+            @Override
+            public void visit(int branch, int iRate, double[] upper, int[] upperExponents, double[] lower, int lowerOffset, int[] lowerExponents) {
+                accumulateBranch(ws, branch, iRate, upper, upperExponents, lower, lowerOffset, lowerExponents);
+            }
+        });
+
+        return createSiteResults(ws, sites.length, blockSize, nStates);
+    } // recon
+
+    /*
+        Inside and outside passes over the tree for each rate class, passing the conditionals at the ends of
+        each branch in the BranchSet to visitor
+    */
+    public void traverse(PartialsVisitor visitor){
+        int nSites = sites.length;
+        int nStates = pi.length;
+        int nodeA = tree.getNodeA();
+        int nodeB = tree.getNodeB();
+
+        Workspace ws = workspaces.get();
+        ws.ensureInsideOutsideCapacity(tree, nStates);
+        PruningKernel kernel = ws.kernel;
+        int blockSize = kernel.getBlockSize();
+        double[] partials = kernel.getPartials();
+        double[] top = ws.topPartials;
+        int[] topExponents = ws.topExponents;
+        double[] childProducts = ws.childProducts;
+        double[] above = ws.aboveProducts;
+        int[] upperExponents = ws.upperExponents;
+        int[] lowerExponents = ws.lowerExponents;
+
+        for (int iRate = 0; iRate < rateDist.getNumberOfRates(); iRate++) {
+            kernel.prune(sites, nSites, iRate, tree.getRoot()-1); // inside conditionals of all nodes except the root
+            int rateOffset = matrices.getRateOffset(iRate);
+
+            // the branch between A and B, and the top conditionals of A and B
+            double[] inA = loadInside(kernel, nodeA, ws.insideA, nSites);
+            double[] inB = loadInside(kernel, nodeB, ws.insideB, nSites);
+            double[] P = matrices.getRootBranchMatrices();
+            for (int s = 0; s < nSites; s++) {
+                int expA = tree.isLeaf(nodeA) ? 0 : kernel.getScalingExponent(nodeA, s);
+                int expB = tree.isLeaf(nodeB) ? 0 : kernel.getScalingExponent(nodeB, s);
+                for (int a = 0; a < nStates; a++) {
+                    double topA = 0.0;
+                    for (int b = 0; b < nStates; b++) {
+                        topA += P[rateOffset + a * nStates + b] * inB[b * blockSize + s];
+                    }
+                    top[kernel.getOffset(nodeA) + a * blockSize + s] = pi[a] * topA;
+                }
+                for (int b = 0; b < nStates; b++) {
+                    double topB = 0.0;
+                    for (int a = 0; a < nStates; a++) {
+                        topB += pi[a] * inA[a * blockSize + s] * P[rateOffset + a * nStates + b];
+                    }
+                    top[kernel.getOffset(nodeB) + b * blockSize + s] = topB;
+                }
+                topExponents[nodeA * blockSize + s] = expB;
+                topExponents[nodeB * blockSize + s] = expA;
+                upperExponents[s] = expA;
+                lowerExponents[s] = expB;
+            }
+            int branchAB = branches.getBranchIndex(nodeA);
+            if (branchAB >= 0) { // equilibrium frequencies at A: P(A=a, B=b, D) = pi(a) L_A(a) P_AB(a,b) L_B(b)
+                for (int a = 0; a < nStates; a++) {
+                    for (int s = 0; s < nSites; s++) {
+                        above[a * blockSize + s] = pi[a] * inA[a * blockSize + s];
+                    }
+                }
+                visitor.visit(branchAB, iRate, above, upperExponents, inB, 0, lowerExponents);
+            }
+            rescale(top, kernel.getOffset(nodeA), topExponents, nodeA * blockSize, nStates, blockSize, nSites);
+            rescale(top, kernel.getOffset(nodeB), topExponents, nodeB * blockSize, nStates, blockSize, nSites);
+
+            // all other branches, from the root towards the leaves. Post order numbering means parents come after their children
+            for (int u = tree.getRoot()-1; u >= 0; u--) {
+                if (tree.isLeaf(u)) continue;
+                int nChildren = tree.getChildCount(u);
+                int topOffset = kernel.getOffset(u);
+
+                // P*L for each child
+                for (int iChild = 0; iChild < nChildren; iChild++) {
+                    computeChildProduct(kernel, tree.getChild(u, iChild), iRate, childProducts, iChild * nStates * blockSize, nSites);
+                }
+
+                for (int iChild = 0; iChild < nChildren; iChild++) {
+                    int v = tree.getChild(u, iChild);
+                    int branch = branches.getBranchIndex(v);
+                    if (branch < 0 && tree.isLeaf(v)) continue; // nothing needed from this child
+
+                    // top conditionals of u, times the contributions of v's siblings
+                    for (int i = 0; i < nStates * blockSize; i++) {
+                        above[i] = top[topOffset + i];
+                    }
+                    for (int jChild = 0; jChild < nChildren; jChild++) {
+                        if (jChild == iChild) continue;
+                        int siblingOffset = jChild * nStates * blockSize;
+                        for (int i = 0; i < nStates * blockSize; i++) {
+                            above[i] *= childProducts[siblingOffset + i];
+                        }
+                    }
+                    for (int s = 0; s < nSites; s++) {
+                        upperExponents[s] = topExponents[u * blockSize + s];
+                        for (int jChild = 0; jChild < nChildren; jChild++) {
+                            int w = tree.getChild(u, jChild);
+                            if (jChild != iChild && !tree.isLeaf(w)) upperExponents[s] += kernel.getScalingExponent(w, s);
+                        }
+                        lowerExponents[s] = tree.isLeaf(v) ? 0 : kernel.getScalingExponent(v, s);
+                    }
+
+                    if (branch >= 0) {
+                        double[] inV = tree.isLeaf(v) ? loadInside(kernel, v, ws.insideA, nSites) : partials;
+                        int inOffset = tree.isLeaf(v) ? 0 : kernel.getOffset(v);
+                        visitor.visit(branch, iRate, above, upperExponents, inV, inOffset, lowerExponents);
+                    }
+
+                    if (!tree.isLeaf(v)) { // top conditionals of v
+                        double[] Pv = matrices.getMatrices(v);
+                        int vOffset = kernel.getOffset(v);
+                        for (int s = 0; s < nSites; s++) {
+                            for (int b = 0; b < nStates; b++) {
+                                double sum = 0.0;
+                                for (int a = 0; a < nStates; a++) {
+                                    sum += above[a * blockSize + s] * Pv[rateOffset + a * nStates + b];
+                                }
+                                top[vOffset + b * blockSize + s] = sum;
+                            }
+                            topExponents[v * blockSize + s] = upperExponents[s];
+                        }
+                        rescale(top, vOffset, topExponents, v * blockSize, nStates, blockSize, nSites);
+                    }
+                }// for iChild
+            }// for u
+        }// for iRate
+    } // traverse
+
+    /*
+        One result per site, grouping the results of all branches
+    */
+    private SiteResult[] createSiteResults(Workspace ws, int nSites, int blockSize, int nStates){
+        int nPairs = nStates * nStates;
+        int nBranches = branches.getCount();
+        SiteResult[] results = new SiteResult[nSites];
+        double[] probs = ws.flatJointStateProbs;
+
+        for (int s = 0; s < nSites; s++) {
+            SiteResult[] branchResults = new SiteResult[nBranches];
+            double siteLnL = Double.NaN;
+            for (int k = 0; k < nBranches; k++) {
+                int index = k * blockSize + s;
+                double sum = 0.0;
+                for (int p = 0; p < nPairs; p++) {
+                    sum += ws.branchJointProbs[index * nPairs + p];
+                }
+                for (int p = 0; p < nPairs; p++) {
+                    probs[p] = ws.branchJointProbs[index * nPairs + p] / sum;
+                }
+                double lnL = Math.log(sum) + ws.branchExponents[index] * LN_2 - logNCat; // the same for every branch, up to rounding
+                if (k == 0) {
+                    siteLnL = lnL;
+                }else if (sanityCheck && Math.abs(lnL - siteLnL) > Constants.EPSILON) {
+                    throw new RuntimeException("ERROR: Failed sanity check. Site likelihood differs between branches. "+branches.getLabel(k)+": "+lnL+"; "+branches.getLabel(0)+": "+siteLnL);
+                }
+                branchResults[k] = new SiteResult(sites[s], branches.getLabel(k), lnL, probs, nStates, selector, sigDigits, ws.selectionScratch);
+            }
+            results[s] = new SiteResult(sites[s], siteLnL, branchResults);
+        }
+        return results;
+    }
+
+    /*
+        Adds one rate class's joint probabilities for all sites in the block to a branch's totals
+    */
+    private void accumulateBranch(Workspace ws, int branch, int iRate, double[] upper, int[] upperExponents, double[] lower, int lowerOffset, int[] lowerExponents){
+        int nStates = pi.length;
+        int blockSize = ws.blockSize;
+        double[] P = branches.getMatrices(branch, matrices);
+        int rateOffset = matrices.getRateOffset(iRate);
+        double[] pairs = ws.pairScratch;
+        for (int s = 0; s < sites.length; s++) {
+            for (int a = 0; a < nStates; a++) {
+                double upperA = upper[a * blockSize + s];
+                for (int b = 0; b < nStates; b++) {
+                    pairs[a * nStates + b] = upperA * P[rateOffset + a * nStates + b] * lower[lowerOffset + b * blockSize + s];
+                }
+            }
+            accumulate(ws.branchJointProbs, ws.branchExponents, branch * blockSize + s, upperExponents[s] + lowerExponents[s], pairs, nStates * nStates);
+        }
+    }
+
+    /*
+        Adds one rate class's joint probabilities of a site (scaled by 2^exponent) to the total at [index*nPairs],
+        keeping the total relative to the largest scaling seen so far, in exponents[index]. Exponents start at
+        Integer.MIN_VALUE
+    */
+    static void accumulate(double[] joint, int[] exponents, int index, int exponent, double[] pairs, int nPairs){
+        int offset = index * nPairs;
+        if (exponent > exponents[index]) {
+            if (exponents[index] != Integer.MIN_VALUE) {
+                double factor = Math.scalb(1.0, exponents[index] - exponent);
+                for (int p = 0; p < nPairs; p++) {
+                    joint[offset + p] *= factor;
+                }
+            }
+            exponents[index] = exponent;
+        }
+        double factor = Math.scalb(1.0, exponent - exponents[index]); // underflows harmlessly to zero for negligible rate classes
+        for (int p = 0; p < nPairs; p++) {
+            joint[offset + p] += factor * pairs[p];
+        }
+    }
+
+    /*
+        Inside conditionals of a node, [i*blockSize + s]. Leaves are read from the tip states
+    */
+    private double[] loadInside(PruningKernel kernel, int node, double[] dest, int nSites){
+        int blockSize = kernel.getBlockSize();
+        int nStates = pi.length;
+        if (tree.isLeaf(node)) {
+            double[][] tipPartials = TipStates.getTipPartials();
+            byte[] codes = workspaces.getTipStates().getCodes(tree.getLeafIndex(node));
+            for (int s = 0; s < nSites; s++) {
+                double[] tip = tipPartials[codes[sites[s]]];
+                for (int i = 0; i < nStates; i++) {
+                    dest[i * blockSize + s] = tip[i];
+                }
+            }
+        }else{
+            System.arraycopy(kernel.getPartials(), kernel.getOffset(node), dest, 0, nStates * blockSize);
+        }
+        return dest;
+    }
+
+    /*
+        [P_w L_w](a) for a child w, [i*blockSize + s] starting at destOffset. Scaled by 2^(w's scaling exponent)
+    */
+    private void computeChildProduct(PruningKernel kernel, int w, int iRate, double[] dest, int destOffset, int nSites){
+        int blockSize = kernel.getBlockSize();
+        int nStates = pi.length;
+        if (tree.isLeaf(w)) {
+            double[] lookup = matrices.getTipLookup(w);
+            int lookupOffset = matrices.getTipLookupOffset(iRate);
+            byte[] codes = workspaces.getTipStates().getCodes(tree.getLeafIndex(w));
+            for (int s = 0; s < nSites; s++) {
+                int codeOffset = lookupOffset + codes[sites[s]] * nStates;
+                for (int a = 0; a < nStates; a++) {
+                    dest[destOffset + a * blockSize + s] = lookup[codeOffset + a];
+                }
+            }
+            return;
+        }
+        double[] P = matrices.getMatrices(w);
+        int rateOffset = matrices.getRateOffset(iRate);
+        double[] partials = kernel.getPartials();
+        int childOffset = kernel.getOffset(w);
+        for (int a = 0; a < nStates; a++) {
+            int out = destOffset + a * blockSize;
+            for (int s = 0; s < nSites; s++) {
+                dest[out + s] = 0.0;
+            }
+            for (int b = 0; b < nStates; b++) {
+                double p = P[rateOffset + a * nStates + b];
+                int in = childOffset + b * blockSize;
+                for (int s = 0; s < nSites; s++) {
+                    dest[out + s] += p * partials[in + s];
+                }
+            }
+        }
+    }
+
+    /*
+        Rescales a node's top conditionals by a power of two where they have become small, as in PruningKernel
+    */
+    private static void rescale(double[] top, int offset, int[] exponents, int exponentOffset, int nStates, int blockSize, int nSites){
+        for (int s = 0; s < nSites; s++) {
+            double biggestValue = 0.0;
+            for (int i = 0; i < nStates; i++) {
+                biggestValue = Math.max(biggestValue, top[offset + i * blockSize + s]);
+            }
+            if (biggestValue >= Constants.SCALING_THRESHOLD || biggestValue == 0.0) continue;
+
+            int exponent = Math.getExponent(biggestValue);
+            double factor = Math.scalb(1.0, -exponent);
+            for (int i = 0; i < nStates; i++) {
+                top[offset + i * blockSize + s] *= factor;
+            }
+            exponents[exponentOffset + s] += exponent;
+        }
+    }
+
+}
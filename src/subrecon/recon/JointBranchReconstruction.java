@@ -15,255 +15,203 @@
 */
 package subrecon.recon;
 
+import java.util.Arrays;
 import java.util.concurrent.Callable;
-import pal.substmodel.AminoAcidModel;
 import pal.substmodel.RateDistribution;
-import pal.tree.Node;
-import pal.tree.Tree;
-import subrecon.molevo.AdvancedAlignmentAminoAcid;
 import subrecon.Constants;
 import subrecon.utils.Utils;
 
 /**
  *
  * @author Christopher Monit c.monit.12@ucl.ac.uk
+ * 
+ * Reconstruction for a block of sites, which are analysed together by the
+ * PruningKernel. Produces one SiteResult per site.
+ *
+ * All scratch arrays come from the calling thread's Workspace, so the only
+ * allocations in recon() are the results themselves.
  */
-public class JointBranchReconstruction implements Callable {
-    
-    private AdvancedAlignmentAminoAcid alignment;
-    private Tree tree;
-    private Node nodeA;
-    private Node nodeB;
-    private AminoAcidModel model;
+public class JointBranchReconstruction implements Callable<SiteResult[]> {
+    
+    private FlatTree tree;
+    private int nodeA;
+    private int nodeB;
+    private TransitionMatrixCache matrices;
+    private Workspace.Pool workspaces;
+    private KernelOps ops;
     private boolean sanityCheck;
-    private double[] pi; // TODO may want to only store logged pi, save memory
-    private double[] logPi;
+    private static final double LN_2 = Math.log(2.0);
+    
+    private double[] pi;
     private double logNCat;
     private RateDistribution rateDist;
-    private int site;
+    private int[] sites;
     
-    private double threshold;
+    private SubstitutionSelector selector;
     private int sigDigits;
-    private boolean sortByProb;
     
-    public JointBranchReconstruction(AdvancedAlignmentAminoAcid alignment, Tree tree, 
-                                    AminoAcidModel model,
-                                    double[] pi, double[] logPi,
+    public JointBranchReconstruction(FlatTree tree, 
+                                    TransitionMatrixCache matrices, Workspace.Pool workspaces,
+                                    double[] pi,
                                     RateDistribution rateDist,
-                                    double threshold, int sigDigits, boolean sortByProb,
+                                    SubstitutionSelector selector, int sigDigits,
                                     boolean sanityCheck,
-                                    int site
+                                    int[] sites
                                     ){
     
-        this.alignment = alignment; this.tree = tree;
-        this.nodeA = this.tree.getRoot().getChild(0); 
-        this.nodeB = this.tree.getRoot().getChild(1);
-        this.model = model;
+        if (sites.length > workspaces.getBlockSize())
+            throw new IllegalArgumentException("Block of "+sites.length+" sites exceeds workspace size "+workspaces.getBlockSize());
+        
+        this.tree = tree;
+        this.nodeA = this.tree.getNodeA(); 
+        this.nodeB = this.tree.getNodeB();
+        this.matrices = matrices;
+        this.workspaces = workspaces;
+        this.ops = workspaces.getOps();
         this.rateDist = rateDist;
         this.sanityCheck = sanityCheck;
     
-        this.threshold = threshold;
+        this.selector = selector;
         this.sigDigits = sigDigits;
-        this.sortByProb = sortByProb;
         
         this.pi = pi;
-        this.logPi = logPi;// TODO only need to pass in logPi (will need to convert some code below though)
         this.logNCat = Math.log(this.rateDist.getNumberOfRates());
         
-        this.site = site;
+        this.sites = sites;
     }
     
     // Callable interface
     @Override
-    public SiteResult call(){
+    public SiteResult[] call(){
         return recon();
     }
     
-    public SiteResult recon(){
-        double[] logConditionalMix = new double[logPi.length * logPi.length * rateDist.getNumberOfRates()]; 
-        //double sumJointStateProbs = 0.0; // will equal the total likelihood for this site, not conditional on states or rate class
+    public SiteResult[] recon(){
+        int nSites = sites.length;
+        int nStates = pi.length;
+        int nRates = rateDist.getNumberOfRates();
+        Workspace workspace = workspaces.get();
+        PruningKernel kernel = workspace.kernel;
         
-        for (int iRate = 0; iRate < rateDist.getNumberOfRates(); iRate++) {
-            double rate = rateDist.getRate(iRate);        
-            
-            // compute conditional lnls
-            Count alphaScalingCount = new Count();
-            Count betaScalingCount = new Count();
-            
-            // these have not yet been corrected for scaling. TODO could we correct for scaling here?
-            double[] logAlphaConditionals = Utils.getLnValues(downTreeMarginal(nodeA, site, alphaScalingCount, rate));
-            double[] logBetaConditionals = Utils.getLnValues(downTreeMarginal(nodeB, site, betaScalingCount, rate));            
-            
-            double logScalingCorrection = alphaScalingCount.get() + betaScalingCount.get(); //NB this is a logged value
-            
-            model.setDistance((nodeA.getBranchLength() + nodeB.getBranchLength()) * rate);
-
-            for (int iAlpha = 0; iAlpha < logPi.length; iAlpha++) {
-
-                double logAlphaTerms = logPi[iAlpha] + logAlphaConditionals[iAlpha];
-
-                for (int iBeta = 0; iBeta < logPi.length; iBeta++) {
-                    
-                    double logScaledConditionalL = logAlphaTerms + Math.log(model.getTransitionProbability(iAlpha, iBeta)) + logBetaConditionals[iBeta];
-                    double logConditionalL = logScaledConditionalL + logScalingCorrection;
-                    logConditionalMix[flatIndex(iAlpha,iBeta,iRate)] = logConditionalL; // contribution from this rate class
-                }// iBeta
-            }// iAlpha
+        // scaled conditionals for A and B, for each rate class and site, and the scaling applied as a power of two
+        double[] alphaConditionals = workspace.alphaConditionals;
+        double[] betaConditionals = workspace.betaConditionals;
+        int[] scalingExponents = workspace.scalingExponents;
+        
+        for (int iRate = 0; iRate < nRates; iRate++) {
+            // compute conditionals for all sites in the block, for the subtrees of A and B (all nodes except the root)
+            kernel.prune(sites, nSites, iRate, tree.getRoot()-1);
             
+            for (int s = 0; s < nSites; s++) {
+                int index = iRate * nSites + s;
+                copyPartials(kernel, nodeA, s, alphaConditionals, index * nStates);
+                copyPartials(kernel, nodeB, s, betaConditionals, index * nStates);
+                scalingExponents[index] = kernel.getScalingExponent(nodeA, s) + kernel.getScalingExponent(nodeB, s);
+            }// for s
         } // for iRate
-                
-        double logSumConditionals = Utils.getLnSumComponents(logConditionalMix); // sum of conditional probs, ie sum over alpha, beta and rate classes (not strictly marginal L, as we've not multiplied by 1/nCat)
         
-        // compute the joint probabilities we're actually interested in, by summing over rate classes
-        double[][] jointStateProbs = new double[logPi.length][logPi.length]; // NB this certainly needs to be a new array instance, because it is passed to SiteResult instance
-        double[] logRateConditionals = new double[rateDist.getNumberOfRates()];
+        SiteResult[] results = new SiteResult[nSites];
+        double[] logSumConditionals = workspace.logSumConditionals;
+        double[] P = matrices.getRootBranchMatrices();
         
-        for (int iAlpha = 0; iAlpha < logPi.length; iAlpha++) {
-            for (int iBeta = 0; iBeta < logPi.length; iBeta++) {
-                
-                int zone = flatIndex(iAlpha, iBeta, 0); // region of array corresponding to this combination of iAlpha and iBeta
-                for (int iRate = 0; iRate < rateDist.getNumberOfRates(); iRate++) {
-                    logRateConditionals[iRate] = logConditionalMix[zone+iRate];
-                }
+        for (int s = 0; s < nSites; s++) {
+            // rate classes are combined relative to the one with the largest scaling, so only the final sum needs a log
+            int maxExponent = Integer.MIN_VALUE;
+            for (int iRate = 0; iRate < nRates; iRate++) {
+                maxExponent = Math.max(maxExponent, scalingExponents[iRate * nSites + s]);
+            }
+            
+            double[] jointStateProbs = workspace.flatJointStateProbs; // NB safe to reuse, because SiteResult does not keep a reference to it
+            Arrays.fill(jointStateProbs, 0.0);
+            for (int iRate = 0; iRate < nRates; iRate++) {
+                int index = iRate * nSites + s;
+                double rateFactor = Math.scalb(1.0, scalingExponents[index] - maxExponent); // underflows harmlessly to zero for negligible rate classes
+                int rateOffset = matrices.getRateOffset(iRate);
                 
-                jointStateProbs[iAlpha][iBeta] = Math.exp(Utils.getLnSumComponents(logRateConditionals) - logSumConditionals);
-            }// iBeta
-        }// iAlpha
+                for (int iAlpha = 0; iAlpha < nStates; iAlpha++) {
+                    double alphaTerms = rateFactor * pi[iAlpha] * alphaConditionals[index * nStates + iAlpha];
+                    if (alphaTerms == 0.0) continue;
+                    // contributions from this rate class, for all iBeta
+                    ops.accumulateProducts(jointStateProbs, iAlpha * nStates, alphaTerms, P, rateOffset + iAlpha * nStates, betaConditionals, index * nStates, nStates);
+                }// iAlpha
+            }// for iRate
+            
+            double sumConditionals = 0.0; // sum over alpha, beta and rate classes, relative to 2^maxExponent
+            for (int i = 0; i < jointStateProbs.length; i++) {
+                sumConditionals += jointStateProbs[i];
+            }
+            for (int i = 0; i < jointStateProbs.length; i++) {
+                jointStateProbs[i] /= sumConditionals;
+            }
+            
+            logSumConditionals[s] = Math.log(sumConditionals) + maxExponent * LN_2; // sum of conditional probs (not strictly marginal L, as we've not multiplied by 1/nCat)
+            results[s] = createSiteResult(sites[s], jointStateProbs, workspace.selectionScratch, logSumConditionals[s]);
+        }// for s
         
         if (sanityCheck) {
-            checkConditionalsSumToMarginal(logSumConditionals);
+            checkConditionalsSumToMarginal(kernel, logSumConditionals);
+        }// sanityCheck
+        
+        return results;
+    } // recon
+    
+    private SiteResult createSiteResult(int site, double[] jointStateProbs, int[] scratch, double logSumConditionals){
+        if (sanityCheck) {
             checkSumToOne(jointStateProbs);
         }// sanityCheck
         
         double siteMarginalLL = logSumConditionals - logNCat; // marginal over alpha, beta and rate classes (ie total site likelihood). 1/nCat term cancels in when computing jointStateProbs, but must include here
-        return new SiteResult(site, siteMarginalLL, jointStateProbs, threshold, sortByProb, sigDigits);
-    } // analyseSite
+        return new SiteResult(site, siteMarginalLL, jointStateProbs, pi.length, selector, sigDigits, scratch);
+    }
+    
+    private void copyPartials(PruningKernel kernel, int node, int s, double[] dest, int destOffset){
+        int offset = kernel.getOffset(node) + s;
+        for (int i = 0; i < pi.length; i++) {
+            dest[destOffset + i] = kernel.getPartials()[offset + i * kernel.getBlockSize()];
+        }
+    }
     
-    private void checkConditionalsSumToMarginal(double logSumConditionals){
+    private void checkConditionalsSumToMarginal(PruningKernel kernel, double[] logSumConditionals){
         // NB this does not strictly compute the log marginal likelihood, since we omit the 1/nCat term, which cancels in the jointStateProbs
-        double[] logComputedMarginalMix = new double[rateDist.getNumberOfRates()]; // marginal likelihoods for each part of the rate mixture model
+        double[][] logComputedMarginalMix = new double[sites.length][rateDist.getNumberOfRates()]; // marginal likelihoods for each part of the rate mixture model
         for (int iRate = 0; iRate < rateDist.getNumberOfRates(); iRate++) {
-            Count marginalScalingCount = new Count();
-            double logScaledMarginalL = Math.log( computeTotalL(site, marginalScalingCount, rateDist.getRate(iRate)) ); // not corrected for scaling
-            logComputedMarginalMix[iRate] = logScaledMarginalL + marginalScalingCount.get(); // correcting for scaling
+            kernel.prune(sites, sites.length, iRate, tree.getRoot());
+            for (int s = 0; s < sites.length; s++) {
+                double logScaledMarginalL = Math.log( computeTotalL(kernel, s) ); // not corrected for scaling
+                logComputedMarginalMix[s][iRate] = logScaledMarginalL + kernel.getScalingExponent(tree.getRoot(), s) * LN_2; // correcting for scaling
+            }
         }
-        double logSumComputedMarginalL = Utils.getLnSumComponents(logComputedMarginalMix); 
+        
+        for (int s = 0; s < sites.length; s++) {
+            double logSumComputedMarginalL = Utils.getLnSumComponents(logComputedMarginalMix[s]); 
 
-        if (logSumComputedMarginalL < logSumConditionals-Constants.EPSILON || logSumComputedMarginalL > logSumConditionals+Constants.EPSILON)
-            throw new RuntimeException("ERROR: Failed sanity check. Sum of conditional Ls and marginal L not equal. logSumComputedMarginalL="+logSumComputedMarginalL+"; logMarginalL="+logSumConditionals);
+            if (logSumComputedMarginalL < logSumConditionals[s]-Constants.EPSILON || logSumComputedMarginalL > logSumConditionals[s]+Constants.EPSILON)
+                throw new RuntimeException("ERROR: Failed sanity check. Sum of conditional Ls and marginal L not equal. logSumComputedMarginalL="+logSumComputedMarginalL+"; logMarginalL="+logSumConditionals[s]);
+        }
     }
         
     
-    private void checkSumToOne(double[][] jointStateProbs){ // these values will not be logged
+    private void checkSumToOne(double[] jointStateProbs){ // these values will not be logged
         double sum = 0.0;
-        for (int iAlpha = 0; iAlpha < logPi.length; iAlpha++) {
-            for (int iBeta = 0; iBeta < logPi.length; iBeta++) {
-                sum += jointStateProbs[iAlpha][iBeta];
-            }
+        for (int i = 0; i < jointStateProbs.length; i++) {
+            sum += jointStateProbs[i];
         }
         if (sum < 1.0-Constants.EPSILON || sum > 1.0+Constants.EPSILON)
             throw new RuntimeException("ERROR: Failed sanity check. Sum of posterior probs != 1.0. sum="+sum);
     }
     
     
-    private int flatIndex(int i, int j, int k){
-        //return iAlpha*pi.length + iBeta + iRate*pi.length*pi.length;
-        return i * pi.length * rateDist.getNumberOfRates() + j * rateDist.getNumberOfRates() + k;
-    }
     
-
-    // normal pruning algorithm. Used for computing marginalL in sanity check
-    private double computeTotalL(int site, Count scalingCorrection, double rate){
+    // normal pruning algorithm, for the s-th site of the block. Used for computing marginalL in sanity check
+    private double computeTotalL(PruningKernel kernel, int s){
         double sum = 0.0;
-        double[] rootConditionals = downTreeMarginal( tree.getRoot(), site, scalingCorrection, rate);
+        double[] partials = kernel.getPartials();
+        int rootOffset = kernel.getOffset(tree.getRoot()) + s;
 
         for (int iRootState = 0; iRootState < pi.length; iRootState++) {
-            sum +=  pi[iRootState] * rootConditionals[iRootState];
+            sum +=  pi[iRootState] * partials[rootOffset + iRootState * kernel.getBlockSize()];
         }
         return sum;
     }
     
-    
-    
-    
-    
-    // part of normal pruning algorithm
-    private double[] downTreeMarginal(Node parent, int site, Count scalingCorrection, double rate){
-        double[] parentConditionals = new double[pi.length];
-
-        if (parent.isLeaf()){ // 'parent' is terminal node, i.e. has no children. Code here is no different from normal pruning algorithm
-
-            String parentName = parent.getIdentifier().getName();
-            int state = alignment.getStateBySequenceName(parentName, site);
-            
-            if (state >= 0 && state < pi.length){ //the observed state is recognised as an amino acid
-                parentConditionals[state] = 1.0;
-            }else  {
-                for (int i = 0; i < parentConditionals.length; i++) {
-                    parentConditionals[i] = 1.0; //observed state is not recognised as amino acid (may be gap). Treated as missing data. All conditional probabilities = 1.0.
-                }
-            }
-        } else{ // NOT LEAF
-    
-            for (int i = 0; i < parentConditionals.length; i++) {
-                parentConditionals[i] = 1.0; // multiplicative identity
-            }
-
-            for (int iChild = 0; iChild < parent.getChildCount(); iChild++){
-                Node child = parent.getChild(iChild);
-
-                double[][] P = new double[pi.length][pi.length];
-                this.model.setDistance(child.getBranchLength() * rate);
-                this.model.getTransitionProbabilities(P);
-
-                double[] childConditionals = downTreeMarginal( parent.getChild(iChild), site, scalingCorrection, rate);
-
-                for (int iParentState = 0; iParentState < pi.length; iParentState++){ // same as normal pruning algorithm
-                    double sum = 0.0; //prob of observing data below this node, if the state at this node were iParentState
-                    for (int jChildState = 0; jChildState < pi.length; jChildState++){
-                        sum += P[iParentState][jChildState] * childConditionals[jChildState];
-
-                    }
-                    parentConditionals[iParentState] *= sum;
-                } // for iParentState
-
-            } // for iChild
-
-        }// else (is not a leaf
-        
-        // scaling conditional likelihoods to prevent underflow errors
-        // find biggest value
-        double biggestValue = 0.0;
-        for (int iParentState = 0; iParentState < pi.length; iParentState++) {
-                biggestValue = Math.max(biggestValue, parentConditionals[iParentState]);
-        }
-        // express conditionals relative to largest value
-        for (int iParentState = 0; iParentState < pi.length; iParentState++) {
-                parentConditionals[iParentState] /= (biggestValue + Constants.TINY_QUANTITY); // The added small value is to prevent divide by zero problems
-        }
-        scalingCorrection.add( Math.log(biggestValue + Constants.TINY_QUANTITY) ); // keep track of the scaling amount as you go
-                                                                                                                                     
-        return parentConditionals;
-    }// downTreeConditional
-    
-
-    /*
-        Keeps track of the scalling factor used in the pruning algorithm
-    */
-    private class Count{
-        
-        private double count = 0.0;
-        
-        public void add(double addition){
-            this.count += addition;
-        }
-        
-        public double get(){
-            return this.count;
-        }
-        
-    }// Count class
-    
-    
-    
 }
@@ -0,0 +1,67 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+/**
+ * The innermost loops of the reconstruction, which are the candidates for SIMD.
+ *
+ * ScalarKernelOps is plain Java and is always available. VectorKernelOps uses
+ * the JDK Vector API (jdk.incubator.vector), and is only compiled when building
+ * with JDK 17 or later (see build.xml). It is loaded by reflection, so the rest
+ * of the program neither depends on it being present, nor on the JVM being run
+ * with --add-modules jdk.incubator.vector.
+ *
+ * Implementations are stateless and thread safe.
+ */
+public abstract class KernelOps {
+
+    private static final String VECTOR_CLASS = "subrecon.recon.VectorKernelOps";
+
+    /*
+        Pruning step for one child of a node, for a block of sites laid out site-minor (see PruningKernel):
+        parent[i][s] *= sum_j P[i][j] * child[j][s], for s < nSites.
+        P is flattened by row starting at pOffset. childSums is scratch of length >= nSites
+    */
+    public abstract void propagate(double[] P, int pOffset, double[] partials, int childOffset, int parentOffset,
+                                    int nStates, int blockSize, int nSites, double[] childSums);
+
+    /*
+        out[outOffset + k] += constant * a[aOffset + k] * b[bOffset + k], for k < n
+    */
+    public abstract void accumulateProducts(double[] out, int outOffset, double constant, double[] a, int aOffset, double[] b, int bOffset, int n);
+
+    public abstract String getDescription();
+
+    /*
+        The SIMD implementation if requested and available, otherwise the scalar implementation.
+        Never fails: reasons for falling back to scalar are given in the description
+    */
+    public static KernelOps getInstance(boolean simd){
+        if (!simd) {
+            return new ScalarKernelOps("scalar");
+        }
+        try{
+            return (KernelOps)Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+        }catch(ClassNotFoundException e){
+            return new ScalarKernelOps("scalar (SIMD kernel not included in this build, which requires JDK 17 or later)");
+        }catch(LinkageError e){ // jdk.incubator.vector not resolved
+            return new ScalarKernelOps("scalar (SIMD kernel unavailable: run java with --add-modules jdk.incubator.vector)");
+        }catch(Exception e){
+            return new ScalarKernelOps("scalar (SIMD kernel unavailable: "+e+")");
+        }
+    }
+
+}
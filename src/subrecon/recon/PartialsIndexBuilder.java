@@ -0,0 +1,147 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import pal.substmodel.RateDistribution;
+import subrecon.io.PartialsIndexWriter;
+import subrecon.molevo.SitePatterns;
+
+/**
+ * Builds a partials index: runs the inside and outside passes of
+ * InsideOutsideReconstruction once for every site pattern, and writes the
+ * conditionals at both ends of every branch, instead of combining them.
+ * IndexedBranchReconstruction then only has to combine them for the branches
+ * that are queried.
+ */
+public class PartialsIndexBuilder {
+
+    private final FlatTree tree;
+    private final TransitionMatrixCache matrices;
+    private final Workspace.Pool workspaces;
+    private final BranchSet branches;
+    private final SitePatterns patterns;
+    private final double[] pi;
+    private final RateDistribution rateDist;
+
+    public PartialsIndexBuilder(FlatTree tree, TransitionMatrixCache matrices, Workspace.Pool workspaces,
+                                SitePatterns patterns, double[] pi, RateDistribution rateDist){
+        this.tree = tree;
+        this.matrices = matrices;
+        this.workspaces = workspaces;
+        this.branches = BranchSet.all(tree);
+        this.patterns = patterns;
+        this.pi = pi;
+        this.rateDist = rateDist;
+    }
+
+    /*
+        Nodes at the lower end of the indexed branches, in the order they are written
+    */
+    public int[] getBranchNodes(){
+        int[] nodes = new int[branches.getCount()];
+        for (int k = 0; k < nodes.length; k++) {
+            nodes[k] = branches.getNode(k);
+        }
+        return nodes;
+    }
+
+    /*
+        Writes the records of all patterns, using the scheduler's threads, and waits for them to finish.
+        Does not finish the writer
+    */
+    public void build(SiteScheduler scheduler, final PartialsIndexWriter writer){
+        int nPatterns = patterns.getPatternCount();
+        if (nPatterns == 0) return;
+
+        final AtomicInteger remaining = new AtomicInteger(nPatterns);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        int[] allPatterns = new int[nPatterns];
+        for (int iPattern = 0; iPattern < nPatterns; iPattern++) {
+            allPatterns[iPattern] = iPattern;
+        }
+        scheduler.submit(patterns, allPatterns, new SiteScheduler.TaskFactory() {
+            @Override
+            public Callable<SiteResult[]> create(int[] sites) {
+                return new BlockTask(writer, sites);
+            }
+        }, new SiteScheduler.ResultListener() {
+            @Override
+            public void completed(int[] blockPatterns, SiteResult[] results) {
+                if (remaining.addAndGet(-blockPatterns.length) == 0) done.countDown();
+            }
+
+            @Override
+            public void failed(Throwable t) {
+                failure.compareAndSet(null, t);
+                done.countDown();
+            }
+        });
+
+        try{
+            done.await();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while building partials index", e);
+        }
+        Throwable t = failure.get();
+        if (t != null) {
+            if (t instanceof RuntimeException) throw (RuntimeException)t;
+            if (t instanceof Error) throw (Error)t;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /*
+        Writes the records of one block of sites, one per pattern
+    */
+    private class BlockTask implements Callable<SiteResult[]> {
+
+        private final PartialsIndexWriter writer;
+        private final int[] sites;
+
+        BlockTask(PartialsIndexWriter writer, int[] sites){
+            this.writer = writer;
+            this.sites = sites;
+        }
+
+        @Override
+        public SiteResult[] call(){
+            final int[] blockPatterns = new int[sites.length];
+            for (int s = 0; s < sites.length; s++) {
+                blockPatterns[s] = patterns.getPattern(sites[s]);
+            }
+            final int blockSize = workspaces.getBlockSize();
+            InsideOutsideReconstruction recon = new InsideOutsideReconstruction(tree, matrices, workspaces, branches, pi, rateDist, null, 0, false, sites);
+            recon.traverse(new InsideOutsideReconstruction.PartialsVisitor() {
+                @Override
+                public void visit(int branch, int iRate, double[] upper, int[] upperExponents, double[] lower, int lowerOffset, int[] lowerExponents) {
+                    for (int s = 0; s < blockPatterns.length; s++) {
+                        writer.write(branch, iRate, blockPatterns[s], upper, s, upperExponents[s], lower, lowerOffset + s, lowerExponents[s], blockSize);
+                    }
+                }
+            });
+            return new SiteResult[0]; // nothing to report
+        }
+
+    }
+
+}
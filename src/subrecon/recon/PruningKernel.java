@@ -0,0 +1,247 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import subrecon.Constants;
+
+/**
+ * Iterative implementation of the pruning algorithm over a FlatTree, for a block
+ * of sites at once. Each transition matrix element is loaded once per node for
+ * the whole block, rather than once per site.
+ *
+ * Conditional likelihoods for all nodes are held in one contiguous array, laid
+ * out site-minor: the value for node n, state i and the s-th site of the block is
+ * at [(n*nStates + i)*blockSize + s], so the innermost loops run over consecutive
+ * sites and can be vectorised by the JIT. Nodes are visited in post order, so
+ * children are always complete before their parent.
+ *
+ * Leaves are handled by lookup: the contribution of a leaf to its parent is
+ * taken from a per-branch, per-rate table (see TransitionMatrixCache), rather
+ * than computed as a matrix-vector product. Since about half of all nodes are
+ * leaves, this removes about half of the work. A cherry (two leaf children) is
+ * just the product of two table entries.
+ *
+ * Scaling is lazy and exact: a node's conditionals are only rescaled when the
+ * largest of them falls below Constants.SCALING_THRESHOLD, and then by a power
+ * of two, so no rounding error is introduced. The total scaling of each node's
+ * subtree is kept as an integer exponent, per site.
+ *
+ * Subtrees in which every leaf is missing data (gaps etc.) for all sites of the
+ * block contribute a factor of 1.0 to their parent, so are skipped. Blocks made
+ * of sites with similar gap patterns (see SiteScheduler) skip the most work.
+ *
+ * The work done is counted in the RunStats.Counters of the thread that owns
+ * the kernel.
+ *
+ * Not thread safe: each thread needs its own instance.
+ */
+public class PruningKernel {
+
+    private final TipStates tipStates;
+    private final double[][] tipPartials;
+    private final FlatTree tree;
+    private final TransitionMatrixCache matrices;
+    private final KernelOps ops;
+    private final int nStates;
+    private final int blockSize;
+
+    private final double[] partials;
+    private final int[] scalingExponents; // total scaling applied within each node's subtree, as a power of two, [node*blockSize + s]
+    private final double[] childSums; // scratch, one value per site in the block
+    private final int[] codeOffsets; // scratch, one value per site in the block
+    private final boolean[] storeLeafPartials;
+    private final boolean[] present; // scratch: whether any leaf below each node has data, for any site in the block
+    private final RunStats.Counters counters;
+
+    /*
+        counters: of the thread that will use the kernel
+    */
+    public PruningKernel(TipStates tipStates, FlatTree tree, TransitionMatrixCache matrices, KernelOps ops, int blockSize, RunStats.Counters counters){
+        this.tipStates = tipStates;
+        this.tipPartials = TipStates.getTipPartials();
+        this.tree = tree;
+        this.matrices = matrices;
+        this.ops = ops;
+        this.nStates = matrices.getNumStates();
+        this.blockSize = blockSize;
+        this.counters = counters;
+
+        this.partials = new double[tree.getNodeCount() * nStates * blockSize];
+        this.scalingExponents = new int[tree.getNodeCount() * blockSize];
+        this.childSums = new double[blockSize];
+        this.codeOffsets = new int[blockSize];
+
+        this.storeLeafPartials = new boolean[tree.getNodeCount()];
+        this.present = new boolean[tree.getNodeCount()];
+        for (int iChild = 0; iChild < tree.getChildCount(tree.getRoot()); iChild++) {
+            storeLeafPartials[tree.getChild(tree.getRoot(), iChild)] = true;
+        }
+    }
+
+    /*
+        Computes scaled conditional likelihoods for nodes 0 ... lastNode (in post order), for
+        sites[0] ... sites[nSites-1], where nSites <= blockSize.
+        The whole tree is lastNode == tree.getRoot(); the subtrees of A and B are lastNode == tree.getRoot()-1
+    */
+    public void prune(int[] sites, int nSites, int iRate, int lastNode){
+        long start = System.nanoTime();
+        long nNodes = 0, nSkippedNodes = 0, nProducts = 0, nTipLookups = 0, nScalingEvents = 0;
+        int[] childStart = tree.getChildStartArray();
+        int[] children = tree.getChildArray();
+        int[] leafIndices = tree.getLeafIndexArray();
+        int rateOffset = matrices.getRateOffset(iRate);
+        int tipLookupOffset = matrices.getTipLookupOffset(iRate);
+
+        for (int iNode = 0; iNode <= lastNode; iNode++) {
+            int parentOffset = getOffset(iNode);
+            int scalingOffset = iNode * blockSize;
+
+            if (leafIndices[iNode] >= 0) { // leaf
+                byte[] codes = tipStates.getCodes(leafIndices[iNode]);
+                // a leaf's conditionals are only needed if it is a child of the root. Otherwise its parent uses the tip lookup tables
+                if (storeLeafPartials[iNode]) {
+                    for (int s = 0; s < nSites; s++) {
+                        double[] tip = tipPartials[codes[sites[s]]]; // gaps etc. are missing data, with all conditional probabilities = 1.0
+                        for (int i = 0; i < nStates; i++) {
+                            partials[parentOffset + i * blockSize + s] = tip[i];
+                        }
+                    }
+                }
+                for (int s = 0; s < nSites; s++) {
+                    scalingExponents[scalingOffset + s] = 0;
+                }
+                present[iNode] = false;
+                for (int s = 0; s < nSites && !present[iNode]; s++) {
+                    present[iNode] = codes[sites[s]] != TipStates.CODE_MISSING;
+                }
+                continue; // leaf conditionals never need scaling
+
+            }
+
+            // internal node
+            for (int s = 0; s < nSites; s++) {
+                scalingExponents[scalingOffset + s] = 0;
+            }
+
+            present[iNode] = false;
+            for (int iChild = childStart[iNode]; iChild < childStart[iNode + 1]; iChild++) {
+                present[iNode] |= present[children[iChild]];
+            }
+            if (!present[iNode]) { // no data below this node, so all conditionals are 1.0 (and the parent will skip it)
+                for (int i = 0; i < nStates * blockSize; i++) {
+                    partials[parentOffset + i] = 1.0;
+                }
+                nSkippedNodes++;
+                continue;
+            }
+            nNodes++;
+
+            boolean firstChild = true; // the first child's contribution is assigned, rather than multiplied into a vector of ones
+            for (int iChild = childStart[iNode]; iChild < childStart[iNode + 1]; iChild++) {
+                int child = children[iChild];
+                if (!present[child]) continue; // contributes a factor of 1.0
+
+                if (leafIndices[child] >= 0) { // tip: the contribution is a precomputed column of P (or sum of columns, for ambiguous codes)
+                    byte[] codes = tipStates.getCodes(leafIndices[child]);
+                    for (int s = 0; s < nSites; s++) {
+                        codeOffsets[s] = tipLookupOffset + codes[sites[s]] * nStates;
+                    }
+                    double[] lookup = matrices.getTipLookup(child);
+                    nTipLookups++;
+
+                    for (int i = 0; i < nStates; i++) {
+                        int parentStateOffset = parentOffset + i * blockSize;
+                        if (firstChild) {
+                            for (int s = 0; s < nSites; s++) {
+                                partials[parentStateOffset + s] = lookup[codeOffsets[s] + i];
+                            }
+                        }else{
+                            for (int s = 0; s < nSites; s++) {
+                                partials[parentStateOffset + s] *= lookup[codeOffsets[s] + i];
+                            }
+                        }
+                    }
+
+                }else{ // internal child
+                    if (firstChild) {
+                        for (int i = 0; i < nStates * blockSize; i++) {
+                            partials[parentOffset + i] = 1.0; // multiplicative identity
+                        }
+                    }
+                    double[] P = matrices.getMatrices(child); // precomputed for this branch, shared by all sites
+                    ops.propagate(P, rateOffset, partials, getOffset(child), parentOffset, nStates, blockSize, nSites, childSums);
+                    nProducts++;
+
+                    for (int s = 0; s < nSites; s++) {
+                        scalingExponents[scalingOffset + s] += scalingExponents[child * blockSize + s];
+                    }
+                }
+                firstChild = false;
+            }// for iChild
+
+            // scaling conditional likelihoods to prevent underflow errors, only where they have become small
+            for (int s = 0; s < nSites; s++) {
+                double biggestValue = 0.0;
+                for (int i = 0; i < nStates; i++) {
+                    biggestValue = Math.max(biggestValue, partials[parentOffset + i * blockSize + s]);
+                }
+                if (biggestValue >= Constants.SCALING_THRESHOLD || biggestValue == 0.0) continue;
+
+                // multiply by 2^-exponent, bringing the largest value into [1,2). Exact, since only the exponents change
+                int exponent = Math.getExponent(biggestValue);
+                double factor = Math.scalb(1.0, -exponent);
+                for (int i = 0; i < nStates; i++) {
+                    partials[parentOffset + i * blockSize + s] *= factor;
+                }
+                scalingExponents[scalingOffset + s] += exponent; // keep track of the scaling amount as you go
+                nScalingEvents++;
+            }
+        }// for iNode
+
+        counters.nPrunes++;
+        counters.nNodes += nNodes;
+        counters.nSkippedNodes += nSkippedNodes;
+        counters.nProducts += nProducts;
+        counters.nTipLookups += nTipLookups;
+        counters.nScalingEvents += nScalingEvents;
+        counters.pruneNanos += System.nanoTime() - start;
+    }
+
+    /*
+        Scaled conditional likelihoods. The value for state i of the s-th site in the block is at
+        [getOffset(node) + i*getBlockSize() + s]. Leaves are only included if they are children of the root.
+        Must not be modified
+    */
+    public double[] getPartials(){
+        return partials;
+    }
+
+    public int getOffset(int node){
+        return node * nStates * blockSize;
+    }
+
+    public int getBlockSize(){
+        return blockSize;
+    }
+
+    /*
+        Conditional likelihoods of the s-th site in the block are getPartials() * 2^getScalingExponent(node, s)
+    */
+    public int getScalingExponent(int node, int s){
+        return scalingExponents[node * blockSize + s];
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import subrecon.molevo.SitePatterns;
+
+/**
+ * Streams SiteResults to a Sink while the reconstruction is running, with a
+ * bounded number of sites in flight.
+ *
+ * Sites are submitted to the SiteScheduler in segments, in alignment order, and
+ * only the patterns that first occur in a segment are analysed. No more than
+ * window sites are submitted ahead of the last site written, so memory does not
+ * grow with the length of the alignment (apart from one reference per pattern).
+ * A pattern's result is released once all its sites have been written.
+ *
+ * In ordered mode, results are written in site order, as soon as each
+ * contiguous prefix of the alignment is complete. In unordered mode, they are
+ * written as soon as they are available. Result lines are tagged with their
+ * site either way.
+ *
+ * The sink is only called from the thread calling run(), so need not be thread
+ * safe. It is flushed whenever the writer has to wait for results.
+ */
+public class ResultPipeline implements SiteScheduler.ResultListener {
+
+    private static final int SEGMENTS_PER_WINDOW = 4;
+
+    public interface Sink {
+        void write(SiteResult result);
+        void flush();
+    }
+
+    private final SitePatterns patterns;
+    private final SiteScheduler scheduler;
+    private final SiteScheduler.TaskFactory factory;
+    private final int window;
+    private final boolean ordered;
+    private final Sink sink;
+
+    private final AtomicReferenceArray<SiteResult> results; // by pattern, null until complete and after all sites are written
+    private final int[] remainingSites; // number of sites still to write, by pattern
+    private final Object lock = new Object();
+    private volatile Throwable failure;
+    private boolean anyCompletedSinceWait; // guarded by lock. In unordered mode, any completed block may allow writing
+
+    public ResultPipeline(SitePatterns patterns, SiteScheduler scheduler, SiteScheduler.TaskFactory factory,
+                            int window, boolean ordered, Sink sink){
+        this.patterns = patterns;
+        this.scheduler = scheduler;
+        this.factory = factory;
+        this.window = Math.max(1, window);
+        this.ordered = ordered;
+        this.sink = sink;
+
+        this.results = new AtomicReferenceArray<SiteResult>(patterns.getPatternCount());
+        this.remainingSites = new int[patterns.getPatternCount()];
+        for (int iPattern = 0; iPattern < remainingSites.length; iPattern++) {
+            remainingSites[iPattern] = patterns.getWeight(iPattern);
+        }
+    }
+
+    /*
+        Analyses and writes all sites. Returns the total lnL, summed over sites in the order they were written.
+        Exceptions thrown by the reconstruction are rethrown here
+    */
+    public double run(){
+        int nSites = patterns.getSiteCount();
+        int segment = Math.max(1, window / SEGMENTS_PER_WINDOW);
+
+        int[] pending = new int[window + segment]; // submitted sites not yet written, in site order
+        int nPending = 0;
+        int submitted = 0; // sites 0 ... submitted-1 have been submitted
+        int nextPattern = 0; // patterns are numbered in order of first occurrence, so those below this have been submitted
+        double totalLnL = 0.0;
+
+        while (submitted < nSites || nPending > 0) {
+            // back-pressure: only submit while fewer than window sites are waiting to be written
+            while (submitted < nSites && nPending < window) {
+                int end = Math.min(nSites, submitted + segment);
+                int firstPattern = nextPattern;
+                while (nextPattern < patterns.getPatternCount() && patterns.getPatternSite(nextPattern) < end) {
+                    nextPattern++;
+                }
+                if (nextPattern > firstPattern) {
+                    int[] newPatterns = new int[nextPattern - firstPattern];
+                    for (int i = 0; i < newPatterns.length; i++) {
+                        newPatterns[i] = firstPattern + i;
+                    }
+                    scheduler.submit(patterns, newPatterns, factory, this);
+                }
+                for (int iSite = submitted; iSite < end; iSite++) {
+                    pending[nPending++] = iSite;
+                }
+                submitted = end;
+            }
+
+            // write whatever is ready
+            int nKept = 0;
+            for (int i = 0; i < nPending; i++) {
+                int iSite = pending[i];
+                int pattern = patterns.getPattern(iSite);
+                SiteResult result = results.get(pattern);
+                if (result == null) {
+                    if (ordered) { // nothing after this site can be written yet
+                        System.arraycopy(pending, i, pending, nKept, nPending - i);
+                        nKept += nPending - i;
+                        break;
+                    }
+                    pending[nKept++] = iSite;
+                    continue;
+                }
+                sink.write(result.forSite(iSite));
+                totalLnL += result.getMarginalLnL();
+                if (--remainingSites[pattern] == 0) {
+                    results.set(pattern, null); // release
+                }
+            }
+            int nWritten = nPending - nKept;
+            nPending = nKept;
+
+            if (nWritten == 0 && nPending > 0) {
+                awaitResult(pending[0]);
+            }
+        }
+        sink.flush();
+        checkFailure();
+        return totalLnL;
+    }
+
+    private void awaitResult(int site){
+        sink.flush(); // show what has been written so far
+        int pattern = patterns.getPattern(site);
+        synchronized (lock) {
+            while (failure == null && results.get(pattern) == null && (ordered || !anyCompletedSinceWait)) {
+                try{
+                    lock.wait();
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for results", e);
+                }
+            }
+            anyCompletedSinceWait = false;
+        }
+        checkFailure();
+    }
+
+    private void checkFailure(){
+        if (failure != null) {
+            if (failure instanceof RuntimeException) throw (RuntimeException)failure;
+            if (failure instanceof Error) throw (Error)failure;
+            throw new RuntimeException(failure);
+        }
+    }
+
+    // ResultListener interface, called from worker threads
+    @Override
+    public void completed(int[] blockPatterns, SiteResult[] blockResults){
+        for (int s = 0; s < blockPatterns.length; s++) {
+            results.set(blockPatterns[s], blockResults[s]);
+        }
+        synchronized (lock) {
+            anyCompletedSinceWait = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void failed(Throwable t){
+        synchronized (lock) {
+            if (failure == null) failure = t;
+            lock.notifyAll();
+        }
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timers for the phases of a run (reading the inputs, building the model and
+ * transition matrices, the reconstruction and writing the results) and counters
+ * of the work done by each worker thread, as reported by -stats. Phases are
+ * also recorded as JDK Flight Recorder events (see TraceEvents).
+ *
+ * Each thread counts into its own Counters, which are plain fields written only
+ * by that thread, so counting needs no locks or atomic updates. They are summed
+ * by report(), which must only be called once the work is finished (e.g. after
+ * the SiteScheduler has been shut down).
+ *
+ * A few figures are also kept for watching a run while it is going (see
+ * subrecon.ProgressReporter): the current phase, blocks started and finished,
+ * and sites written. These are updated once per block or site, and may be read
+ * at any time.
+ */
+public class RunStats {
+
+    public static final String LOAD = "Reading inputs";
+    public static final String MODEL = "Model setup";
+    public static final String MATRICES = "Transition matrices";
+    public static final String RECONSTRUCTION = "Reconstruction";
+    public static final String INDEX = "Building partials index";
+    public static final String OUTPUT = "Writing results (during reconstruction)";
+
+    /*
+        Work done by one thread
+    */
+    public static class Counters {
+
+        final String threadName;
+
+        // counted by SiteScheduler
+        long nBlocks;
+        long nPatterns; // site patterns analysed
+        long blockNanos;
+
+        // counted by PruningKernel
+        long nPrunes; // passes over the tree, one per block and rate class
+        long pruneNanos;
+        long nNodes; // internal nodes computed
+        long nSkippedNodes; // internal nodes with no data below them
+        long nProducts; // matrix-vector products, for internal children
+        long nTipLookups; // leaf children, from the tip lookup tables
+        long nScalingEvents; // rescaled conditionals, per node and site
+
+        Counters(String threadName){
+            this.threadName = threadName;
+        }
+
+        /*
+            Adds other's counts to this
+        */
+        void add(Counters other){
+            nBlocks += other.nBlocks;
+            nPatterns += other.nPatterns;
+            blockNanos += other.blockNanos;
+            nPrunes += other.nPrunes;
+            pruneNanos += other.pruneNanos;
+            nNodes += other.nNodes;
+            nSkippedNodes += other.nSkippedNodes;
+            nProducts += other.nProducts;
+            nTipLookups += other.nTipLookups;
+            nScalingEvents += other.nScalingEvents;
+        }
+
+    }
+
+    /*
+        A phase that has started, to be ended by end()
+    */
+    public class Phase {
+
+        private final String name;
+        private final long start;
+        private final Object event;
+
+        private Phase(String name){
+            this.name = name;
+            this.event = TraceEvents.get().beginPhase();
+            this.start = System.nanoTime();
+            currentPhaseStart = start;
+            currentPhase = name;
+        }
+
+        public void end(){
+            addPhaseTime(name, System.nanoTime() - start);
+            TraceEvents.get().endPhase(event, name);
+        }
+
+    }
+
+    private final ThreadLocal<Counters> counters = new ThreadLocal<Counters>() {
+        @Override
+        protected Counters initialValue() {
+            Counters threadCounters = new Counters(Thread.currentThread().getName());
+            synchronized (allCounters) {
+                allCounters.add(threadCounters);
+            }
+            return threadCounters;
+        }
+    };
+    private final List<Counters> allCounters = new ArrayList<Counters>(); // guarded by itself
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<String, Long>(); // in the order they were first recorded, guarded by this
+    private long nMatrices = 0; // guarded by this
+
+    // live progress
+    private volatile String currentPhase = null;
+    private volatile long currentPhaseStart = System.nanoTime();
+    private final LongAdder nBlocksStarted = new LongAdder();
+    private final LongAdder nBlocksFinished = new LongAdder();
+    private final LongAdder nPatternsFinished = new LongAdder();
+    private volatile long nSitesWritten = 0; // only updated by the thread writing results
+
+    /*
+        The calling thread's counters, which only it may update
+    */
+    public Counters getCounters(){
+        return counters.get();
+    }
+
+    public Phase startPhase(String name){
+        return new Phase(name);
+    }
+
+    /*
+        For phases timed in pieces, e.g. writing results as they arrive
+    */
+    public synchronized void addPhaseTime(String name, long nanos){
+        Long total = phaseNanos.get(name);
+        phaseNanos.put(name, (total == null ? 0L : total) + nanos);
+    }
+
+    public synchronized long getPhaseNanos(String name){
+        Long total = phaseNanos.get(name);
+        return total == null ? 0L : total;
+    }
+
+    /*
+        The phase started most recently, or null before the first
+    */
+    public String getCurrentPhase(){
+        return currentPhase;
+    }
+
+    /*
+        System.nanoTime() at the start of the current phase
+    */
+    public long getCurrentPhaseStart(){
+        return currentPhaseStart;
+    }
+
+    void blockStarted(){
+        nBlocksStarted.increment();
+    }
+
+    void blockFinished(int nPatterns){
+        nBlocksFinished.increment();
+        nPatternsFinished.add(nPatterns);
+    }
+
+    /*
+        Blocks being analysed by the worker threads now
+    */
+    public long getBlocksInFlight(){
+        long finished = nBlocksFinished.sum(); // read first, so the difference may be too high, but is never negative
+        return nBlocksStarted.sum() - finished;
+    }
+
+    public long getBlocksFinished(){
+        return nBlocksFinished.sum();
+    }
+
+    /*
+        Site patterns analysed, in all queries so far
+    */
+    public long getPatternsFinished(){
+        return nPatternsFinished.sum();
+    }
+
+    /*
+        Only from the thread writing results
+    */
+    public void siteWritten(){
+        nSitesWritten++;
+    }
+
+    public long getSitesWritten(){
+        return nSitesWritten;
+    }
+
+    /*
+        Transition matrices used by the run (branches x rate classes)
+    */
+    public synchronized void setMatrixCount(long nMatrices){
+        this.nMatrices = nMatrices;
+    }
+
+    /*
+        Sum of all threads' counters
+    */
+    public Counters getTotals(){
+        Counters totals = new Counters("all");
+        synchronized (allCounters) {
+            for (Counters threadCounters : allCounters) {
+                totals.add(threadCounters);
+            }
+        }
+        return totals;
+    }
+
+    public void report(PrintStream out){
+        out.println("");
+        out.println("Run statistics");
+        out.println("--------------------------------------------------------------");
+        synchronized (this) {
+            for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+                out.printf("%-40s %12.1f ms%n", phase.getKey(), phase.getValue() / 1e6);
+            }
+            out.printf("%-40s %12d%n", "Transition matrices computed", nMatrices);
+        }
+
+        Counters totals = getTotals();
+        out.printf("%-40s %12d%n", "Blocks of site patterns", totals.nBlocks);
+        out.printf("%-40s %12d%n", "Site patterns analysed", totals.nPatterns);
+        out.printf("%-40s %12.1f ms%n", "Time in blocks (all threads)", totals.blockNanos / 1e6);
+        out.printf("%-40s %12.1f ms%n", "  of which pruning", totals.pruneNanos / 1e6);
+        out.printf("%-40s %12d%n", "Pruning passes (blocks x rate classes)", totals.nPrunes);
+        out.printf("%-40s %12d%n", "Internal nodes computed", totals.nNodes);
+        out.printf("%-40s %12d%n", "Internal nodes skipped (no data)", totals.nSkippedNodes);
+        out.printf("%-40s %12d%n", "Matrix-vector products", totals.nProducts);
+        out.printf("%-40s %12d%n", "Tip lookups", totals.nTipLookups);
+        out.printf("%-40s %12d%n", "Scaling events", totals.nScalingEvents);
+        if (totals.nPatterns > 0) {
+            out.printf("%-40s %12.2f us%n", "Time per site pattern (all threads)", totals.blockNanos / 1e3 / totals.nPatterns);
+        }
+
+        // balance between the threads
+        synchronized (allCounters) {
+            for (Counters threadCounters : allCounters) {
+                if (threadCounters.nBlocks == 0 && threadCounters.nPrunes == 0) continue; // e.g. the main thread, when it only writes results
+                out.printf("  %-38s %8d blocks %12.1f ms%n", threadCounters.threadName, threadCounters.nBlocks, threadCounters.blockNanos / 1e6);
+            }
+        }
+        out.println("--------------------------------------------------------------");
+    }
+
+}
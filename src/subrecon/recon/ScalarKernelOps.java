@@ -0,0 +1,69 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+/**
+ * Plain Java implementation of KernelOps, relying on the JIT to vectorise.
+ */
+public class ScalarKernelOps extends KernelOps {
+
+    private final String description;
+
+    public ScalarKernelOps(){
+        this("scalar");
+    }
+
+    ScalarKernelOps(String description){
+        this.description = description;
+    }
+
+    @Override
+    public void propagate(double[] P, int pOffset, double[] partials, int childOffset, int parentOffset,
+                            int nStates, int blockSize, int nSites, double[] childSums){
+
+        for (int iParentState = 0; iParentState < nStates; iParentState++){ // same as normal pruning algorithm
+            // prob of observing data below this node, if the state at this node were iParentState
+            for (int s = 0; s < nSites; s++) {
+                childSums[s] = 0.0;
+            }
+            int rowOffset = pOffset + iParentState * nStates;
+            for (int jChildState = 0; jChildState < nStates; jChildState++){
+                double p = P[rowOffset + jChildState];
+                int childStateOffset = childOffset + jChildState * blockSize;
+                for (int s = 0; s < nSites; s++) {
+                    childSums[s] += p * partials[childStateOffset + s];
+                }
+            }
+            int parentStateOffset = parentOffset + iParentState * blockSize;
+            for (int s = 0; s < nSites; s++) {
+                partials[parentStateOffset + s] *= childSums[s];
+            }
+        } // for iParentState
+    }
+
+    @Override
+    public void accumulateProducts(double[] out, int outOffset, double constant, double[] a, int aOffset, double[] b, int bOffset, int n){
+        for (int k = 0; k < n; k++) {
+            out[outOffset + k] += constant * a[aOffset + k] * b[bOffset + k];
+        }
+    }
+
+    @Override
+    public String getDescription(){
+        return description;
+    }
+
+}
@@ -15,9 +15,7 @@
 */
 package subrecon.recon;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 import pal.datatype.AminoAcids;
 import subrecon.Constants;
 import subrecon.utils.Utils;
@@ -25,16 +23,31 @@ import subrecon.utils.Utils;
 /**
  *
  * @author Christopher Monit <c.monit.12@ucl.ac.uk>
+ * 
+ * The reported substitutions for a site, held as primitive arrays of pair codes
+ * (i*nStates + j, for state i at A and j at B) and probabilities, in output
+ * order. Text is only produced when the result is printed.
+ *
+ * The probabilities of all pairs are only kept if requested by the
+ * SubstitutionSelector (for binary output).
+ *
+ * In all-branches mode, each result is labelled with its branch, and the
+ * results of all branches for a site are grouped under one SiteResult (see
+ * getBranchResults()).
  */
 public class SiteResult {
     
+    private static final AminoAcids AA = AminoAcids.DEFAULT_INSTANCE;
+    
     private int site;
     private double marginalLnL;
     
-    private List<Double> aboveThreshProbs;
-    private List<String> aboveThreshSubs;
-    
-    private AminoAcids aa;
+    private short[] pairCodes;
+    private double[] probs;
+    private int nStates;
+    private double[] jointProbs; // all pairs, [i*nStates + j], or null
+    private String branch; // label, in all-branches mode only
+    private SiteResult[] branchResults; // one per branch, in all-branches mode only
     
     private double maxIIProb; // branchProb[i][j] where i==j
     private double maxProb;
@@ -48,66 +61,139 @@ public class SiteResult {
     public double getMarginalLnL(){
         return marginalLnL;
     }
+    
+    /*
+        jointProbs is flattened by row, [i*nStates + j]. scratch must have length >= 2*nStates*nStates
+    */
+    public SiteResult(int site, double marginalLnL, double[] jointProbs, int nStates, 
+            SubstitutionSelector selector, int sigDigits, int[] scratch){
+        this(site, null, marginalLnL, jointProbs, nStates, selector, sigDigits, scratch);
+    }
+    
+    public SiteResult(int site, String branch, double marginalLnL, double[] jointProbs, int nStates, 
+            SubstitutionSelector selector, int sigDigits, int[] scratch){
         
-    public SiteResult(int site, double marginalLnL, double[][] branchProbs, 
-            double threshold, String delimiter, boolean sortByProb, int sigDigits){
-        
-        // NB deliberately do not assign branchProbs to a field, because it is large and dont want it to persist in memory
+        // NB jointProbs is reused, so is copied if it is to be kept. It is large, so by default it is not kept
         this.site = site;
+        this.branch = branch;
         this.marginalLnL = marginalLnL;
-        
-        this.aboveThreshProbs = new ArrayList<Double>();
-        this.aboveThreshSubs = new ArrayList<String>();
-        
-        this.aa = AminoAcids.DEFAULT_INSTANCE;
+        this.nStates = nStates;
+        this.sigDigits = sigDigits;
         
         this.maxProb = -1.;
         this.maxIIProb = -1.;
-        this.sigDigits = sigDigits;
-        // save the reisdue pairs with high probabilities
-        // eg V->A, 0.99 etc
-        for (int i = 0; i < branchProbs.length; i++) {
-            for (int j = 0; j < branchProbs[0].length; j++) {
-                
+        for (int i = 0; i < nStates; i++) {
+            for (int j = 0; j < nStates; j++) {
+                double p = jointProbs[i * nStates + j];
                 if (i==j) {
-                    this.maxIIProb = Math.max(maxIIProb, branchProbs[i][j]);
-                }
-                this.maxProb = Math.max(maxProb, branchProbs[i][j]);
-                
-                if (branchProbs[i][j] >= threshold) {
-                    aboveThreshProbs.add(branchProbs[i][j]);
-                    aboveThreshSubs.add(  new StringBuilder().append(aa.getChar(i)).append(aa.getChar(j)).toString()  );
+                    this.maxIIProb = Math.max(maxIIProb, p);
                 }
-                
+                this.maxProb = Math.max(maxProb, p);
             } // for j            
         } // for i
         
-        if (sortByProb) {
-            sortByProb();
+        // save the residue pairs with high probabilities
+        // eg V->A, 0.99 etc
+        int count = selector.select(jointProbs, nStates * nStates, scratch);
+        this.pairCodes = new short[count];
+        this.probs = new double[count];
+        for (int k = 0; k < count; k++) {
+            pairCodes[k] = (short)scratch[k];
+            probs[k] = jointProbs[scratch[k]];
+        }
+        if (selector.getKeepJointProbs()) {
+            this.jointProbs = Arrays.copyOf(jointProbs, nStates * nStates);
         }
         
     }// constructor
     
-    public SiteResult(int site, double marginalLnL, double[][] branchProbs, double threshold, boolean sortByProb, int sigDigits){
-        this(site, marginalLnL, branchProbs, threshold, Constants.DELIM, sortByProb, sigDigits);
+    /*
+        Groups the results of all branches for a site
+    */
+    public SiteResult(int site, double marginalLnL, SiteResult[] branchResults){
+        this.site = site;
+        this.marginalLnL = marginalLnL;
+        this.branchResults = branchResults;
+        this.pairCodes = new short[0];
+        this.probs = new double[0];
+        this.maxProb = -1.;
+        this.maxIIProb = -1.;
+        for (SiteResult branchResult : branchResults) {
+            this.maxProb = Math.max(maxProb, branchResult.maxProb);
+            this.maxIIProb = Math.max(maxIIProb, branchResult.maxIIProb);
+        }
+    } // constructor
+    
+    private SiteResult(int site, SiteResult other){
+        this.site = site;
+        this.marginalLnL = other.marginalLnL;
+        this.pairCodes = other.pairCodes;
+        this.probs = other.probs;
+        this.nStates = other.nStates;
+        this.jointProbs = other.jointProbs;
+        this.branch = other.branch;
+        if (other.branchResults != null) {
+            this.branchResults = new SiteResult[other.branchResults.length];
+            for (int k = 0; k < branchResults.length; k++) {
+                branchResults[k] = other.branchResults[k].forSite(site);
+            }
+        }
+        this.maxIIProb = other.maxIIProb;
+        this.maxProb = other.maxProb;
+        this.sigDigits = other.sigDigits;
     } // constructor
     
+    /*
+        The same result, for another site with an identical alignment column. Arrays are shared, not copied (except branchResults)
+    */
+    public SiteResult forSite(int site){
+        return site == this.site ? this : new SiteResult(site, this);
+    }
     
-    private void sortByProb(){
-        // bubble sort (descending)
-        for (int i = 0; i < aboveThreshProbs.size() - 1; i++) {
-
-            for (int j = 1; j < aboveThreshProbs.size() - i; j++) {
-                if (aboveThreshProbs.get(j - 1) < aboveThreshProbs.get(j)) {
-                    Collections.swap(aboveThreshProbs, j-1, j);
-                    Collections.swap(aboveThreshSubs, j-1, j);
-                }
-            }// for j
-        } // for i
+    public int getSubstitutionCount(){
+        return pairCodes.length;
+    }
     
+    /*
+        State at A of the k-th reported substitution
+    */
+    public int getStateA(int k){
+        return pairCodes[k] / nStates;
+    }
+    
+    public int getStateB(int k){
+        return pairCodes[k] % nStates;
+    }
+    
+    public double getProb(int k){
+        return probs[k];
+    }
+    
+    /*
+        Probabilities of all pairs, [i*nStates + j], or null if not kept. Must not be modified
+    */
+    public double[] getJointProbs(){
+        return jointProbs;
+    }
+    
+    /*
+        Label of the branch, or null if not in all-branches mode
+    */
+    public String getBranch(){
+        return branch;
+    }
+    
+    /*
+        Results for each branch, if this groups the results of all branches for the site, otherwise null
+    */
+    public SiteResult[] getBranchResults(){
+        return branchResults;
+    }
+    
+    public int getNumStates(){
+        return nStates;
     }
     
-
     public double getMaxIIProb(){
         return maxIIProb;
     }
@@ -120,19 +206,35 @@ public class SiteResult {
         return String.join(Constants.DELIM, new String[]{"[HEADER]", "site", "ln[P(D|theta,alpha)]", "P(A=a,B=b|D,theta,alpha)"});
     }
     
+    public static String getBranchHeader(){
+        return String.join(Constants.DELIM, new String[]{"[HEADER]", "site", "branch", "ln[P(D|theta,alpha)]", "P(A=a,B=b|D,theta,alpha)"});
+    }
+    
     @Override
     public String toString(){
+        if (branchResults != null) { // one line per branch
+            StringBuilder lines = new StringBuilder();
+            for (int k = 0; k < branchResults.length; k++) {
+                if (k > 0) lines.append(System.lineSeparator());
+                lines.append(branchResults[k]);
+            }
+            return lines.toString();
+        }
         
         StringBuilder s = new StringBuilder("Result");
         s.append(Constants.DELIM);
         s.append(site+1); // correct for zero based
         s.append(Constants.DELIM);
+        if (branch != null) {
+            s.append(branch);
+            s.append(Constants.DELIM);
+        }
         s.append( Utils.roundDouble(marginalLnL, sigDigits) );
-        for (int i = 0; i < aboveThreshProbs.size(); i++) {
+        for (int k = 0; k < pairCodes.length; k++) {
             s.append(Constants.DELIM);
-            s.append(aboveThreshSubs.get(i));
+            s.append(AA.getChar(getStateA(k))).append(AA.getChar(getStateB(k)));
             s.append(Constants.SUB_PROB_DELIM); 
-            s.append( Utils.roundDouble(aboveThreshProbs.get(i), sigDigits));
+            s.append( Utils.roundDouble(probs[k], sigDigits));
         }
 
         return s.toString();
@@ -0,0 +1,299 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import subrecon.molevo.SitePatterns;
+
+/**
+ * Distributes site patterns between threads, using a work-stealing ForkJoinPool.
+ *
+ * Each pattern's cost is estimated as the number of internal nodes with data
+ * below them: whole subtrees of gaps are skipped by the PruningKernel, so gappy
+ * columns are cheaper. The patterns of each submission are sorted by decreasing
+ * cost and grouped into blocks of blockSize (normally Constants.BLOCK_SIZE), so that sites in a block
+ * have similar gap patterns and the most expensive blocks are started first,
+ * which shortens the tail.
+ *
+ * Runs of consecutive blocks form chunks, which are split in half (by estimated
+ * cost) until they are small enough to run as one task. The chunk size adapts
+ * to the measured cost: until some blocks have been timed chunks are single
+ * blocks, and afterwards they are sized to take roughly TARGET_CHUNK_NANOS,
+ * while leaving at least PARALLEL_SLACK chunks per thread to be stolen.
+ *
+ * Submission is asynchronous: results are passed to a ResultListener, from
+ * the worker threads, as each block completes.
+ *
+ * The pool belongs to the caller (e.g. a ReconstructionSession), and may be
+ * shared by several schedulers (e.g. in batch mode), so shutdown() only waits
+ * for this scheduler's work.
+ *
+ * Blocks and the time spent on them are counted in a RunStats, and recorded
+ * (with chunks) as TraceEvents.
+ */
+public class SiteScheduler {
+
+    private static final long TARGET_CHUNK_NANOS = 2000000L; // 2 ms: large enough to amortise task overhead, small enough to balance
+    private static final int PARALLEL_SLACK = 4;
+
+    /*
+        Creates the reconstruction for one block of sites
+    */
+    public interface TaskFactory {
+        Callable<SiteResult[]> create(int[] sites);
+    }
+
+    /*
+        Called from worker threads, so must be thread safe
+    */
+    public interface ResultListener {
+        void completed(int[] patterns, SiteResult[] results);
+        void failed(Throwable t);
+    }
+
+    private final FlatTree tree;
+    private final TipStates tipStates;
+    private final int nThreads;
+    private final int blockSize;
+    private final ForkJoinPool pool;
+    private final List<ForkJoinTask<?>> submitted = new ArrayList<ForkJoinTask<?>>();
+    private volatile boolean cancelled = false;
+    private final RunStats stats;
+    private final TraceEvents events = TraceEvents.get();
+
+    // measured cost of all blocks run so far, used to size chunks
+    private final AtomicLong measuredNanos = new AtomicLong();
+    private final AtomicLong measuredCost = new AtomicLong();
+
+    /*
+        Runs blocks on the pool, which is not shut down by shutdown(), counting the work in stats
+    */
+    public SiteScheduler(FlatTree tree, TipStates tipStates, ForkJoinPool pool, int blockSize, RunStats stats){
+        this.tree = tree;
+        this.tipStates = tipStates;
+        this.nThreads = pool.getParallelism();
+        this.blockSize = blockSize;
+        this.pool = pool;
+        this.stats = stats;
+    }
+
+    /*
+        Analyses the given patterns in the background, passing results to listener as each block completes
+    */
+    public void submit(SitePatterns patterns, int[] patternIndices, TaskFactory factory, ResultListener listener){
+        int nPatterns = patternIndices.length;
+        if (nPatterns == 0) return;
+
+        // most expensive patterns first
+        final long[] patternCosts = new long[nPatterns];
+        Integer[] order = new Integer[nPatterns];
+        for (int i = 0; i < nPatterns; i++) {
+            patternCosts[i] = estimateCost(patterns.getPatternSite(patternIndices[i]));
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() { // stable, so equal cost patterns stay in alignment order
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(patternCosts[b], patternCosts[a]);
+            }
+        });
+
+        int nBlocks = (nPatterns + blockSize - 1) / blockSize;
+        int[][] blockPatterns = new int[nBlocks][];
+        long[] cumulativeCosts = new long[nBlocks + 1]; // cost of blocks 0 ... b-1
+        for (int iBlock = 0; iBlock < nBlocks; iBlock++) {
+            int first = iBlock * blockSize;
+            blockPatterns[iBlock] = new int[Math.min(blockSize, nPatterns - first)];
+            long blockCost = 0;
+            for (int s = 0; s < blockPatterns[iBlock].length; s++) {
+                blockPatterns[iBlock][s] = patternIndices[order[first + s]];
+                blockCost += patternCosts[order[first + s]] + 1; // +1, so that even all-gap patterns have a cost
+            }
+            cumulativeCosts[iBlock + 1] = cumulativeCosts[iBlock] + blockCost;
+        }
+
+        ChunkTask task = new ChunkTask(new Submission(patterns, factory, listener, blockPatterns, cumulativeCosts), 0, nBlocks);
+        synchronized (submitted) {
+            submitted.add(task);
+        }
+        pool.execute(task);
+    }
+
+    /*
+        Blocks that have not started are skipped, and reported to their listener as failed. For when the
+        results are no longer wanted, e.g. after an error, so that shutdown() does not wait for them
+    */
+    public void cancel(){
+        cancelled = true;
+    }
+
+    /*
+        Waits for submitted work to finish
+    */
+    public void shutdown(){
+        synchronized (submitted) {
+            for (ForkJoinTask<?> task : submitted) {
+                task.quietlyJoin();
+            }
+            submitted.clear();
+        }
+    }
+
+    public int getThreadCount(){
+        return nThreads;
+    }
+
+    /*
+        Number of internal nodes with at least one leaf below them that is not missing data for the site
+    */
+    public long estimateCost(int site){
+        boolean[] present = new boolean[tree.getNodeCount()];
+        long cost = 0;
+        for (int iNode = 0; iNode < tree.getNodeCount(); iNode++) { // post order, so children first
+            if (tree.isLeaf(iNode)) {
+                present[iNode] = tipStates.getCode(tree.getLeafIndex(iNode), site) != TipStates.CODE_MISSING;
+            }else{
+                for (int iChild = 0; iChild < tree.getChildCount(iNode); iChild++) {
+                    present[iNode] |= present[tree.getChild(iNode, iChild)];
+                }
+                if (present[iNode]) cost++;
+            }
+        }
+        return cost;
+    }
+
+    /*
+        Largest estimated cost to run as a single task, for a submission of the given total cost
+    */
+    private long getMaxChunkCost(long submissionCost){
+        long nanos = measuredNanos.get();
+        long cost = measuredCost.get();
+        if (nanos == 0 || cost == 0) return 0; // nothing timed yet: run single blocks
+        long targetCost = (long)(TARGET_CHUNK_NANOS * ((double)cost / nanos));
+        return Math.min(targetCost, submissionCost / (PARALLEL_SLACK * nThreads));
+    }
+
+    private static class Submission {
+
+        final SitePatterns patterns;
+        final TaskFactory factory;
+        final ResultListener listener;
+        final int[][] blockPatterns;
+        final long[] cumulativeCosts;
+
+        Submission(SitePatterns patterns, TaskFactory factory, ResultListener listener, int[][] blockPatterns, long[] cumulativeCosts){
+            this.patterns = patterns;
+            this.factory = factory;
+            this.listener = listener;
+            this.blockPatterns = blockPatterns;
+            this.cumulativeCosts = cumulativeCosts;
+        }
+
+    }
+
+    /*
+        Blocks from (inclusive) ... to (exclusive) of a submission
+    */
+    private class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Submission submission;
+        private final int from;
+        private final int to;
+
+        ChunkTask(Submission submission, int from, int to){
+            this.submission = submission;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            long[] cumulativeCosts = submission.cumulativeCosts;
+            long maxChunkCost = getMaxChunkCost(cumulativeCosts[cumulativeCosts.length - 1]);
+
+            if (to - from == 1 || cumulativeCosts[to] - cumulativeCosts[from] <= maxChunkCost) {
+                Object event = events.beginChunk();
+                for (int iBlock = from; iBlock < to; iBlock++) {
+                    runBlock(iBlock);
+                }
+                if (event != null) {
+                    int nPatterns = 0;
+                    for (int iBlock = from; iBlock < to; iBlock++) {
+                        nPatterns += submission.blockPatterns[iBlock].length;
+                    }
+                    events.endChunk(event, to - from, nPatterns, cumulativeCosts[to] - cumulativeCosts[from]);
+                }
+                return;
+            }
+            // split where half of the cost is on each side
+            long halfCost = (cumulativeCosts[from] + cumulativeCosts[to]) / 2;
+            int mid = Arrays.binarySearch(cumulativeCosts, from + 1, to, halfCost);
+            if (mid < 0) mid = -mid - 1;
+            mid = Math.max(from + 1, Math.min(to - 1, mid));
+
+            invokeAll(new ChunkTask(submission, from, mid), new ChunkTask(submission, mid, to));
+        }
+
+        private void runBlock(int iBlock){
+            if (cancelled) {
+                submission.listener.failed(new CancellationException("Reconstruction cancelled"));
+                return;
+            }
+            int[] blockPatterns = submission.blockPatterns[iBlock];
+            int[] sites = new int[blockPatterns.length];
+            for (int s = 0; s < sites.length; s++) {
+                sites[s] = submission.patterns.getPatternSite(blockPatterns[s]);
+            }
+            SiteResult[] results;
+            try{
+                long blockCost = submission.cumulativeCosts[iBlock + 1] - submission.cumulativeCosts[iBlock];
+                Object event = events.beginBlock();
+                stats.blockStarted();
+                long start = System.nanoTime();
+                try{
+                    results = submission.factory.create(sites).call();
+                }finally{
+                    stats.blockFinished(sites.length); // counted even if it failed, so it is no longer in flight
+                }
+                long nanos = System.nanoTime() - start;
+                events.endBlock(event, sites.length, blockCost);
+                measuredNanos.addAndGet(nanos);
+                measuredCost.addAndGet(blockCost);
+                RunStats.Counters counters = stats.getCounters();
+                counters.nBlocks++;
+                counters.nPatterns += sites.length;
+                counters.blockNanos += nanos;
+            }catch(Throwable t){
+                submission.listener.failed(t);
+                return;
+            }
+            submission.listener.completed(blockPatterns, results);
+        }
+
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import java.util.Arrays;
+
+/**
+ * Chooses which substitutions (pairs of states at A and B) are reported for a
+ * site: those with probability >= threshold, limited to the topK most probable
+ * if topK > 0, and in descending order of probability if sortByProb (otherwise
+ * in pair order, ie AA, AR, AN ...).
+ *
+ * Sorting is a stable merge sort on primitive indices, so O(n log n) without
+ * boxing, and pairs with equal probabilities stay in pair order.
+ *
+ * If keepJointProbs, SiteResults also keep the probabilities of all pairs, for
+ * binary output.
+ *
+ * Immutable and thread safe: scratch space is supplied by the caller.
+ */
+public class SubstitutionSelector {
+
+    private final double threshold;
+    private final int topK;
+    private final boolean sortByProb;
+    private final boolean keepJointProbs;
+
+    public SubstitutionSelector(double threshold, int topK, boolean sortByProb, boolean keepJointProbs){
+        this.threshold = threshold;
+        this.topK = topK;
+        this.sortByProb = sortByProb;
+        this.keepJointProbs = keepJointProbs;
+    }
+
+    public SubstitutionSelector(double threshold, int topK, boolean sortByProb){
+        this(threshold, topK, sortByProb, false);
+    }
+
+    /*
+        Writes the indices (into probs) of the selected pairs to scratch[0 ... count-1], in output order,
+        and returns count. scratch must have length >= 2*n
+    */
+    public int select(double[] probs, int n, int[] scratch){
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (probs[i] >= threshold) {
+                scratch[count++] = i;
+            }
+        }
+
+        boolean limited = topK > 0 && count > topK;
+        if (sortByProb || limited) {
+            sortDescending(probs, scratch, count, n);
+        }
+        if (limited) {
+            count = topK;
+            if (!sortByProb) {
+                Arrays.sort(scratch, 0, count); // back to pair order
+            }
+        }
+        return count;
+    }
+
+    public double getThreshold(){
+        return threshold;
+    }
+
+    public int getTopK(){
+        return topK;
+    }
+
+    public boolean getSortByProb(){
+        return sortByProb;
+    }
+
+    public boolean getKeepJointProbs(){
+        return keepJointProbs;
+    }
+
+    /*
+        Stable bottom-up merge sort of indices[0 ... count-1] by descending probs[index].
+        Uses indices[bufferOffset ... bufferOffset+count-1] as the buffer
+    */
+    private static void sortDescending(double[] probs, int[] indices, int count, int bufferOffset){
+        int[] src = indices;
+        int srcOffset = 0;
+        int dstOffset = bufferOffset;
+        for (int width = 1; width < count; width *= 2) {
+            for (int lo = 0; lo < count; lo += 2 * width) {
+                int mid = Math.min(lo + width, count);
+                int hi = Math.min(lo + 2 * width, count);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    // take from the left unless the right is strictly larger, for stability
+                    if (probs[src[srcOffset + j]] > probs[src[srcOffset + i]]) {
+                        src[dstOffset + k++] = src[srcOffset + j++];
+                    }else{
+                        src[dstOffset + k++] = src[srcOffset + i++];
+                    }
+                }
+                while (i < mid) src[dstOffset + k++] = src[srcOffset + i++];
+                while (j < hi) src[dstOffset + k++] = src[srcOffset + j++];
+            }
+            int swap = srcOffset; srcOffset = dstOffset; dstOffset = swap;
+        }
+        if (srcOffset != 0) {
+            System.arraycopy(indices, srcOffset, indices, 0, count);
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import pal.alignment.Alignment;
+import pal.datatype.DataType;
+import pal.datatype.DataTypeTool;
+
+/**
+ * Alignment data for the leaves of a FlatTree, encoded once as one byte per
+ * leaf per site, so no names or characters need to be resolved during the
+ * pruning algorithm.
+ *
+ * Codes 0-19 are the amino acids in canonical order. The ambiguity codes B (D or N),
+ * Z (E or Q) and J (I or L) have their own codes, and everything else (gaps, X, ?)
+ * is treated as missing data. Each code has a precomputed conditional likelihood
+ * vector for a leaf, see getTipPartials.
+ */
+public class TipStates {
+
+    public static final int N_AMINO_ACIDS = 20;
+    public static final byte CODE_B = 20;
+    public static final byte CODE_Z = 21;
+    public static final byte CODE_J = 22;
+    public static final byte CODE_MISSING = 23;
+    public static final int N_CODES = 24;
+
+    // canonical indices: A R N D C Q E G H I L K M F P S T W Y V
+    private static final double[][] TIP_PARTIALS = createTipPartials();
+
+    private final byte[][] codes; // [leaf index][site]
+
+    public TipStates(Alignment alignment, FlatTree tree){
+        this.codes = new byte[tree.getLeafCount()][];
+
+        for (int iNode = 0; iNode < tree.getNodeCount(); iNode++) {
+            if (tree.isLeaf(iNode)) {
+                codes[tree.getLeafIndex(iNode)] = encode(alignment, tree.getLeafRow(iNode));
+            }
+        }
+    }
+
+    private static byte[] encode(Alignment alignment, int row){
+        DataType aminoAcids = DataTypeTool.getUniverisalAminoAcids();
+        byte[] encoded = new byte[alignment.getSiteCount()];
+
+        for (int iSite = 0; iSite < encoded.length; iSite++) {
+            char c = Character.toUpperCase(alignment.getData(row, iSite));
+            if (c == 'B') {
+                encoded[iSite] = CODE_B;
+            }else if (c == 'Z'){
+                encoded[iSite] = CODE_Z;
+            }else if (c == 'J'){
+                encoded[iSite] = CODE_J;
+            }else{
+                int state = aminoAcids.getState(c);
+                encoded[iSite] = (state >= 0 && state < N_AMINO_ACIDS) ? (byte)state : CODE_MISSING;
+            }
+        }
+        return encoded;
+    }
+
+    private static double[][] createTipPartials(){
+        double[][] partials = new double[N_CODES][N_AMINO_ACIDS];
+        for (int i = 0; i < N_AMINO_ACIDS; i++) {
+            partials[i][i] = 1.0;
+            partials[CODE_MISSING][i] = 1.0;
+        }
+        partials[CODE_B][2] = partials[CODE_B][3] = 1.0; // N, D
+        partials[CODE_Z][5] = partials[CODE_Z][6] = 1.0; // Q, E
+        partials[CODE_J][9] = partials[CODE_J][10] = 1.0; // I, L
+        return partials;
+    }
+
+    /*
+        Conditional likelihood vector for a leaf, for each code. Must not be modified
+    */
+    public static double[][] getTipPartials(){
+        return TIP_PARTIALS;
+    }
+
+    /*
+        Codes for one leaf, for all sites. Must not be modified
+    */
+    public byte[] getCodes(int leafIndex){
+        return codes[leafIndex];
+    }
+
+    public int getCode(int leafIndex, int site){
+        return codes[leafIndex][site];
+    }
+
+    public int getSiteCount(){
+        return codes.length == 0 ? 0 : codes[0].length;
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.recon;
+
+/**
+ * Events for the JDK Flight Recorder: one for each phase of a run (see
+ * RunStats), each chunk of blocks run as one task and each block of sites run
+ * by the SiteScheduler. Sites are analysed a block at a time, so blocks are the
+ * finest unit of work that can be timed without slowing the reconstruction.
+ *
+ * JfrTraceEvents uses the jdk.jfr API, which is not in Java 8, so it is only
+ * compiled when building with JDK 17 or later (see build.xml) and is loaded by
+ * reflection, as for KernelOps. Otherwise, and when not recording, events cost
+ * next to nothing.
+ *
+ * begin methods return an event to pass to the matching end method, or null if
+ * the event is not being recorded. Thread safe.
+ */
+public abstract class TraceEvents {
+
+    private static final String JFR_CLASS = "subrecon.recon.JfrTraceEvents";
+    private static final TraceEvents INSTANCE = load();
+
+    public abstract Object beginPhase();
+
+    public abstract void endPhase(Object event, String phase);
+
+    public abstract Object beginChunk();
+
+    public abstract void endChunk(Object event, int nBlocks, int nPatterns, long estimatedCost);
+
+    public abstract Object beginBlock();
+
+    public abstract void endBlock(Object event, int nPatterns, long estimatedCost);
+
+    public static TraceEvents get(){
+        return INSTANCE;
+    }
+
+    private static TraceEvents load(){
+        try{
+            return (TraceEvents)Class.forName(JFR_CLASS).getDeclaredConstructor().newInstance();
+        }catch(Exception e){ // not in this build
+            return new NoEvents();
+        }catch(LinkageError e){ // jdk.jfr not available
+            return new NoEvents();
+        }
+    }
+
+    private static class NoEvents extends TraceEvents {
+
+        @Override
+        public Object beginPhase(){
+            return null;
+        }
+
+        @Override
+        public void endPhase(Object event, String phase){
+        }
+
+        @Override
+        public Object beginChunk(){
+            return null;
+        }
+
+        @Override
+        public void endChunk(Object event, int nBlocks, int nPatterns, long estimatedCost){
+        }
+
+        @Override
+        public Object beginBlock(){
+            return null;
+        }
+
+        @Override
+        public void endBlock(Object event, int nPatterns, long estimatedCost){
+        }
+
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+import pal.substmodel.RateDistribution;
+import subrecon.molevo.SubstitutionEngine;
+
+/**
+ * Transition probability matrices for every branch in the tree and every rate
+ * category, computed once and shared (read only) by all site reconstructions.
+ * Transition matrices depend only on branch length and rate, never on the site.
+ *
+ * Matrices are stored flattened, one array per branch: the element P_ij for
+ * rate category k is found at [k*n*n + i*n + j], where n is the number of states.
+ *
+ * Branches above leaves also have tip lookup tables, giving the contribution of
+ * the leaf to its parent's conditional likelihoods for each possible leaf code.
+ *
+ * The branch joining nodes A and B (see Fig. 1 in SubRecon) is stored separately,
+ * since it is made of the two branches descending from the root.
+ */
+public class TransitionMatrixCache {
+
+    private final int nStates;
+    private final int nRates;
+
+    private final double[][] branchMatrices; // indexed by node in the FlatTree
+    private final double[][] tipLookups; // for branches above leaves, null for internal nodes
+    private final double[] rootBranchMatrices; // branch joining A and B
+
+    public TransitionMatrixCache(FlatTree tree, SubstitutionEngine engine, RateDistribution rateDist){
+
+        this.nStates = engine.getDimension();
+        this.nRates = rateDist.getNumberOfRates();
+
+        this.branchMatrices = new double[tree.getNodeCount()][];
+        this.tipLookups = new double[tree.getNodeCount()][];
+        for (int iNode = 0; iNode < tree.getNodeCount(); iNode++) {
+            branchMatrices[iNode] = computeMatrices(engine, rateDist, tree.getBranchLength(iNode));
+            if (tree.isLeaf(iNode)) {
+                tipLookups[iNode] = computeTipLookup(branchMatrices[iNode]);
+            }
+        }
+
+        this.rootBranchMatrices = computeMatrices(engine, rateDist, tree.getBranchLength(tree.getNodeA()) + tree.getBranchLength(tree.getNodeB()));
+    }
+
+    private double[] computeMatrices(SubstitutionEngine engine, RateDistribution rateDist, double branchLength){
+        double[] matrices = new double[nRates * nStates * nStates];
+        for (int iRate = 0; iRate < nRates; iRate++) {
+            engine.getTransitionProbabilities(branchLength * rateDist.getRate(iRate), matrices, getRateOffset(iRate));
+        }
+        return matrices;
+    }
+
+    /*
+        For each rate and leaf code c, the vector sum_j P_ij * tip_c[j] over parent states i,
+        where tip_c is the leaf's conditional vector for code c (see TipStates)
+    */
+    private double[] computeTipLookup(double[] matrices){
+        double[][] tipPartials = TipStates.getTipPartials();
+        double[] lookup = new double[nRates * TipStates.N_CODES * nStates];
+
+        for (int iRate = 0; iRate < nRates; iRate++) {
+            int rateOffset = getRateOffset(iRate);
+            for (int code = 0; code < TipStates.N_CODES; code++) {
+                int lookupOffset = getTipLookupOffset(iRate) + code * nStates;
+                for (int i = 0; i < nStates; i++) {
+                    double sum = 0.0;
+                    for (int j = 0; j < nStates; j++) {
+                        sum += matrices[rateOffset + i * nStates + j] * tipPartials[code][j];
+                    }
+                    lookup[lookupOffset + i] = sum;
+                }
+            }
+        }
+        return lookup;
+    }
+
+    public int getRateOffset(int iRate){
+        return iRate * nStates * nStates;
+    }
+
+    /*
+        Matrices for the branch above this node, for all rate categories. Must not be modified
+    */
+    public double[] getMatrices(int node){
+        return branchMatrices[node];
+    }
+
+    /*
+        Tip lookup table for the branch above this leaf, for all rate categories. The vector for leaf
+        code c starts at [getTipLookupOffset(iRate) + c*n]. Must not be modified
+    */
+    public double[] getTipLookup(int node){
+        return tipLookups[node];
+    }
+
+    public int getTipLookupOffset(int iRate){
+        return iRate * TipStates.N_CODES * nStates;
+    }
+
+    /*
+        Matrices for the branch joining the two children of the root, for all rate categories. Must not be modified
+    */
+    public double[] getRootBranchMatrices(){
+        return rootBranchMatrices;
+    }
+
+    /*
+        Size of the matrices and tip lookup tables, for weighing entries in a cache
+    */
+    public long getEstimatedBytes(){
+        long nDoubles = rootBranchMatrices.length;
+        for (int iNode = 0; iNode < branchMatrices.length; iNode++) {
+            nDoubles += branchMatrices[iNode].length;
+            if (tipLookups[iNode] != null) 
+                nDoubles += tipLookups[iNode].length;
+        }
+        return nDoubles * 8;
+    }
+
+    public int getNumStates(){
+        return nStates;
+    }
+
+    public int getNumRates(){
+        return nRates;
+    }
+
+}
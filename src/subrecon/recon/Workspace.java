@@ -0,0 +1,153 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package subrecon.recon;
+
+/**
+ * Scratch buffers for JointBranchReconstruction, sized for one block of sites.
+ * Each worker thread has its own Workspace (see Pool), which is reused for every
+ * block it analyses, so that the reconstruction allocates nothing in the steady
+ * state except its results.
+ */
+public class Workspace {
+
+    final PruningKernel kernel;
+    final int blockSize;
+
+    // scaled conditionals for A and B, for each rate class and site, and the scaling applied as a power of two
+    final double[] alphaConditionals;
+    final double[] betaConditionals;
+    final int[] scalingExponents;
+    final double[] logSumConditionals;
+
+    final double[] flatJointStateProbs;
+    final int[] selectionScratch; // for SubstitutionSelector
+
+    // for InsideOutsideReconstruction only, allocated on first use
+    double[] topPartials; // conditionals of the data outside each node's subtree, laid out as in PruningKernel
+    int[] topExponents; // [node*blockSize + s]
+    double[] childProducts; // P*L for each child of a node, [(iChild*nStates + i)*blockSize + s]
+    double[] aboveProducts; // top partials times all but one child product, [i*blockSize + s]
+    double[] insideA, insideB; // [i*blockSize + s]
+    double[] pairScratch; // one site's joint probabilities
+    int[] upperExponents, lowerExponents; // scaling of the conditionals at each end of a branch, [s]
+    double[] branchJointProbs; // accumulated over rate classes, [(k*blockSize + s)*nStates*nStates + pair]
+    int[] branchExponents; // [k*blockSize + s]
+
+    /*
+        counters: of the thread that will use the workspace
+    */
+    public Workspace(TipStates tipStates, FlatTree tree, TransitionMatrixCache matrices, KernelOps ops, int blockSize, RunStats.Counters counters){
+        int nStates = matrices.getNumStates();
+        int nRates = matrices.getNumRates();
+
+        this.kernel = new PruningKernel(tipStates, tree, matrices, ops, blockSize, counters);
+        this.blockSize = blockSize;
+
+        this.alphaConditionals = new double[nRates * blockSize * nStates];
+        this.betaConditionals = new double[nRates * blockSize * nStates];
+        this.scalingExponents = new int[nRates * blockSize];
+        this.logSumConditionals = new double[blockSize];
+
+        this.flatJointStateProbs = new double[nStates * nStates];
+        this.selectionScratch = new int[2 * nStates * nStates];
+    }
+
+    public PruningKernel getKernel(){
+        return kernel;
+    }
+
+    /*
+        Allocates the buffers for InsideOutsideReconstruction's passes over the tree, if not already allocated
+    */
+    void ensureInsideOutsideCapacity(FlatTree tree, int nStates){
+        if (topPartials == null) {
+            int maxChildren = 0;
+            for (int iNode = 0; iNode < tree.getNodeCount(); iNode++) {
+                maxChildren = Math.max(maxChildren, tree.getChildCount(iNode));
+            }
+            topPartials = new double[tree.getNodeCount() * nStates * blockSize];
+            topExponents = new int[tree.getNodeCount() * blockSize];
+            childProducts = new double[maxChildren * nStates * blockSize];
+            aboveProducts = new double[nStates * blockSize];
+            insideA = new double[nStates * blockSize];
+            insideB = new double[nStates * blockSize];
+            pairScratch = new double[nStates * nStates];
+            upperExponents = new int[blockSize];
+            lowerExponents = new int[blockSize];
+        }
+    }
+
+    /*
+        Allocates the joint probabilities of each branch, if not already big enough
+    */
+    void ensureBranchCapacity(int nStates, int nBranches){
+        if (branchExponents == null || branchExponents.length < nBranches * blockSize) {
+            branchJointProbs = new double[nBranches * blockSize * nStates * nStates];
+            branchExponents = new int[nBranches * blockSize];
+        }
+    }
+
+    /*
+        One Workspace per thread, created on first use
+    */
+    public static class Pool extends ThreadLocal<Workspace> {
+
+        private final TipStates tipStates;
+        private final FlatTree tree;
+        private final TransitionMatrixCache matrices;
+        private final KernelOps ops;
+        private final int blockSize;
+        private final RunStats stats;
+
+        /*
+            For benchmarks: work is counted in stats of the pool's own, which are not reported
+        */
+        public Pool(TipStates tipStates, FlatTree tree, TransitionMatrixCache matrices, KernelOps ops, int blockSize){
+            this(tipStates, tree, matrices, ops, blockSize, new RunStats());
+        }
+
+        /*
+            Work is counted in stats
+        */
+        public Pool(TipStates tipStates, FlatTree tree, TransitionMatrixCache matrices, KernelOps ops, int blockSize, RunStats stats){
+            this.tipStates = tipStates;
+            this.tree = tree;
+            this.matrices = matrices;
+            this.ops = ops;
+            this.blockSize = blockSize;
+            this.stats = stats;
+        }
+
+        @Override
+        protected Workspace initialValue(){ // on the thread that will use it
+            return new Workspace(tipStates, tree, matrices, ops, blockSize, stats.getCounters());
+        }
+
+        public int getBlockSize(){
+            return blockSize;
+        }
+
+        public KernelOps getOps(){
+            return ops;
+        }
+
+        public TipStates getTipStates(){
+            return tipStates;
+        }
+
+    }
+
+}
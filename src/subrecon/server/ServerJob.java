@@ -0,0 +1,189 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.server;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import subrecon.DataCache;
+import subrecon.ModelCache;
+import subrecon.SubRecon;
+import subrecon.SubReconException;
+import subrecon.utils.Utils;
+
+/**
+ * One reconstruction submitted to a SubReconServer: the command line of a run,
+ * its state and, once finished, a summary of its results. The output of the
+ * run is written to a file.
+ *
+ * A job is cancelled, or timed out, by interrupting the thread running it
+ * (see ReconstructionSession.checkCancelled); a job that is still queued is
+ * simply not run.
+ */
+public class ServerJob implements Runnable {
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String DONE = "done";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+    public static final String TIMED_OUT = "timed_out";
+
+    private final int id;
+    private final String[] args;
+    private final File output;
+    private final long timeoutMillis; // 0 for none
+    private final ModelCache models;
+    private final DataCache data;
+    private final ForkJoinPool pool;
+
+    // guarded by this
+    private String status = QUEUED;
+    private String stopReason = null; // CANCELLED or TIMED_OUT once requested
+    private String message = "";
+    private Future<?> future;
+    private final long submitted = System.currentTimeMillis();
+    private long started = 0;
+    private long finished = 0;
+    private boolean done = false; // the summary is set once done
+    private int nTaxa;
+    private int nSites;
+    private int nPatterns;
+    private double totalLnL;
+    private int nReportedSites;
+
+    public ServerJob(int id, String[] args, File output, long timeoutMillis, ModelCache models, DataCache data, ForkJoinPool pool){
+        this.id = id;
+        this.args = args;
+        this.output = output;
+        this.timeoutMillis = timeoutMillis;
+        this.models = models;
+        this.data = data;
+        this.pool = pool;
+    }
+
+    public int getId(){
+        return id;
+    }
+
+    public File getOutput(){
+        return output;
+    }
+
+    public long getTimeoutMillis(){
+        return timeoutMillis;
+    }
+
+    public synchronized String getStatus(){
+        return status;
+    }
+
+    public synchronized boolean isFinished(){
+        return !status.equals(QUEUED) && !status.equals(RUNNING);
+    }
+
+    synchronized void setFuture(Future<?> future){
+        this.future = future;
+    }
+
+    /*
+        reason is CANCELLED or TIMED_OUT. Returns false if the job had already finished
+    */
+    public synchronized boolean stop(String reason){
+        if (isFinished()) return false;
+        if (stopReason == null) stopReason = reason;
+        if (status.equals(QUEUED)) { // will not be run
+            status = stopReason;
+            finished = System.currentTimeMillis();
+        }
+        if (future != null) future.cancel(true);
+        return true;
+    }
+
+    @Override
+    public void run(){
+        synchronized (this) {
+            if (!status.equals(QUEUED)) return; // cancelled while queued
+            status = RUNNING;
+            started = System.currentTimeMillis();
+        }
+        String endStatus = DONE;
+        String endMessage = "";
+        SubRecon run = null;
+        PrintStream console = null;
+        try{
+            console = new PrintStream(new BufferedOutputStream(new FileOutputStream(output)));
+            run = new SubRecon(console, models, data, pool);
+            run.run(args);
+        }catch(IOException e){
+            endStatus = FAILED;
+            endMessage = "ERROR: Unable to write "+output+": "+e.getMessage();
+        }catch(SubReconException e){
+            console.println(e.getMessage());
+            endStatus = FAILED;
+            endMessage = String.valueOf(e.getMessage());
+        }catch(RuntimeException e){ // a bug, rather than a problem with the job's inputs
+            e.printStackTrace(console);
+            endStatus = FAILED;
+            endMessage = "ERROR: "+e;
+        }finally{
+            if (console != null) console.close();
+        }
+        synchronized (this) {
+            if (stopReason != null) {
+                status = stopReason;
+                message = stopReason.equals(TIMED_OUT) ? "ERROR: Run exceeded its timeout of "+(timeoutMillis / 1000.0)+" s" : "Cancelled";
+            }else{
+                status = endStatus;
+                message = endMessage;
+                if (endStatus.equals(DONE)) { // copied, so that the run's session and workspaces are not kept
+                    done = true;
+                    nTaxa = run.getTaxonCount();
+                    nSites = run.getSiteCount();
+                    nPatterns = run.getPatternCount();
+                    totalLnL = run.getTotalLnL();
+                    nReportedSites = run.getReportedSiteCount();
+                }
+            }
+            finished = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized String toJson(){
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"id\":").append(id);
+        sb.append(",\"status\":").append(Utils.jsonString(status));
+        sb.append(",\"message\":").append(Utils.jsonString(message.replaceAll("\\s+", " ")));
+        sb.append(",\"queued_seconds\":").append(((started > 0 ? started : (finished > 0 ? finished : System.currentTimeMillis())) - submitted) / 1000.0);
+        if (started > 0) {
+            sb.append(",\"run_seconds\":").append(((finished > 0 ? finished : System.currentTimeMillis()) - started) / 1000.0);
+        }
+        if (done) {
+            sb.append(",\"taxa\":").append(nTaxa);
+            sb.append(",\"sites\":").append(nSites);
+            sb.append(",\"patterns\":").append(nPatterns);
+            sb.append(",\"total_lnL\":").append(Utils.jsonNumber(totalLnL));
+            sb.append(",\"reported_sites\":").append(nReportedSites);
+        }
+        sb.append("}");
+        return sb.toString();
+    }
+
+}
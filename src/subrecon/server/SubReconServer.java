@@ -0,0 +1,472 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import subrecon.Constants;
+import subrecon.DataCache;
+import subrecon.ModelCache;
+import subrecon.utils.Utils;
+
+/**
+ * Server mode (-serve): a long running process that takes reconstruction jobs
+ * over HTTP on the loopback interface. For small alignments, starting a JVM,
+ * JIT compilation, parsing the inputs and building the model can take longer
+ * than the reconstruction, so a server keeps all of these warm: jobs share a
+ * ForkJoinPool of -T threads, a ModelCache and a DataCache of parsed
+ * alignments and trees, compiled FlatTrees and transition matrices.
+ *
+ * API (responses are JSON, except the output of a job):
+ *
+ *   POST   /jobs[?timeout=s]  body: the job's command line, one argument per line (as in an @args file)
+ *   GET    /jobs              all jobs
+ *   GET    /jobs/<id>         status of one job, and a summary of its results once done
+ *   GET    /jobs/<id>/output  what SubRecon printed, so far
+ *   DELETE /jobs/<id>         cancels a queued or running job, or forgets a finished one
+ *   GET    /status            jobs and caches
+ *   POST   /shutdown          cancels all jobs and stops the server
+ *
+ * Up to -jobs jobs run at a time, and the rest are queued. A job that runs for
+ * longer than its timeout (-timeout, unless given when it is submitted) is
+ * cancelled. The DataCache is limited to about -cachemb megabytes. Only the
+ * last Constants.SERVER_FINISHED_JOBS finished jobs are kept; older ones are
+ * forgotten, and their output deleted, as new jobs are submitted.
+ */
+public class SubReconServer {
+
+    // options for the server only, which are not given to jobs
+    private static final Set<String> SERVER_ONLY_OPTIONS = new HashSet<String>(Arrays.asList(
+            "-serve", "-batch", "-outdir", "-jobs", "-timeout", "-cachemb"));
+
+    private final int port;
+    private final int nThreads;
+    private final int nJobs;
+    private final long defaultTimeoutMillis;
+    private final File outDir;
+
+    private final ModelCache models = new ModelCache();
+    private final DataCache data;
+    private final Map<Integer, ServerJob> jobs = new LinkedHashMap<Integer, ServerJob>(); // guarded by itself
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private int nextId = 1; // guarded by jobs
+
+    private ForkJoinPool pool;
+    private ExecutorService executor; // runs jobs
+    private ScheduledExecutorService timer; // for timeouts
+
+    private SubReconServer(int port, int nThreads, int nJobs, long defaultTimeoutMillis, long cacheBytes, File outDir){
+        this.port = port;
+        this.nThreads = nThreads;
+        this.nJobs = nJobs;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.data = new DataCache(cacheBytes);
+        this.outDir = outDir;
+    }
+
+    public static boolean isServe(String[] args){
+        return Arrays.asList(args).contains("-serve");
+    }
+
+    /*
+        Runs the server described by the command line, until it is shut down. Returns the exit status
+    */
+    public static int run(String[] args){
+        int port = -1;
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        int nJobs = -1; // default: one per thread
+        double timeout = 0.0;
+        double cacheMB = Constants.SERVER_CACHE_MB;
+        String outDirPath = null;
+        try{
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (i + 1 == args.length) 
+                    throw new IllegalArgumentException("ERROR: Expected a value after "+arg);
+                String value = args[++i];
+                if (arg.equals("-serve")) {
+                    port = Integer.parseInt(value);
+                }else if (arg.equals("-threads") || arg.equals("-T")) {
+                    nThreads = Integer.parseInt(value);
+                }else if (arg.equals("-jobs")) {
+                    nJobs = Integer.parseInt(value);
+                }else if (arg.equals("-timeout")) {
+                    timeout = Double.parseDouble(value);
+                }else if (arg.equals("-cachemb")) {
+                    cacheMB = Double.parseDouble(value);
+                }else if (arg.equals("-outdir")) {
+                    outDirPath = value;
+                }else{
+                    throw new IllegalArgumentException("ERROR: "+arg+" cannot be used with -serve. Give it with each job");
+                }
+            }
+            if (port < 0 || port > 65535) 
+                throw new IllegalArgumentException("ERROR: -serve port must be 0 (any free port) to 65535");
+            if (nThreads < 1) 
+                throw new IllegalArgumentException("ERROR: -T (number of threads) must be 1 or higher");
+            if (nJobs == -1) {
+                nJobs = nThreads;
+            }else if (nJobs < 1) {
+                throw new IllegalArgumentException("ERROR: -jobs must be 1 or higher");
+            }
+            if (timeout < 0.0) 
+                throw new IllegalArgumentException("ERROR: -timeout must be 0 (none) or higher");
+            if (cacheMB < 0.0) 
+                throw new IllegalArgumentException("ERROR: -cachemb must be 0 or higher");
+        }catch(NumberFormatException e){
+            System.out.println("ERROR: -serve, -T, -jobs, -timeout and -cachemb must be numbers");
+            return 1;
+        }catch(IllegalArgumentException e){
+            System.out.println(e.getMessage());
+            return 1;
+        }
+
+        File outDir;
+        try{
+            outDir = outDirPath == null ? Files.createTempDirectory("subrecon-server").toFile() : new File(outDirPath);
+        }catch(IOException e){
+            System.out.println("ERROR: Unable to create output directory: "+e.getMessage());
+            return 1;
+        }
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            System.out.println("ERROR: Unable to create output directory "+outDir);
+            return 1;
+        }
+        return new SubReconServer(port, nThreads, nJobs, (long)(timeout * 1000), (long)(cacheMB * 1024 * 1024), outDir).serve();
+    }
+
+    private int serve(){
+        HttpServer server;
+        try{
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        }catch(IOException e){
+            System.out.println("ERROR: Unable to listen on port "+port+": "+e.getMessage());
+            return 1;
+        }
+        pool = new ForkJoinPool(nThreads);
+        executor = Executors.newFixedThreadPool(nJobs);
+        timer = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService handlers = Executors.newFixedThreadPool(Constants.SERVER_HANDLER_THREADS);
+        server.setExecutor(handlers);
+        server.createContext("/jobs", new JobsHandler());
+        server.createContext("/status", new StatusHandler());
+        server.createContext("/shutdown", new ShutdownHandler());
+        server.start();
+
+        System.out.printf("SubRecon server listening on http://%s:%d/ with %d thread(s), %d job(s) at a time. Job output in %s%n", 
+                            server.getAddress().getAddress().getHostAddress(), server.getAddress().getPort(), nThreads, nJobs, outDir);
+        System.out.flush();
+
+        while (stopped.getCount() > 0) {
+            try{
+                stopped.await();
+            }catch(InterruptedException e){
+                break;
+            }
+        }
+        synchronized (jobs) {
+            for (ServerJob job : jobs.values()) {
+                job.stop(ServerJob.CANCELLED);
+            }
+        }
+        server.stop(1); // lets the reply to /shutdown be sent
+        handlers.shutdown();
+        timer.shutdownNow();
+        executor.shutdownNow();
+        try{
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        pool.shutdown();
+        System.out.println("SubRecon server stopped");
+        return 0;
+    }
+
+    private ServerJob submit(String[] args, long timeoutMillis){
+        final ServerJob job;
+        synchronized (jobs) {
+            int id = nextId++;
+            job = new ServerJob(id, args, new File(outDir, "job-"+id+".out"), timeoutMillis, models, data, pool);
+            jobs.put(id, job);
+            forgetOldJobs();
+        }
+        job.setFuture(executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (job.getTimeoutMillis() > 0) {
+                    timer.schedule(new Runnable() { // the timeout starts when the job does, not while it is queued
+                        @Override
+                        public void run() {
+                            job.stop(ServerJob.TIMED_OUT);
+                        }
+                    }, job.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+                }
+                job.run();
+            }
+        }));
+        return job;
+    }
+
+    /*
+        Forgets the oldest finished jobs, and deletes their output, once there are more than
+        Constants.SERVER_FINISHED_JOBS. Called holding the lock on jobs
+    */
+    private void forgetOldJobs(){
+        int nFinished = 0;
+        for (ServerJob job : jobs.values()) {
+            if (job.isFinished()) nFinished++;
+        }
+        Iterator<ServerJob> iterator = jobs.values().iterator();
+        while (nFinished > Constants.SERVER_FINISHED_JOBS && iterator.hasNext()) {
+            ServerJob job = iterator.next();
+            if (job.isFinished()) {
+                iterator.remove();
+                job.getOutput().delete();
+                nFinished--;
+            }
+        }
+    }
+
+    private ServerJob getJob(int id){
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    private class JobsHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try{
+                String method = exchange.getRequestMethod();
+                String[] path = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/"); // "", "jobs", id, "output"
+                if (path.length == 2) {
+                    if (method.equals("POST")) {
+                        createJob(exchange);
+                    }else if (method.equals("GET")) {
+                        StringBuilder sb = new StringBuilder("[");
+                        synchronized (jobs) {
+                            for (ServerJob job : jobs.values()) {
+                                if (sb.length() > 1) sb.append(",");
+                                sb.append(job.toJson());
+                            }
+                        }
+                        sendJson(exchange, 200, sb.append("]").toString());
+                    }else{
+                        sendError(exchange, 405, "Use GET or POST");
+                    }
+                    return;
+                }
+                ServerJob job = null;
+                if (path.length <= 4) {
+                    try{
+                        job = getJob(Integer.parseInt(path[2]));
+                    }catch(NumberFormatException e){
+                        // not found
+                    }
+                }
+                if (job == null || (path.length == 4 && !path[3].equals("output"))) {
+                    sendError(exchange, 404, "No such job");
+                }else if (path.length == 4) {
+                    if (method.equals("GET")) {
+                        sendOutput(exchange, job);
+                    }else{
+                        sendError(exchange, 405, "Use GET");
+                    }
+                }else if (method.equals("GET")) {
+                    sendJson(exchange, 200, job.toJson());
+                }else if (method.equals("DELETE")) {
+                    if (job.stop(ServerJob.CANCELLED)) {
+                        sendJson(exchange, 202, job.toJson());
+                    }else{ // finished, so forget it
+                        synchronized (jobs) {
+                            jobs.remove(job.getId());
+                        }
+                        job.getOutput().delete();
+                        sendJson(exchange, 200, job.toJson());
+                    }
+                }else{
+                    sendError(exchange, 405, "Use GET or DELETE");
+                }
+            }finally{
+                exchange.close();
+            }
+        }
+
+        private void createJob(HttpExchange exchange) throws IOException {
+            List<String> args = new ArrayList<String>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) args.add(line);
+            }
+            if (args.isEmpty()) {
+                sendError(exchange, 400, "The request body must be the job's command line, one argument per line");
+                return;
+            }
+            for (String arg : args) {
+                if (SERVER_ONLY_OPTIONS.contains(arg)) {
+                    sendError(exchange, 400, arg+" cannot be used in a job");
+                    return;
+                }
+            }
+            long timeoutMillis = defaultTimeoutMillis;
+            String timeout = getQueryParameter(exchange.getRequestURI(), "timeout");
+            if (timeout != null) {
+                try{
+                    timeoutMillis = (long)(Double.parseDouble(timeout) * 1000);
+                }catch(NumberFormatException e){
+                    timeoutMillis = -1;
+                }
+                if (timeoutMillis < 0) {
+                    sendError(exchange, 400, "timeout must be a number of seconds, or 0 for none");
+                    return;
+                }
+            }
+            ServerJob job = submit(args.toArray(new String[args.size()]), timeoutMillis);
+            exchange.getResponseHeaders().set("Location", "/jobs/"+job.getId());
+            sendJson(exchange, 201, job.toJson());
+        }
+
+    }
+
+    private class StatusHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try{
+                Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+                for (String status : new String[]{ ServerJob.QUEUED, ServerJob.RUNNING, ServerJob.DONE, ServerJob.FAILED, ServerJob.CANCELLED, ServerJob.TIMED_OUT }) {
+                    counts.put(status, 0);
+                }
+                synchronized (jobs) {
+                    for (ServerJob job : jobs.values()) {
+                        String status = job.getStatus();
+                        counts.put(status, counts.get(status) + 1);
+                    }
+                }
+                StringBuilder sb = new StringBuilder();
+                sb.append("{\"threads\":").append(nThreads);
+                sb.append(",\"concurrent_jobs\":").append(nJobs);
+                sb.append(",\"jobs\":{");
+                boolean first = true;
+                for (Map.Entry<String, Integer> count : counts.entrySet()) {
+                    if (!first) sb.append(",");
+                    sb.append("\"").append(count.getKey()).append("\":").append(count.getValue());
+                    first = false;
+                }
+                sb.append("},\"models\":{\"entries\":").append(models.getSize()).append(",\"requests\":").append(models.getRequestCount()).append("}");
+                sb.append(",\"data\":{\"entries\":").append(data.getSize()).append(",\"requests\":").append(data.getRequestCount());
+                sb.append(",\"hits\":").append(data.getHitCount()).append(",\"bytes\":").append(data.getEstimatedBytes());
+                sb.append(",\"max_bytes\":").append(data.getMaxBytes()).append("}}");
+                sendJson(exchange, 200, sb.toString());
+            }finally{
+                exchange.close();
+            }
+        }
+
+    }
+
+    private class ShutdownHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try{
+                if (!exchange.getRequestMethod().equals("POST")) {
+                    sendError(exchange, 405, "Use POST");
+                    return;
+                }
+                sendJson(exchange, 200, "{\"status\":\"stopping\"}");
+            }finally{
+                exchange.close();
+            }
+            stopped.countDown();
+        }
+
+    }
+
+    private static String getQueryParameter(URI uri, String name){
+        String query = uri.getQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name)) return pair.substring(equals + 1);
+        }
+        return null;
+    }
+
+    private static void sendOutput(HttpExchange exchange, ServerJob job) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        File output = job.getOutput();
+        if (!output.exists()) { // not started yet
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, 0); // chunked, as a running job's output is still growing
+        InputStream in = new FileInputStream(output);
+        try{
+            OutputStream out = exchange.getResponseBody();
+            byte[] buffer = new byte[Constants.OUTPUT_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }finally{
+            in.close();
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static void sendError(HttpExchange exchange, int code, String message) throws IOException {
+        sendJson(exchange, code, "{\"error\":"+Utils.jsonString(message)+"}");
+    }
+
+}
@@ -0,0 +1,443 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.sim;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import pal.datatype.AminoAcids;
+import subrecon.molevo.SubstitutionEngine;
+
+/**
+ * Evolves amino acid sequences down a SimulatedTree under a substitution model
+ * with discrete rate categories, as assumed by SubRecon: each site has a rate
+ * category, and its root state is drawn from the equilibrium frequencies.
+ *
+ * Each node's sequence is drawn from its parent's using the transition
+ * matrices of its branch, which are computed once per node. Most sites do not
+ * change along a branch, so the chance of staying in the parent's state is
+ * tested first, and each site needs only 32 random bits.
+ *
+ * A node's sequence is only kept until its children's are drawn, and the
+ * smaller subtree of each node is simulated first, so few sequences are held
+ * at once, whatever the shape of the tree. Subtrees run in parallel. Each node
+ * has its own random number generator, seeded from the given seed and the
+ * node, so the output only depends on the seed, not on the number of threads.
+ * Sequences are written straight to their places in the output files, whose
+ * layout is fixed in advance.
+ */
+public class AlignmentSimulator {
+
+    public static final char GAP = '-';
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final SimulatedTree tree;
+    private final SubstitutionEngine engine;
+    private final int nStates;
+    private final int nCat;
+    private final double[] rates;
+    private final double[] cumulativeCategories;
+    private final double[] cumulativeFrequencies;
+    private final double gapFraction;
+    private final int[] leafCounts; // of each node's subtree
+    private final int[] leafRecords; // record of each leaf in the alignment file, -1 for internal nodes
+    private final byte[] stateChars;
+
+    /*
+        rates and categoryProbabilities are those of the rate distribution. gapFraction is the chance that each site of
+        each leaf is a gap
+    */
+    public AlignmentSimulator(SimulatedTree tree, SubstitutionEngine engine, double[] rates, double[] categoryProbabilities, double gapFraction){
+        if (!(gapFraction >= 0.0 && gapFraction <= 1.0))
+            throw new IllegalArgumentException("ERROR: Gap fraction must be between 0 and 1");
+        this.tree = tree;
+        this.engine = engine;
+        this.nStates = engine.getDimension();
+        this.nCat = rates.length;
+        this.rates = rates.clone();
+        this.cumulativeCategories = cumulative(categoryProbabilities);
+        this.cumulativeFrequencies = cumulative(engine.getEquilibriumFrequencies());
+        this.gapFraction = gapFraction;
+
+        this.leafCounts = new int[tree.getNodeCount()];
+        this.leafRecords = new int[tree.getNodeCount()];
+        int nLeaves = 0;
+        for (int node = 0; node < tree.getNodeCount(); node++) {
+            leafRecords[node] = tree.isLeaf(node) ? nLeaves++ : -1;
+        }
+        for (int node = tree.getNodeCount() - 1; node >= 0; node--) { // children come after their parents
+            leafCounts[node] = tree.isLeaf(node) ? 1 : leafCounts[tree.getLeft(node)] + leafCounts[tree.getRight(node)];
+        }
+
+        AminoAcids aminoAcids = new AminoAcids();
+        this.stateChars = new byte[nStates];
+        for (int a = 0; a < nStates; a++) {
+            stateChars[a] = (byte)aminoAcids.getChar(a);
+        }
+    }
+
+    private static double[] cumulative(double[] probabilities){
+        double[] cumulative = new double[probabilities.length];
+        double sum = 0.0;
+        for (int i = 0; i < probabilities.length; i++) {
+            sum += probabilities[i];
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < cumulative.length; i++) {
+            cumulative[i] /= sum;
+        }
+        cumulative[cumulative.length - 1] = 1.0;
+        return cumulative;
+    }
+
+    /*
+        Simulates nSites sites, writing the leaves (with gaps) to alignmentFile, as FASTA or sequential PHYLIP, and the
+        true states of every node (without gaps) to truthFile, as FASTA, unless it is null. Returns the number of sites
+        that changed along a branch, summed over all branches
+    */
+    public long simulate(int nSites, long seed, int nThreads, File alignmentFile, boolean phylip, File truthFile) throws IOException {
+        if (nSites < 1)
+            throw new IllegalArgumentException("ERROR: Number of sites must be 1 or more");
+
+        String[] labels = tree.getLabels();
+        String[] leafNames = new String[tree.getLeafCount()];
+        for (int node = 0; node < tree.getNodeCount(); node++) {
+            if (leafRecords[node] >= 0) leafNames[leafRecords[node]] = labels[node];
+        }
+        SequenceFile alignment = new SequenceFile(alignmentFile, leafNames, nSites, phylip);
+        SequenceFile truth = null;
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try{
+            if (truthFile != null) {
+                truth = new SequenceFile(truthFile, labels, nSites, false);
+            }
+            Run run = new Run(pool, nSites, seed, alignment, truth);
+            pool.execute(run.createTask(0, run.createRoot()));
+            return run.await();
+        }finally{
+            pool.shutdownNow();
+            alignment.close();
+            if (truth != null) truth.close();
+        }
+    }
+
+    /*
+        Seed of a node's random number generator
+    */
+    private static long getSeed(long seed, int node){
+        long z = seed + (node + 1L) * GOLDEN_GAMMA; // the mixing function of SplittableRandom
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /*
+        The state of one simulation: the site categories, sequences that can be reused, and the tasks in flight
+    */
+    private class Run {
+
+        private final ForkJoinPool pool;
+        private final int nSites;
+        private final long seed;
+        private final SequenceFile alignment;
+        private final SequenceFile truth;
+        private final byte[] categories;
+        private final ArrayDeque<byte[]> freeSequences = new ArrayDeque<byte[]>(); // guarded by itself
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicLong nChanges = new AtomicLong();
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        Run(ForkJoinPool pool, int nSites, long seed, SequenceFile alignment, SequenceFile truth){
+            this.pool = pool;
+            this.nSites = nSites;
+            this.seed = seed;
+            this.alignment = alignment;
+            this.truth = truth;
+            this.categories = new byte[nSites];
+        }
+
+        /*
+            Draws the categories of the sites and the root sequence
+        */
+        byte[] createRoot(){
+            SplittableRandom random = new SplittableRandom(getSeed(seed, 0));
+            byte[] root = new byte[nSites];
+            for (int s = 0; s < nSites; s++) {
+                categories[s] = (byte)draw(cumulativeCategories, 0, nCat, random.nextDouble());
+                root[s] = (byte)draw(cumulativeFrequencies, 0, nStates, random.nextDouble());
+            }
+            return root;
+        }
+
+        /*
+            A task that writes the subtree of node, whose sequence is given
+        */
+        Runnable createTask(final int node, final byte[] sequence){
+            pending.incrementAndGet();
+            return new Runnable() {
+                @Override
+                public void run() {
+                    try{
+                        if (failure.get() == null) simulateSubtree(node, sequence);
+                    }catch(Throwable t){
+                        failure.compareAndSet(null, t);
+                    }
+                    if (pending.decrementAndGet() == 0) done.countDown();
+                }
+            };
+        }
+
+        long await() throws IOException {
+            try{
+                done.await();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while simulating", e);
+            }
+            Throwable t = failure.get();
+            if (t != null) {
+                if (t instanceof IOException) throw (IOException)t;
+                if (t instanceof RuntimeException) throw (RuntimeException)t;
+                if (t instanceof Error) throw (Error)t;
+                throw new RuntimeException(t);
+            }
+            return nChanges.get();
+        }
+
+        /*
+            Follows the larger child down the tree, handing the smaller one to another task. Finished sequences are reused
+        */
+        private void simulateSubtree(int node, byte[] sequence) throws IOException {
+            long[] stayThresholds = new long[nCat * nStates];
+            long[] changeThresholds = new long[nCat * nStates * nStates];
+            double[] P = new double[nStates * nStates];
+            while (true) {
+                if (tree.isLeaf(node)) {
+                    byte[] chars = toChars(sequence);
+                    if (truth != null) truth.write(node, chars);
+                    addGaps(chars, new SplittableRandom(getSeed(seed, node)));
+                    alignment.write(leafRecords[node], chars);
+                    release(sequence);
+                    return;
+                }
+
+                if (truth != null) truth.write(node, toChars(sequence));
+                int left = tree.getLeft(node);
+                int right = tree.getRight(node);
+                byte[] leftSequence = evolve(left, sequence, stayThresholds, changeThresholds, P);
+                byte[] rightSequence = evolve(right, sequence, stayThresholds, changeThresholds, P);
+                release(sequence);
+                if (leafCounts[left] <= leafCounts[right]) {
+                    pool.execute(createTask(left, leftSequence));
+                    node = right;
+                    sequence = rightSequence;
+                }else{
+                    pool.execute(createTask(right, rightSequence));
+                    node = left;
+                    sequence = leftSequence;
+                }
+            }
+        }
+
+        /*
+            Draws the sequence of node from its parent's
+        */
+        private byte[] evolve(int node, byte[] parent, long[] stayThresholds, long[] changeThresholds, double[] P){
+            // for each rate category and parent state a: the chance of staying at a, then the cumulative chances of
+            // changing to each b after it, as 32 bit fractions
+            for (int iRate = 0; iRate < nCat; iRate++) {
+                engine.getTransitionProbabilities(tree.getLength(node) * rates[iRate], P, 0);
+                for (int a = 0; a < nStates; a++) {
+                    int row = iRate * nStates + a;
+                    double sum = P[a * nStates + a];
+                    stayThresholds[row] = toThreshold(sum);
+                    int last = 0;
+                    for (int b = 0; b < nStates; b++) {
+                        if (b != a) {
+                            sum += P[a * nStates + b];
+                            last = b;
+                        }
+                        changeThresholds[row * nStates + b] = toThreshold(sum);
+                    }
+                    changeThresholds[row * nStates + last] = Long.MAX_VALUE; // in case of rounding
+                }
+            }
+
+            byte[] child;
+            synchronized (freeSequences) {
+                child = freeSequences.poll();
+            }
+            if (child == null) child = new byte[nSites];
+            SplittableRandom random = new SplittableRandom(getSeed(seed, node));
+            long nNodeChanges = 0;
+            for (int s = 0; s < nSites; s += 2) {
+                // 32 random bits are plenty for one site, so each random number serves two
+                long bits = random.nextLong();
+                nNodeChanges += drawSite(parent, child, categories, s, bits >>> 32, stayThresholds, changeThresholds);
+                if (s + 1 < nSites) {
+                    nNodeChanges += drawSite(parent, child, categories, s + 1, bits & 0xffffffffL, stayThresholds, changeThresholds);
+                }
+            }
+            nChanges.addAndGet(nNodeChanges);
+            return child;
+        }
+
+        private void release(byte[] sequence){
+            synchronized (freeSequences) {
+                freeSequences.push(sequence);
+            }
+        }
+
+        /*
+            Draws the child's state at site s, given 32 random bits. Returns 1 if it changed, 0 otherwise
+        */
+        private int drawSite(byte[] parent, byte[] child, byte[] categories, int s, long u, long[] stayThresholds, long[] changeThresholds){
+            int a = parent[s];
+            int row = categories[s] * nStates + a;
+            if (u < stayThresholds[row]) {
+                child[s] = (byte)a;
+                return 0;
+            }
+            int b = 0;
+            while (u >= changeThresholds[row * nStates + b]) {
+                b++;
+            }
+            child[s] = (byte)b;
+            return 1;
+        }
+
+        private byte[] toChars(byte[] sequence){
+            byte[] chars = new byte[nSites];
+            for (int s = 0; s < nSites; s++) {
+                chars[s] = stateChars[sequence[s]];
+            }
+            return chars;
+        }
+
+        /*
+            Each site is a gap with probability gapFraction. Skips from gap to gap, rather than drawing for every site
+        */
+        private void addGaps(byte[] chars, SplittableRandom random){
+            if (gapFraction >= 1.0) {
+                Arrays.fill(chars, (byte)GAP);
+            }else if (gapFraction > 0.0) {
+                double logNoGap = Math.log(1.0 - gapFraction);
+                double s = Math.floor(Math.log(1.0 - random.nextDouble()) / logNoGap);
+                while (s < chars.length) {
+                    chars[(int)s] = (byte)GAP;
+                    s += 1.0 + Math.floor(Math.log(1.0 - random.nextDouble()) / logNoGap);
+                }
+            }
+        }
+
+    }
+
+    private static long toThreshold(double p){
+        return (long)Math.min(p * 0x1p32, 0x1p32);
+    }
+
+    /*
+        Index i of the first cumulative[offset + i] above u
+    */
+    private static int draw(double[] cumulative, int offset, int n, double u){
+        for (int i = 0; i < n - 1; i++) {
+            if (u < cumulative[offset + i]) return i;
+        }
+        return n - 1;
+    }
+
+    /*
+        An alignment file of fixed layout, with one record per sequence, each on one line, so that records can be
+        written in any order, from any thread
+    */
+    private static class SequenceFile implements Closeable {
+
+        private static final int PHYLIP_NAME_LENGTH = 10;
+
+        private final FileChannel channel;
+        private final long[] recordOffsets; // of the first site of each record
+
+        SequenceFile(File file, String[] names, int nSites, boolean phylip) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+            try{
+                raf.setLength(0);
+                this.recordOffsets = new long[names.length];
+                long offset = 0;
+                if (phylip) {
+                    offset += write(" "+names.length+" "+nSites+"\n", offset);
+                }
+                for (int i = 0; i < names.length; i++) {
+                    if (phylip) {
+                        StringBuilder name = new StringBuilder(names[i]).append(' ');
+                        while (name.length() < PHYLIP_NAME_LENGTH) {
+                            name.append(' ');
+                        }
+                        offset += write(name.toString(), offset);
+                    }else{
+                        offset += write(">"+names[i]+"\n", offset);
+                    }
+                    recordOffsets[i] = offset;
+                    offset += nSites;
+                    offset += write("\n", offset);
+                }
+            }catch(IOException e){
+                channel.close();
+                throw e;
+            }
+        }
+
+        private int write(String text, long offset) throws IOException {
+            write(text.getBytes(StandardCharsets.US_ASCII), offset);
+            return text.length();
+        }
+
+        private void write(byte[] bytes, long offset) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                offset += channel.write(buffer, offset);
+            }
+        }
+
+        /*
+            Writes the sequence of the given record
+        */
+        void write(int record, byte[] chars) throws IOException {
+            write(chars, recordOffsets[record]);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,407 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import subrecon.recon.BranchSet;
+
+/**
+ * A random rooted binary tree, for simulating data. Nodes are numbered in pre
+ * order from the root (0), so a parent always comes before its children, and
+ * leaves are named t1, t2, ... from left to right.
+ *
+ * Shapes:
+ *   balanced     every internal node splits its leaves as evenly as possible
+ *   caterpillar  every internal node has a leaf child, so the tree is as deep as possible
+ *   birthdeath   a birth-death process (birth rate 1, death rate = extinction) run
+ *                forwards until it has the required number of lineages, with extinct
+ *                lineages removed
+ *
+ * Branch lengths of balanced and caterpillar trees are drawn from an
+ * exponential distribution; those of birth-death trees are the process's
+ * times. Either way they are scaled to the requested mean.
+ *
+ * Trees are built and written without recursion, so caterpillars of any size
+ * are fine.
+ */
+public class SimulatedTree {
+
+    public static final String BALANCED = "balanced";
+    public static final String CATERPILLAR = "caterpillar";
+    public static final String BIRTH_DEATH = "birthdeath";
+    public static final String ROOT_LABEL = "root";
+
+    private static final int MAX_BIRTH_DEATH_ATTEMPTS = 10000;
+
+    private final int[] parents;
+    private final int[] left; // -1 for leaves
+    private final int[] right;
+    private final double[] lengths; // of the branch above each node; 0 for the root
+    private final String[] names; // leaves only
+    private final int nLeaves;
+
+    /*
+        Renumbers the nodes of the given tree (rooted at 0, with -1 children for leaves) in pre order,
+        names the leaves, and scales the branch lengths to the given mean
+    */
+    private SimulatedTree(int nNodes, int[] oldLeft, int[] oldRight, double[] oldLengths, double meanBranchLength){
+        this.parents = new int[nNodes];
+        this.left = new int[nNodes];
+        this.right = new int[nNodes];
+        this.lengths = new double[nNodes];
+        this.names = new String[nNodes];
+
+        int[] stack = new int[nNodes];
+        int[] stackParents = new int[nNodes];
+        int top = 0;
+        stack[top] = 0;
+        stackParents[top++] = -1;
+        int next = 0;
+        int leaf = 0;
+        double totalLength = 0.0;
+        while (top > 0) {
+            top--;
+            int oldNode = stack[top];
+            int node = next++;
+            int parent = stackParents[top];
+            parents[node] = parent;
+            if (parent >= 0) {
+                lengths[node] = oldLengths[oldNode];
+                totalLength += lengths[node];
+                if (left[parent] < 0) {
+                    left[parent] = node;
+                }else{
+                    right[parent] = node;
+                }
+            }
+            left[node] = -1;
+            right[node] = -1;
+            if (oldLeft[oldNode] < 0) {
+                names[node] = "t" + (++leaf);
+            }else{
+                // right is popped after left, so numbered after the whole left subtree
+                stack[top] = oldRight[oldNode];
+                stackParents[top++] = node;
+                stack[top] = oldLeft[oldNode];
+                stackParents[top++] = node;
+            }
+        }
+        this.nLeaves = leaf;
+
+        double scale = totalLength > 0.0 ? meanBranchLength * (nNodes - 1) / totalLength : 0.0;
+        for (int node = 1; node < nNodes; node++) {
+            lengths[node] *= scale;
+        }
+    }
+
+    /*
+        shape is BALANCED, CATERPILLAR or BIRTH_DEATH. extinction (death rate / birth rate) is only used by BIRTH_DEATH.
+        Throws IllegalArgumentException for bad values
+    */
+    public static SimulatedTree create(String shape, int nTaxa, double meanBranchLength, double extinction, SplittableRandom random){
+        if (nTaxa < 2)
+            throw new IllegalArgumentException("ERROR: A tree needs at least 2 taxa");
+        if (!(meanBranchLength >= 0.0))
+            throw new IllegalArgumentException("ERROR: Mean branch length must be 0 or more");
+        if (shape.equals(BALANCED)) {
+            return balanced(nTaxa, meanBranchLength, random);
+        }else if (shape.equals(CATERPILLAR)) {
+            return caterpillar(nTaxa, meanBranchLength, random);
+        }else if (shape.equals(BIRTH_DEATH)) {
+            return birthDeath(nTaxa, meanBranchLength, extinction, random);
+        }else{
+            throw new IllegalArgumentException("ERROR: Unknown tree shape '"+shape+"' (expected "+BALANCED+", "+CATERPILLAR+" or "+BIRTH_DEATH+")");
+        }
+    }
+
+    private static SimulatedTree balanced(int nTaxa, double meanBranchLength, SplittableRandom random){
+        int nNodes = 2 * nTaxa - 1;
+        int[] left = new int[nNodes];
+        int[] right = new int[nNodes];
+        double[] lengths = new double[nNodes];
+        int[] leafCounts = new int[nNodes];
+        leafCounts[0] = nTaxa;
+        int next = 1;
+        for (int node = 0; node < nNodes; node++) { // children are always added after their parent
+            lengths[node] = exponential(random);
+            if (leafCounts[node] == 1) {
+                left[node] = -1;
+                right[node] = -1;
+            }else{
+                left[node] = next;
+                leafCounts[next++] = (leafCounts[node] + 1) / 2;
+                right[node] = next;
+                leafCounts[next++] = leafCounts[node] / 2;
+            }
+        }
+        return new SimulatedTree(nNodes, left, right, lengths, meanBranchLength);
+    }
+
+    private static SimulatedTree caterpillar(int nTaxa, double meanBranchLength, SplittableRandom random){
+        int nNodes = 2 * nTaxa - 1;
+        int[] left = new int[nNodes];
+        int[] right = new int[nNodes];
+        double[] lengths = new double[nNodes];
+        Arrays.fill(left, -1);
+        Arrays.fill(right, -1);
+        int spine = 0;
+        for (int node = 1; node < nNodes; node += 2) { // each spine node has a leaf on the left
+            left[spine] = node;
+            right[spine] = node + 1;
+            spine = node + 1;
+        }
+        for (int node = 0; node < nNodes; node++) {
+            lengths[node] = exponential(random);
+        }
+        return new SimulatedTree(nNodes, left, right, lengths, meanBranchLength);
+    }
+
+    private static SimulatedTree birthDeath(int nTaxa, double meanBranchLength, double extinction, SplittableRandom random){
+        if (!(extinction >= 0.0 && extinction < 1.0))
+            throw new IllegalArgumentException("ERROR: Extinction (death rate / birth rate) must be at least 0 and less than 1");
+        double pBirth = 1.0 / (1.0 + extinction);
+
+        for (int attempt = 0; attempt < MAX_BIRTH_DEATH_ATTEMPTS; attempt++) {
+            int capacity = 4 * nTaxa;
+            int[] left = new int[capacity];
+            int[] right = new int[capacity];
+            double[] times = new double[capacity]; // of each node's birth or death
+            int[] alive = new int[nTaxa];
+            // the root and its two lineages
+            left[0] = 1;
+            right[0] = 2;
+            left[1] = right[1] = left[2] = right[2] = -1;
+            int nNodes = 3;
+            alive[0] = 1;
+            alive[1] = 2;
+            int nAlive = 2;
+            double time = 0.0;
+
+            while (nAlive > 0 && nAlive < nTaxa) {
+                time += exponential(random) / ((1.0 + extinction) * nAlive);
+                int iAlive = random.nextInt(nAlive);
+                int node = alive[iAlive];
+                times[node] = time;
+                if (random.nextDouble() < pBirth) {
+                    if (nNodes + 2 > capacity) {
+                        capacity *= 2;
+                        left = Arrays.copyOf(left, capacity);
+                        right = Arrays.copyOf(right, capacity);
+                        times = Arrays.copyOf(times, capacity);
+                    }
+                    left[node] = nNodes;
+                    right[node] = nNodes + 1;
+                    left[nNodes] = right[nNodes] = left[nNodes + 1] = right[nNodes + 1] = -1;
+                    alive[iAlive] = nNodes;
+                    alive[nAlive++] = nNodes + 1;
+                    nNodes += 2;
+                }else{
+                    alive[iAlive] = alive[--nAlive]; // extinct: a leaf that is not alive
+                }
+            }
+            if (nAlive == 0) continue; // all lineages died out, so start again
+
+            boolean[] survives = new boolean[nNodes];
+            for (int iAlive = 0; iAlive < nAlive; iAlive++) {
+                times[alive[iAlive]] = time;
+                survives[alive[iAlive]] = true;
+            }
+            for (int node = nNodes - 1; node >= 0; node--) { // children come after parents
+                if (left[node] >= 0) {
+                    survives[node] = survives[left[node]] || survives[right[node]];
+                }
+            }
+            return prune(left, right, times, survives, nTaxa, meanBranchLength);
+        }
+        throw new IllegalArgumentException("ERROR: Birth-death process died out "+MAX_BIRTH_DEATH_ATTEMPTS+" times; use a lower extinction");
+    }
+
+    /*
+        The tree of the surviving lineages: extinct subtrees are removed, and nodes left with one child are
+        joined to it
+    */
+    private static SimulatedTree prune(int[] left, int[] right, double[] times, boolean[] survives, int nTaxa, double meanBranchLength){
+        int nNodes = 2 * nTaxa - 1;
+        int[] newLeft = new int[nNodes];
+        int[] newRight = new int[nNodes];
+        double[] newTimes = new double[nNodes];
+        int[] stack = new int[nNodes];
+        int[] stackParents = new int[nNodes];
+        int top = 0;
+        stack[top] = survivingDescendant(0, left, right, survives);
+        stackParents[top++] = -1;
+        int next = 0;
+        while (top > 0) {
+            top--;
+            int oldNode = stack[top];
+            int node = next++;
+            int parent = stackParents[top];
+            if (parent >= 0) {
+                if (newLeft[parent] < 0) {
+                    newLeft[parent] = node;
+                }else{
+                    newRight[parent] = node;
+                }
+            }
+            newLeft[node] = -1;
+            newRight[node] = -1;
+            newTimes[node] = times[oldNode];
+            if (left[oldNode] >= 0) {
+                stack[top] = survivingDescendant(right[oldNode], left, right, survives);
+                stackParents[top++] = node;
+                stack[top] = survivingDescendant(left[oldNode], left, right, survives);
+                stackParents[top++] = node;
+            }
+        }
+
+        // a branch's length is the time from its parent's split to its own split (or the end, for leaves)
+        double[] lengths = new double[nNodes];
+        for (int node = 0; node < nNodes; node++) {
+            if (newLeft[node] >= 0) {
+                lengths[newLeft[node]] = newTimes[newLeft[node]] - newTimes[node];
+                lengths[newRight[node]] = newTimes[newRight[node]] - newTimes[node];
+            }
+        }
+        return new SimulatedTree(nNodes, newLeft, newRight, lengths, meanBranchLength);
+    }
+
+    /*
+        The first node at or below node with two surviving children, or a surviving leaf
+    */
+    private static int survivingDescendant(int node, int[] left, int[] right, boolean[] survives){
+        while (left[node] >= 0 && !(survives[left[node]] && survives[right[node]])) {
+            node = survives[left[node]] ? left[node] : right[node];
+        }
+        return node;
+    }
+
+    private static double exponential(SplittableRandom random){
+        return -Math.log(1.0 - random.nextDouble());
+    }
+
+    public int getNodeCount(){
+        return parents.length;
+    }
+
+    public int getLeafCount(){
+        return nLeaves;
+    }
+
+    public int getParent(int node){
+        return parents[node];
+    }
+
+    public boolean isLeaf(int node){
+        return left[node] < 0;
+    }
+
+    public int getLeft(int node){
+        return left[node];
+    }
+
+    public int getRight(int node){
+        return right[node];
+    }
+
+    public double getLength(int node){
+        return lengths[node];
+    }
+
+    /*
+        Null for internal nodes
+    */
+    public String getName(int node){
+        return names[node];
+    }
+
+    /*
+        Leaf names, and for internal nodes a specification of the branch above them as used by -branches: the leftmost
+        leaves of their two subtrees, whose most recent common ancestor they are. The root is ROOT_LABEL
+    */
+    public String[] getLabels(){
+        String[] labels = new String[parents.length];
+        int[] firstLeaves = new int[parents.length];
+        for (int node = parents.length - 1; node >= 0; node--) {
+            if (isLeaf(node)) {
+                firstLeaves[node] = node;
+                labels[node] = names[node];
+            }else{
+                firstLeaves[node] = firstLeaves[left[node]];
+                labels[node] = names[firstLeaves[left[node]]] + BranchSet.MRCA_DELIM + names[firstLeaves[right[node]]];
+            }
+        }
+        labels[0] = ROOT_LABEL;
+        return labels;
+    }
+
+    /*
+        Appends a branch length with 8 decimal places, which is much faster than String.format for large trees
+    */
+    private static void appendLength(StringBuilder newick, double length){
+        long scaled = Math.round(length * 1e8);
+        String fraction = Long.toString(scaled % 100000000L);
+        newick.append(scaled / 100000000L).append('.');
+        for (int i = fraction.length(); i < 8; i++) {
+            newick.append('0');
+        }
+        newick.append(fraction);
+    }
+
+    public void writeNewick(File file) throws IOException {
+        StringBuilder newick = new StringBuilder(parents.length * 16);
+        // each entry is a node to open (2*node) or to close (2*node + 1), or -1 for a comma
+        int[] stack = new int[2 * parents.length];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int entry = stack[--top];
+            if (entry < 0) {
+                newick.append(',');
+                continue;
+            }
+            int node = entry / 2;
+            if (entry % 2 == 0 && !isLeaf(node)) {
+                newick.append('(');
+                stack[top++] = entry + 1;
+                stack[top++] = 2 * right[node];
+                stack[top++] = -1;
+                stack[top++] = 2 * left[node];
+                continue;
+            }
+            if (isLeaf(node)) {
+                newick.append(names[node]);
+            }else{
+                newick.append(')');
+            }
+            if (node != 0) {
+                appendLength(newick.append(':'), lengths[node]);
+            }
+        }
+        newick.append(";\n");
+
+        PrintWriter writer = new PrintWriter(file, "UTF-8");
+        try{
+            writer.print(newick);
+        }finally{
+            writer.close();
+        }
+    }
+
+}
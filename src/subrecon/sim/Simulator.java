@@ -0,0 +1,118 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.sim;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import pal.substmodel.AminoAcidModel;
+import pal.substmodel.GammaRates;
+import pal.substmodel.RateDistribution;
+import subrecon.SubRecon;
+import subrecon.cli.CommandArgs;
+import subrecon.molevo.SubstitutionEngine;
+
+/**
+ * Simulates a dataset for SubRecon: a random tree (SimulatedTree) and an
+ * amino acid alignment evolved along it (AlignmentSimulator), for testing at
+ * scale and for checking reconstructions against the true states.
+ *
+ * SubRecon reconstructs the branch between the root's two children, A and B,
+ * so the true substitutions are the differences between their sequences in
+ * the -truth file, under the labels that are printed.
+ *
+ * Usage: java -cp SubRecon1.0.jar subrecon.sim.Simulator -n taxa -l sites -m model -a shape -k nCat -o prefix [options]
+ */
+public class Simulator {
+
+    public static void main(String[] args) {
+        SimulatorArgs simArgs = new SimulatorArgs();
+        JCommander jcom = new JCommander(simArgs);
+        jcom.setProgramName("subrecon.sim.Simulator");
+        try{
+            jcom.parse(args);
+        }catch(ParameterException ex){
+            if (!simArgs.getShowHelp()) {
+                System.out.println(String.format("ERROR: %s", ex.getMessage()));
+            }
+            jcom.usage();
+            System.exit(simArgs.getShowHelp() ? 0 : 1);
+        }
+        if (simArgs.getShowHelp()) {
+            jcom.usage();
+            System.exit(0);
+        }
+
+        try{
+            System.exit(run(simArgs));
+        }catch(IllegalArgumentException e){ // includes ParameterException
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /*
+        Throws IllegalArgumentException for bad options
+    */
+    private static int run(SimulatorArgs simArgs){
+        if (simArgs.getNThreads() < 1)
+            throw new IllegalArgumentException("ERROR: -T (number of threads) must be 1 or higher");
+        if (simArgs.getShape() <= 0.0)
+            throw new IllegalArgumentException("ERROR: -shape value must be greater than 0.0");
+        if (simArgs.getNCat() < 1)
+            throw new IllegalArgumentException("ERROR: -rateclasses value must be 1 or higher");
+
+        double[] frequencies = simArgs.getFrequencies() == null ? null : CommandArgs.parseFrequencies(simArgs.getFrequencies());
+        AminoAcidModel model = SubRecon.getModelInstance(simArgs.getModelID(), frequencies);
+        RateDistribution rateDist = new GammaRates(simArgs.getNCat(), simArgs.getShape());
+
+        long start = System.nanoTime();
+        SplittableRandom random = new SplittableRandom(simArgs.getSeed());
+        SimulatedTree tree = SimulatedTree.create(simArgs.getTreeShape(), simArgs.getNTaxa(), simArgs.getMeanBranchLength(),
+                                                    simArgs.getExtinction(), random.split());
+        AlignmentSimulator simulator = new AlignmentSimulator(tree, new SubstitutionEngine(model), rateDist.getRates(), rateDist.getCategoryProbabilities(),
+                                                            simArgs.getGapFraction());
+
+        String prefix = simArgs.getOutPrefix();
+        File treeFile = new File(prefix + ".tre");
+        File alignmentFile = new File(prefix + (simArgs.getPhy() ? ".phy" : ".fasta"));
+        File truthFile = simArgs.getTruth() ? new File(prefix + ".truth.fasta") : null;
+        long nChanges;
+        try{
+            tree.writeNewick(treeFile);
+            nChanges = simulator.simulate(simArgs.getNSites(), random.nextLong(), simArgs.getNThreads(), alignmentFile, simArgs.getPhy(), truthFile);
+        }catch(IOException e){
+            System.out.println("ERROR: Unable to write simulated data: "+e.getMessage());
+            return 1;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        String[] labels = tree.getLabels();
+        System.out.printf("Simulated %d sites for %d taxa (%s tree, %s, gamma shape %s, %d rate classes) in %.1f s%n", simArgs.getNSites(), tree.getLeafCount(),
+                            simArgs.getTreeShape(), simArgs.getModelID(), simArgs.getShape(), simArgs.getNCat(), seconds);
+        System.out.printf("Changes along branches: %d (%.3f per site)%n", nChanges, (double)nChanges / simArgs.getNSites());
+        System.out.println("Tree: "+treeFile);
+        System.out.println("Alignment: "+alignmentFile);
+        if (truthFile != null) {
+            System.out.println("True sequences: "+truthFile);
+            System.out.println("Branch of interest: A = "+labels[tree.getLeft(0)]+", B = "+labels[tree.getRight(0)]);
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+   Copyright 2026 SubRecon contributors
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and 
+   limitations under the License.
+*/
+package subrecon.sim;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * Command line options of the Simulator. The model options are as for SubRecon.
+ */
+public class SimulatorArgs {
+
+    // tree
+    @Parameter(names = {"-taxa", "-n"}, required = true, description = "Number of taxa")
+    private int nTaxa;
+
+    public int getNTaxa(){
+        return nTaxa;
+    }
+
+    @Parameter(names = {"-sites", "-l"}, required = true, description = "Number of alignment columns")
+    private int nSites;
+
+    public int getNSites(){
+        return nSites;
+    }
+
+    @Parameter(names = {"-treeshape"}, required = false, description = "Shape of the random tree: balanced, caterpillar or birthdeath")
+    private String treeShape = SimulatedTree.BALANCED;
+
+    public String getTreeShape(){
+        return treeShape;
+    }
+
+    @Parameter(names = {"-branchlength"}, required = false, description = "Mean branch length, in expected substitutions per site")
+    private double meanBranchLength = 0.1;
+
+    public double getMeanBranchLength(){
+        return meanBranchLength;
+    }
+
+    @Parameter(names = {"-extinction"}, required = false, description = "With -treeshape birthdeath, death rate relative to birth rate (0 for a pure birth tree)")
+    private double extinction = 0.5;
+
+    public double getExtinction(){
+        return extinction;
+    }
+
+    // model
+    @Parameter(names = {"-model", "-m"}, required = true, description = "Amino acid substitution model: dayhoff, jtt, wag or blosum62")
+    private String model;
+
+    public String getModelID(){
+        return model;
+    }
+
+    @Parameter(names = {"-shape", "-a"}, required = true, description = "Shape parameter (alpha) for gamma distribution of substitution rates")
+    private double shape = 0.0;
+
+    public double getShape(){
+        return shape;
+    }
+
+    @Parameter(names = {"-rateclasses", "-k"}, required = true, description = "Number of rate catergories for gamma distribution of substitution rates")
+    private int nCat = 1;
+
+    public int getNCat(){
+        return nCat;
+    }
+
+    @Parameter(names = {"-frequencies", "-pi"}, required = false, description = "Equilibrium frequencies for amino acids, delimited by comma in order: A,R,N,D,C,Q,E,G,H,I,L,K,M,F,P,S,T,W,Y,V. (Use model's original estimated frequencies by default)")
+    private String piArgument;
+
+    public String getFrequencies(){
+        return piArgument;
+    }
+
+    @Parameter(names = {"-gaps"}, required = false, description = "Fraction of leaf sequence sites that are gaps (missing data)")
+    private double gapFraction = 0.0;
+
+    public double getGapFraction(){
+        return gapFraction;
+    }
+
+    // output
+    @Parameter(names = {"-out", "-o"}, required = true, description = "Prefix of the output files: prefix.fasta (or prefix.phy), prefix.tre, and with -truth prefix.truth.fasta")
+    private String outPrefix;
+
+    public String getOutPrefix(){
+        return outPrefix;
+    }
+
+    @Parameter(names = {"-phy"}, required = false, description = "Write the alignment in (sequential) Phylip format")
+    private boolean phy = false;
+
+    public boolean getPhy(){
+        return phy;
+    }
+
+    @Parameter(names = {"-truth"}, required = false, description = "Also write the true sequences of every node, without gaps: internal nodes are named as for -branches (e.g. t1+t5), and the root is 'root'")
+    private boolean truth = false;
+
+    public boolean getTruth(){
+        return truth;
+    }
+
+    @Parameter(names = {"-seed"}, required = false, description = "Seed for the random number generator; the same seed and options give the same output")
+    private long seed = 1L;
+
+    public long getSeed(){
+        return seed;
+    }
+
+    @Parameter(names = {"-threads", "-T"}, required = false, description = "Number of threads to use (default: the number of available processors)")
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+
+    public int getNThreads(){
+        return nThreads;
+    }
+
+    @Parameter(names = {"-help", "-h"}, required = false, description = "Print help information and exit")
+    private boolean help = false;
+
+    public boolean getShowHelp(){
+        return help;
+    }
+
+}
@@ -25,6 +25,32 @@ public class Utils {
     
     private Utils(){}
     
+    /*
+        The string as a quoted JSON string
+    */
+    public static String jsonString(String s){
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            }else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int)c));
+            }else{
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+    
+    /*
+        JSON has no NaN or infinity, so these are null
+    */
+    public static String jsonNumber(double value){
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+    }
+    
     public static double roundDouble(double toRound, int decPlaces){
         long tenMultiple = (long)Math.pow(10.0, (double)decPlaces);
         return (double)Math.round( toRound * tenMultiple )  / tenMultiple;